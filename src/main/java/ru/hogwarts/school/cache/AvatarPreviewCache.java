@@ -0,0 +1,265 @@
+package ru.hogwarts.school.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.AvatarPreview;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Кеш превью аватаров в памяти процесса, ограниченный суммарным размером в байтах.
+ * Ключи распределены по независимым сегментам со своим LRU и своей долей бюджета,
+ * чтобы частые чтения не упирались в одну блокировку.
+ */
+@Component
+public class AvatarPreviewCache implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(AvatarPreviewCache.class);
+
+    /** Примерные накладные расходы на запись: ключ, узел LinkedHashMap, record и заголовок массива. */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Shard[] shards;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AvatarPreviewCache(@Value("${avatar.preview.cache.max-bytes:67108864}") long maxBytes,
+                              @Value("${avatar.preview.cache.shards:16}") int shardCount) {
+        int count = Integer.highestOneBit(Math.max(1, shardCount));
+        this.maxBytes = maxBytes;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(maxBytes / count);
+        }
+        logger.info("AvatarPreviewCache initialized with {} bytes budget in {} shards", maxBytes, count);
+    }
+
+    public Optional<AvatarPreview> get(Long studentId) {
+        AvatarPreview preview = shard(studentId).get(studentId);
+        if (preview == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(preview);
+    }
+
+    /**
+     * Возвращает превью из кеша или загружает его. Если ключ был инвалидирован
+     * во время загрузки, результат не кладётся в кеш, чтобы не сохранить устаревшие данные.
+     */
+    public Optional<AvatarPreview> get(Long studentId, Supplier<Optional<AvatarPreview>> loader) {
+        Shard shard = shard(studentId);
+        AvatarPreview cached = shard.get(studentId);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+
+        long generation = shard.generation();
+        Optional<AvatarPreview> loaded = loader.get();
+        loaded.ifPresent(preview -> shard.putIfGeneration(studentId, preview, generation));
+        return loaded;
+    }
+
+    /**
+     * Пакетный вариант {@link #get(Long, Supplier)}: промахи загружаются одним вызовом загрузчика.
+     * Порядок результата совпадает с порядком {@code studentIds}, отсутствующие ключи пропускаются.
+     */
+    public Map<Long, AvatarPreview> getAll(Collection<Long> studentIds,
+                                           Function<Collection<Long>, Map<Long, AvatarPreview>> loader) {
+        Map<Long, AvatarPreview> found = new HashMap<>();
+        Map<Long, Long> generations = new HashMap<>();
+        for (Long studentId : studentIds) {
+            Shard shard = shard(studentId);
+            AvatarPreview cached = shard.get(studentId);
+            if (cached != null) {
+                hits.increment();
+                found.put(studentId, cached);
+            } else if (!generations.containsKey(studentId)) {
+                misses.increment();
+                generations.put(studentId, shard.generation());
+            }
+        }
+
+        if (!generations.isEmpty()) {
+            loader.apply(generations.keySet()).forEach((studentId, preview) -> {
+                Long generation = generations.get(studentId);
+                if (generation != null) {
+                    shard(studentId).putIfGeneration(studentId, preview, generation);
+                    found.put(studentId, preview);
+                }
+            });
+        }
+
+        Map<Long, AvatarPreview> result = new LinkedHashMap<>();
+        for (Long studentId : studentIds) {
+            AvatarPreview preview = found.get(studentId);
+            if (preview != null) {
+                result.put(studentId, preview);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Загружает превью, набор ключей которых заранее неизвестен (например, страницу факультета),
+     * и кладёт их в кеш. Превью из сегмента, который инвалидировали во время загрузки, в кеш не попадают.
+     */
+    public Map<Long, AvatarPreview> loadAll(Supplier<Map<Long, AvatarPreview>> loader) {
+        long[] generations = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            generations[i] = shards[i].generation();
+        }
+        Map<Long, AvatarPreview> loaded = loader.get();
+        loaded.forEach((studentId, preview) -> {
+            int index = shardIndex(studentId);
+            shards[index].putIfGeneration(studentId, preview, generations[index]);
+        });
+        return loaded;
+    }
+
+    public void invalidate(Long studentId) {
+        shard(studentId).remove(studentId);
+        logger.debug("Invalidated preview cache for student {}", studentId);
+    }
+
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.bytes();
+        }
+        return size;
+    }
+
+    public long getEntryCount() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.entries();
+        }
+        return count;
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("avatar.preview.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("avatar.preview.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("avatar.preview.cache.evictions", evictions, LongAdder::sum)
+                .register(registry);
+        Gauge.builder("avatar.preview.cache.hit.ratio", this, AvatarPreviewCache::getHitRatio)
+                .register(registry);
+        Gauge.builder("avatar.preview.cache.size", this, AvatarPreviewCache::getSizeInBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("avatar.preview.cache.max.size", () -> maxBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("avatar.preview.cache.entries", this, AvatarPreviewCache::getEntryCount)
+                .register(registry);
+    }
+
+    private Shard shard(Long studentId) {
+        return shards[shardIndex(studentId)];
+    }
+
+    private int shardIndex(Long studentId) {
+        long h = studentId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (shards.length - 1);
+    }
+
+    private static long weigh(AvatarPreview preview) {
+        return (preview.data() == null ? 0L : preview.data().length) + ENTRY_OVERHEAD;
+    }
+
+    private final class Shard {
+        private final long budget;
+        private final LinkedHashMap<Long, AvatarPreview> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+        private long generation;
+
+        Shard(long budget) {
+            this.budget = budget;
+        }
+
+        synchronized AvatarPreview get(Long studentId) {
+            return entries.get(studentId);
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void putIfGeneration(Long studentId, AvatarPreview preview, long expectedGeneration) {
+            long weight = weigh(preview);
+            if (generation != expectedGeneration || weight > budget) {
+                return;
+            }
+            AvatarPreview previous = entries.put(studentId, preview);
+            if (previous != null) {
+                bytes -= weigh(previous);
+            }
+            bytes += weight;
+
+            Iterator<Map.Entry<Long, AvatarPreview>> eldest = entries.entrySet().iterator();
+            while (bytes > budget && eldest.hasNext()) {
+                bytes -= weigh(eldest.next().getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void remove(Long studentId) {
+            generation++;
+            AvatarPreview removed = entries.remove(studentId);
+            if (removed != null) {
+                bytes -= weigh(removed);
+            }
+        }
+
+        synchronized void clear() {
+            generation++;
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized int entries() {
+            return entries.size();
+        }
+    }
+}
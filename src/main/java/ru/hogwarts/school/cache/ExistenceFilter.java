@@ -0,0 +1,110 @@
+package ru.hogwarts.school.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Множество существующих ID на фильтре Блума для быстрых ответов 404.
+ * ID считается точно отсутствующим, только если фильтр построен, ID не больше
+ * наибольшего ID на момент построения и фильтр его не содержит. ID новее построения
+ * всегда проверяются в БД, поэтому узел не теряет записи, созданные на других узлах.
+ * Удалённые ID остаются в фильтре до следующего построения - это лишь лишний запрос в БД.
+ */
+public class ExistenceFilter {
+
+    private record State(BloomFilter filter, long watermark, long size) {
+    }
+
+    private final double falsePositiveRate;
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+
+    private volatile State state;
+    private volatile BloomFilter next;
+
+    public ExistenceFilter(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public boolean definitelyMissing(long id) {
+        State current = state;
+        if (current == null || id > current.watermark() || current.filter().mightContain(id)) {
+            passes.increment();
+            return false;
+        }
+        misses.increment();
+        return true;
+    }
+
+    /**
+     * Вызывать после коммита: ID, добавленный до коммита, мог не попасть в строящийся фильтр.
+     */
+    public void add(long id) {
+        // Сначала строящийся фильтр, затем текущий: если построение завершится между
+        // чтениями, ID всё равно окажется в фильтре, который станет текущим
+        BloomFilter building = next;
+        State current = state;
+        if (building != null) {
+            building.put(id);
+        }
+        if (current != null) {
+            current.filter().put(id);
+        }
+    }
+
+    /**
+     * Строит новый фильтр по страницам ID в порядке возрастания и подменяет текущий.
+     *
+     * @param expectedSize ожидаемое число ID, определяет размер фильтра
+     * @param pageAfter    следующая страница ID, больших переданного; пустая - конец
+     */
+    public void rebuild(long expectedSize, LongFunction<List<Long>> pageAfter) {
+        BloomFilter filter = new BloomFilter(expectedSize, falsePositiveRate);
+        next = filter;
+        try {
+            long watermark = 0;
+            long size = 0;
+            List<Long> page;
+            while (!(page = pageAfter.apply(watermark)).isEmpty()) {
+                for (Long id : page) {
+                    filter.put(id);
+                }
+                watermark = page.get(page.size() - 1);
+                size += page.size();
+            }
+            state = new State(filter, watermark, size);
+        } finally {
+            next = null;
+        }
+    }
+
+    /**
+     * Выключает фильтр до следующего построения, например после потери уведомлений об изменениях.
+     */
+    public void invalidate() {
+        state = null;
+    }
+
+    public boolean isReady() {
+        return state != null;
+    }
+
+    public long getSize() {
+        State current = state;
+        return current == null ? 0 : current.size();
+    }
+
+    public long getSizeInBytes() {
+        State current = state;
+        return current == null ? 0 : current.filter().getSizeInBytes();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getPasses() {
+        return passes.sum();
+    }
+}
@@ -0,0 +1,130 @@
+package ru.hogwarts.school.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Фильтры существующих студентов и аватаров (по ID студента). Запросы к заведомо
+ * несуществующим ID отвечаются 404 без обращения к БД. Фильтры строятся в фоне после
+ * старта и периодически перестраиваются, чтобы забыть удалённые ID; до построения
+ * все запросы идут в БД как обычно.
+ */
+@Component
+public class ExistenceFilters implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(ExistenceFilters.class);
+
+    private static final int PAGE_SIZE = 10_000;
+
+    private final StudentRepository studentRepository;
+    private final AvatarRepository avatarRepository;
+    private final boolean enabled;
+    private final Duration rebuildInterval;
+    private final ExistenceFilter students;
+    private final ExistenceFilter avatars;
+    private volatile long builtAt;
+
+    public ExistenceFilters(StudentRepository studentRepository,
+                            AvatarRepository avatarRepository,
+                            @Value("${existence-filter.enabled:true}") boolean enabled,
+                            @Value("${existence-filter.false-positive-rate:0.01}") double falsePositiveRate,
+                            @Value("${existence-filter.rebuild-interval-ms:600000}") long rebuildIntervalMillis) {
+        this.studentRepository = studentRepository;
+        this.avatarRepository = avatarRepository;
+        this.enabled = enabled;
+        this.rebuildInterval = Duration.ofMillis(rebuildIntervalMillis);
+        this.students = new ExistenceFilter(falsePositiveRate);
+        this.avatars = new ExistenceFilter(falsePositiveRate);
+        logger.info("ExistenceFilters initialized: enabled {}, false positive rate {}, rebuild every {}",
+                enabled, falsePositiveRate, rebuildInterval);
+    }
+
+    public boolean studentMissing(long id) {
+        return enabled && students.definitelyMissing(id);
+    }
+
+    public boolean avatarMissing(long studentId) {
+        return enabled && avatars.definitelyMissing(studentId);
+    }
+
+    public void studentAdded(long id) {
+        students.add(id);
+    }
+
+    public void avatarAdded(long studentId) {
+        avatars.add(studentId);
+    }
+
+    /**
+     * Выключает фильтры до ближайшего построения.
+     */
+    public void invalidate() {
+        students.invalidate();
+        avatars.invalidate();
+        logger.info("Existence filters invalidated, rebuilding on next check");
+    }
+
+    /**
+     * Перестраивает фильтры, если они выключены или устарели. Вызывается и по расписанию, и из прогрева;
+     * построения не должны идти одновременно: {@link ExistenceFilter#rebuild} собирает новый фильтр
+     * в общем поле, и параллельная сборка теряет добавления. Второй вызывающий дождётся первого
+     * и увидит уже готовые фильтры.
+     */
+    @Scheduled(fixedDelayString = "${existence-filter.check-interval-ms:5000}")
+    public synchronized void maintain() {
+        if (!enabled) {
+            return;
+        }
+        boolean ready = students.isReady() && avatars.isReady();
+        if (ready && System.nanoTime() - builtAt < rebuildInterval.toNanos()) {
+            return;
+        }
+        try {
+            long started = System.nanoTime();
+            students.rebuild(Math.round(studentRepository.count() * 1.25),
+                    afterId -> studentRepository.findIdsAfter(afterId, Limit.of(PAGE_SIZE)));
+            avatars.rebuild(Math.round(avatarRepository.count() * 1.25),
+                    afterId -> avatarRepository.findStudentIdsAfter(afterId, Limit.of(PAGE_SIZE)));
+            builtAt = System.nanoTime();
+            logger.info("Rebuilt existence filters in {} ms: {} students ({} bytes), {} avatars ({} bytes)",
+                    Duration.ofNanos(builtAt - started).toMillis(), students.getSize(), students.getSizeInBytes(),
+                    avatars.getSize(), avatars.getSizeInBytes());
+        } catch (RuntimeException e) {
+            logger.error("Failed to rebuild existence filters", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Map.Entry<String, ExistenceFilter> entry : Map.of("students", students, "avatars", avatars).entrySet()) {
+            ExistenceFilter filter = entry.getValue();
+            FunctionCounter.builder("existence.filter.checks", filter, ExistenceFilter::getMisses)
+                    .tag("filter", entry.getKey())
+                    .tag("result", "missing")
+                    .register(registry);
+            FunctionCounter.builder("existence.filter.checks", filter, ExistenceFilter::getPasses)
+                    .tag("filter", entry.getKey())
+                    .tag("result", "database")
+                    .register(registry);
+            Gauge.builder("existence.filter.size", filter, ExistenceFilter::getSize)
+                    .tag("filter", entry.getKey())
+                    .register(registry);
+            Gauge.builder("existence.filter.bytes", filter, ExistenceFilter::getSizeInBytes)
+                    .tag("filter", entry.getKey())
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ru.hogwarts.school.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одинаковых одновременных чтений: первый вызов с ключом выполняет загрузку,
+ * остальные ждут его результат или его исключение. Результат разделяется между потоками,
+ * поэтому загрузчик должен возвращать неизменяемые данные, а не управляемые сущности.
+ * Ожидание ограничено - по его истечении вызов выполняет загрузку сам.
+ */
+@Component
+public class SingleFlight implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public SingleFlight(@Value("${singleflight.max-wait-ms:2000}") long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, created);
+        if (existing == null) {
+            leaders.increment();
+            try {
+                T value = loader.get();
+                created.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                created.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, created);
+            }
+        }
+
+        try {
+            Object value = existing.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+            shared.increment();
+            return (T) value;
+        } catch (ExecutionException e) {
+            shared.increment();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            logger.debug("Shared call for {} did not finish in {} ms, loading independently", key, maxWaitMillis);
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, e);
+        }
+    }
+
+    /**
+     * Доля вызовов, получивших чужой результат вместо собственного обращения к БД.
+     */
+    public double getCoalescingRatio() {
+        long sharedCount = shared.sum();
+        long total = leaders.sum() + sharedCount + timeouts.sum();
+        return total == 0 ? 0.0 : (double) sharedCount / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("singleflight.calls", leaders, LongAdder::sum)
+                .tag("result", "leader")
+                .register(registry);
+        FunctionCounter.builder("singleflight.calls", shared, LongAdder::sum)
+                .tag("result", "shared")
+                .register(registry);
+        FunctionCounter.builder("singleflight.calls", timeouts, LongAdder::sum)
+                .tag("result", "timeout")
+                .register(registry);
+        Gauge.builder("singleflight.coalescing.ratio", this, SingleFlight::getCoalescingRatio)
+                .register(registry);
+        Gauge.builder("singleflight.in.flight", inFlight, ConcurrentHashMap::size)
+                .register(registry);
+    }
+}
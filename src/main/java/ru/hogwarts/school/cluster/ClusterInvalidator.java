@@ -0,0 +1,124 @@
+package ru.hogwarts.school.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.web.TableVersions;
+import ru.hogwarts.school.web.TableVersions.Table;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Точка инвалидации состояния в памяти для путей записи. Локально состояние обновляется
+ * после коммита, а остальным узлам уходит {@code pg_notify} в той же транзакции -
+ * PostgreSQL доставит его только после коммита, а при откате не доставит вовсе.
+ */
+@Component
+public class ClusterInvalidator {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterInvalidator.class);
+
+    private static final ResultSetExtractor<Void> IGNORE_RESULT = rs -> null;
+
+    // Полезная нагрузка NOTIFY ограничена 8000 байтами, ID в 64 бита занимает не больше 20 символов
+    private static final int AVATAR_IDS_PER_MESSAGE = 300;
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final TableVersions tableVersions;
+    private final AvatarPreviewCache previewCache;
+    private final ExistenceFilters existenceFilters;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final String channel;
+
+    public ClusterInvalidator(TableVersions tableVersions, AvatarPreviewCache previewCache,
+                              ExistenceFilters existenceFilters, JdbcTemplate jdbcTemplate,
+                              @Value("${cluster.invalidation.enabled:false}") boolean enabled,
+                              @Value("${cluster.invalidation.channel:hogwarts_invalidation}") String channel) {
+        this.tableVersions = tableVersions;
+        this.previewCache = previewCache;
+        this.existenceFilters = existenceFilters;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.channel = channel;
+        logger.info("ClusterInvalidator initialized for node {}, cross-node notifications {}",
+                nodeId, enabled ? "enabled on channel " + channel : "disabled");
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void tablesChanged(Table... tables) {
+        tableVersions.bumpAfterCommit(tables);
+        notifyNodes(InvalidationMessage.tables(nodeId, tables));
+    }
+
+    /**
+     * Студент создан или перезаписан через PUT: его ID должен попасть в фильтры существования узлов.
+     */
+    public void studentSaved(Long studentId) {
+        afterCommit(() -> existenceFilters.studentAdded(studentId));
+        notifyNodes(InvalidationMessage.students(nodeId, studentId));
+    }
+
+    public void avatarChanged(Long studentId) {
+        afterCommit(() -> {
+            previewCache.invalidate(studentId);
+            existenceFilters.avatarAdded(studentId);
+        });
+        notifyNodes(InvalidationMessage.avatar(nodeId, studentId));
+    }
+
+    public void avatarsChanged(List<Long> studentIds) {
+        if (studentIds.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> studentIds.forEach(previewCache::invalidate));
+        for (int from = 0; from < studentIds.size(); from += AVATAR_IDS_PER_MESSAGE) {
+            List<Long> chunk = studentIds.subList(from, Math.min(from + AVATAR_IDS_PER_MESSAGE, studentIds.size()));
+            notifyNodes(InvalidationMessage.avatars(nodeId, chunk));
+        }
+    }
+
+    /**
+     * Данные заменены целиком, например загрузкой набора данных: все узлы сбрасывают версии таблиц,
+     * кеш превью и фильтры существования.
+     */
+    public void everythingChanged() {
+        afterCommit(() -> {
+            tableVersions.bump(Table.values());
+            previewCache.clear();
+            existenceFilters.invalidate();
+        });
+        notifyNodes(InvalidationMessage.all(nodeId));
+    }
+
+    private void notifyNodes(String payload) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", IGNORE_RESULT, channel, payload);
+        logger.trace("Queued invalidation notification {}", payload);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
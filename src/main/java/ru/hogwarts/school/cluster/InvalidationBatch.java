@@ -0,0 +1,105 @@
+package ru.hogwarts.school.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.web.TableVersions;
+import ru.hogwarts.school.web.TableVersions.Table;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Накопитель сообщений инвалидации от других узлов. Повторы схлопываются,
+ * и состояние узла обновляется один раз на пачку уведомлений.
+ * Если затронуто слишком много аватаров, кеш превью сбрасывается целиком.
+ */
+final class InvalidationBatch {
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationBatch.class);
+
+    private final String nodeId;
+    private final int maxAvatarIds;
+    private final Set<Table> tables = EnumSet.noneOf(Table.class);
+    private final Set<Long> avatars = new HashSet<>();
+    private final Set<Long> students = new HashSet<>();
+    private boolean all;
+
+    InvalidationBatch(String nodeId, int maxAvatarIds) {
+        this.nodeId = nodeId;
+        this.maxAvatarIds = maxAvatarIds;
+    }
+
+    void add(String payload) {
+        String[] parts = payload.split("\\|", -1);
+        if (parts.length != 3 || parts[1].length() != 1) {
+            logger.warn("Ignoring malformed invalidation message: {}", payload);
+            return;
+        }
+        if (parts[0].equals(nodeId)) {
+            return;
+        }
+        try {
+            switch (parts[1].charAt(0)) {
+                case InvalidationMessage.TABLES -> {
+                    for (String table : parts[2].split(",")) {
+                        tables.add(Table.valueOf(table));
+                    }
+                }
+                case InvalidationMessage.AVATARS -> {
+                    for (String studentId : parts[2].split(",")) {
+                        avatars.add(Long.parseLong(studentId));
+                    }
+                }
+                case InvalidationMessage.STUDENTS -> {
+                    for (String studentId : parts[2].split(",")) {
+                        students.add(Long.parseLong(studentId));
+                    }
+                }
+                case InvalidationMessage.ALL -> all = true;
+                default -> logger.warn("Ignoring invalidation message of unknown kind: {}", payload);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring malformed invalidation message: {}", payload);
+        }
+    }
+
+    /**
+     * Сброс всего состояния - после разрыва соединения часть уведомлений могла быть потеряна.
+     */
+    void invalidateAll() {
+        all = true;
+    }
+
+    boolean isEmpty() {
+        return !all && tables.isEmpty() && avatars.isEmpty() && students.isEmpty();
+    }
+
+    void applyTo(TableVersions tableVersions, AvatarPreviewCache previewCache, ExistenceFilters existenceFilters) {
+        if (all) {
+            tableVersions.bump(Table.values());
+            previewCache.clear();
+            existenceFilters.invalidate();
+            logger.info("Applied full invalidation");
+        } else {
+            if (!tables.isEmpty()) {
+                tableVersions.bump(tables.toArray(Table[]::new));
+            }
+            if (avatars.size() > maxAvatarIds) {
+                previewCache.clear();
+            } else {
+                avatars.forEach(previewCache::invalidate);
+            }
+            // Лишний ID в фильтре безопасен, поэтому удалённые аватары тоже добавляются
+            avatars.forEach(existenceFilters::avatarAdded);
+            students.forEach(existenceFilters::studentAdded);
+            logger.debug("Applied invalidation of tables {}, {} avatars and {} saved students",
+                    tables, avatars.size(), students.size());
+        }
+        tables.clear();
+        avatars.clear();
+        students.clear();
+        all = false;
+    }
+}
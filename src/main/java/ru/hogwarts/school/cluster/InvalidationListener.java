@@ -0,0 +1,166 @@
+package ru.hogwarts.school.cluster;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.web.TableVersions;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Слушатель уведомлений инвалидации от других узлов. Держит отдельное соединение
+ * вне пула, выполняет {@code LISTEN} и применяет полученные сообщения пачками.
+ * Уведомления, пришедшие пока соединения не было, теряются, поэтому после
+ * переподключения состояние узла сбрасывается целиком.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.invalidation.enabled", havingValue = "true")
+public class InvalidationListener implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationListener.class);
+
+    private final ClusterInvalidator clusterInvalidator;
+    private final TableVersions tableVersions;
+    private final AvatarPreviewCache previewCache;
+    private final ExistenceFilters existenceFilters;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String channel;
+    private final int batchWindowMillis;
+    private final int maxAvatarIds;
+    private final long heartbeatMillis;
+    private final long reconnectDelayMillis;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public InvalidationListener(ClusterInvalidator clusterInvalidator,
+                                TableVersions tableVersions,
+                                AvatarPreviewCache previewCache,
+                                ExistenceFilters existenceFilters,
+                                @Value("${spring.datasource.url}") String url,
+                                @Value("${spring.datasource.username}") String username,
+                                @Value("${spring.datasource.password}") String password,
+                                @Value("${cluster.invalidation.channel:hogwarts_invalidation}") String channel,
+                                @Value("${cluster.invalidation.batch-window-ms:50}") int batchWindowMillis,
+                                @Value("${cluster.invalidation.max-avatar-ids:1000}") int maxAvatarIds,
+                                @Value("${cluster.invalidation.heartbeat-ms:10000}") long heartbeatMillis,
+                                @Value("${cluster.invalidation.reconnect-delay-ms:1000}") long reconnectDelayMillis) {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid notification channel name: " + channel);
+        }
+        this.clusterInvalidator = clusterInvalidator;
+        this.tableVersions = tableVersions;
+        this.previewCache = previewCache;
+        this.existenceFilters = existenceFilters;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.channel = channel;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxAvatarIds = maxAvatarIds;
+        this.heartbeatMillis = heartbeatMillis;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listen, "invalidation-listener");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Listening for invalidations on channel {} as node {}", channel, clusterInvalidator.getNodeId());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        InvalidationBatch batch = new InvalidationBatch(clusterInvalidator.getNodeId(), maxAvatarIds);
+        boolean gap = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                if (gap) {
+                    logger.info("Reconnected to invalidation channel, resynchronizing local state");
+                    batch.invalidateAll();
+                    batch.applyTo(tableVersions, previewCache, existenceFilters);
+                }
+                receive(connection, batch);
+            } catch (SQLException e) {
+                if (running) {
+                    logger.warn("Invalidation listener connection lost, reconnecting in {} ms", reconnectDelayMillis, e);
+                }
+            }
+            gap = true;
+            sleep(reconnectDelayMillis);
+        }
+        logger.info("Invalidation listener stopped");
+    }
+
+    private void receive(Connection connection, InvalidationBatch batch) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        long lastActivity = System.currentTimeMillis();
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications((int) heartbeatMillis);
+            if (notifications == null || notifications.length == 0) {
+                // Проверка соединения: без неё обрыв TCP может остаться незамеченным
+                if (System.currentTimeMillis() - lastActivity >= heartbeatMillis) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SELECT 1");
+                    }
+                    lastActivity = System.currentTimeMillis();
+                }
+                continue;
+            }
+            lastActivity = System.currentTimeMillis();
+            collect(notifications, batch);
+            // Короткое окно, чтобы схлопнуть всплеск уведомлений от пачки транзакций
+            if (batchWindowMillis > 0) {
+                collect(pgConnection.getNotifications(batchWindowMillis), batch);
+            }
+            if (!batch.isEmpty()) {
+                batch.applyTo(tableVersions, previewCache, existenceFilters);
+            }
+        }
+    }
+
+    private static void collect(PGNotification[] notifications, InvalidationBatch batch) {
+        if (notifications == null) {
+            return;
+        }
+        for (PGNotification notification : notifications) {
+            batch.add(notification.getParameter());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
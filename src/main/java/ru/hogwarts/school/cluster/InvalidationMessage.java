@@ -0,0 +1,51 @@
+package ru.hogwarts.school.cluster;
+
+import ru.hogwarts.school.web.TableVersions.Table;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Компактный формат сообщений инвалидации для NOTIFY: {@code узел|вид|аргументы}.
+ * <ul>
+ *     <li>{@code T} - изменились таблицы, аргументы - имена {@link Table} через запятую</li>
+ *     <li>{@code A} - изменились аватары, аргументы - ID студентов через запятую</li>
+ *     <li>{@code S} - сохранены студенты, аргументы - их ID через запятую</li>
+ *     <li>{@code *} - сбросить всё состояние</li>
+ * </ul>
+ */
+final class InvalidationMessage {
+
+    static final char TABLES = 'T';
+    static final char AVATARS = 'A';
+    static final char STUDENTS = 'S';
+    static final char ALL = '*';
+
+    private static final char SEPARATOR = '|';
+
+    private InvalidationMessage() {
+    }
+
+    static String tables(String nodeId, Table... tables) {
+        return nodeId + SEPARATOR + TABLES + SEPARATOR
+                + Arrays.stream(tables).map(Table::name).collect(Collectors.joining(","));
+    }
+
+    static String avatar(String nodeId, Long studentId) {
+        return nodeId + SEPARATOR + AVATARS + SEPARATOR + studentId;
+    }
+
+    static String avatars(String nodeId, Collection<Long> studentIds) {
+        return nodeId + SEPARATOR + AVATARS + SEPARATOR
+                + studentIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    static String students(String nodeId, Long studentId) {
+        return nodeId + SEPARATOR + STUDENTS + SEPARATOR + studentId;
+    }
+
+    static String all(String nodeId) {
+        return nodeId + SEPARATOR + ALL + SEPARATOR;
+    }
+}
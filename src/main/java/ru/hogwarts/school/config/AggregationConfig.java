@@ -0,0 +1,30 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Отдельный пул для параллельной агрегации, чтобы тяжёлые расчёты
+ * не конкурировали с потоками запросов в common pool.
+ */
+@Configuration
+public class AggregationConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool aggregationPool(@Value("${student.aggregation.parallelism:0}") int parallelism) {
+        int size = parallelism > 0
+                ? parallelism
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger counter = new AtomicInteger();
+        return new ForkJoinPool(size, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("aggregation-" + counter.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+}
@@ -0,0 +1,42 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.controller.AvatarAsyncServlet;
+import ru.hogwarts.school.service.AvatarService;
+
+@Configuration
+@ConditionalOnProperty(name = "avatar.async.enabled", havingValue = "true")
+public class AvatarAsyncConfig {
+
+    @Bean
+    public ThreadPoolTaskExecutor avatarAsyncExecutor(@Value("${avatar.async.pool-size:8}") int poolSize,
+                                                      @Value("${avatar.async.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("avatar-async-");
+        return executor;
+    }
+
+    @Bean
+    public ServletRegistrationBean<AvatarAsyncServlet> avatarAsyncServlet(
+            AvatarService avatarService,
+            ExistenceFilters existenceFilters,
+            ThreadPoolTaskExecutor avatarAsyncExecutor,
+            @Value("${avatar.async.max-upload-size:307200}") long maxUploadSize,
+            @Value("${avatar.async.timeout-ms:60000}") long timeout) {
+        ServletRegistrationBean<AvatarAsyncServlet> registration = new ServletRegistrationBean<>(
+                new AvatarAsyncServlet(avatarService, existenceFilters, avatarAsyncExecutor, maxUploadSize, timeout),
+                "/avatar/async/*");
+        registration.setAsyncSupported(true);
+        registration.setName("avatarAsyncServlet");
+        return registration;
+    }
+}
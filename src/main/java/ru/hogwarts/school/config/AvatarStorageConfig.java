@@ -0,0 +1,98 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.hogwarts.school.storage.AvatarStorage;
+import ru.hogwarts.school.storage.FileSystemAvatarStorage;
+import ru.hogwarts.school.storage.FsyncPolicy;
+import ru.hogwarts.school.storage.InMemoryAvatarStorage;
+import ru.hogwarts.school.storage.S3AvatarStorage;
+import ru.hogwarts.school.storage.SegmentAvatarStorage;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+public class AvatarStorageConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "avatar.storage.type", havingValue = "filesystem", matchIfMissing = true)
+    public AvatarStorage fileSystemAvatarStorage(@Value("${avatar.cover.dir.path}") String avatarDir,
+                                                 @Value("${avatar.storage.shard-depth:2}") int shardDepth,
+                                                 @Value("${avatar.storage.deduplicate:false}") boolean deduplicate,
+                                                 @Value("${avatar.storage.fsync:FILE}") FsyncPolicy fsyncPolicy) {
+        return new FileSystemAvatarStorage(Path.of(avatarDir), shardDepth, deduplicate, fsyncPolicy);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "avatar.storage.type", havingValue = "segment")
+    public AvatarStorage segmentAvatarStorage(@Value("${avatar.cover.dir.path}") String avatarDir,
+                                              @Value("${avatar.storage.segment.size:67108864}") int segmentSize,
+                                              @Value("${avatar.storage.segment.compaction-threshold:0.5}") double compactionThreshold,
+                                              @Value("${avatar.storage.segment.compaction-interval-seconds:600}") long compactionInterval,
+                                              @Value("${avatar.storage.fsync:FILE}") FsyncPolicy fsyncPolicy) throws IOException {
+        return new SegmentAvatarStorage(Path.of(avatarDir, "segments"), segmentSize, compactionThreshold,
+                fsyncPolicy, compactionInterval);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "avatar.storage.type", havingValue = "memory")
+    public AvatarStorage inMemoryAvatarStorage() {
+        return new InMemoryAvatarStorage();
+    }
+
+    /**
+     * S3 или совместимое хранилище. Для MinIO задаётся {@code endpoint} и включается path-style доступ;
+     * без ключей доступа используется стандартная цепочка AWS (переменные окружения, профиль, роль).
+     */
+    @Bean
+    @ConditionalOnProperty(name = "avatar.storage.type", havingValue = "s3")
+    public AvatarStorage s3AvatarStorage(@Value("${avatar.storage.s3.bucket}") String bucket,
+                                         @Value("${avatar.storage.s3.prefix:avatars/}") String prefix,
+                                         @Value("${avatar.storage.s3.region:us-east-1}") String region,
+                                         @Value("${avatar.storage.s3.endpoint:}") String endpoint,
+                                         @Value("${avatar.storage.s3.path-style:false}") boolean pathStyle,
+                                         @Value("${avatar.storage.s3.access-key:}") String accessKey,
+                                         @Value("${avatar.storage.s3.secret-key:}") String secretKey,
+                                         @Value("${avatar.storage.s3.part-size:8388608}") int partSize,
+                                         @Value("${avatar.storage.s3.upload-parallelism:4}") int uploadParallelism,
+                                         @Value("${avatar.storage.s3.presign-downloads:true}") boolean presignDownloads,
+                                         @Value("${avatar.storage.s3.presign-ttl-seconds:300}") long presignTtl,
+                                         @Value("${avatar.storage.s3.metadata-cache-size:10000}") int metadataCacheSize,
+                                         @Value("${avatar.storage.s3.metadata-ttl-seconds:60}") long metadataTtl) {
+        AwsCredentialsProvider credentials = accessKey.isEmpty()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3Configuration s3Configuration = S3Configuration.builder().pathStyleAccessEnabled(pathStyle).build();
+
+        S3ClientBuilder clientBuilder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(s3Configuration);
+        S3Presigner.Builder presignerBuilder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(s3Configuration);
+        if (!endpoint.isEmpty()) {
+            clientBuilder.endpointOverride(URI.create(endpoint));
+            presignerBuilder.endpointOverride(URI.create(endpoint));
+        }
+
+        return new S3AvatarStorage(clientBuilder.build(), presignDownloads ? presignerBuilder.build() : null,
+                bucket, prefix, partSize, uploadParallelism, Duration.ofSeconds(presignTtl),
+                metadataCacheSize, Duration.ofSeconds(metadataTtl));
+    }
+}
@@ -0,0 +1,42 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import ru.hogwarts.school.web.AdaptiveConcurrencyLimit;
+import ru.hogwarts.school.web.BulkheadFilter;
+import ru.hogwarts.school.web.BulkheadFilter.Group;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Лимиты групп задаются свойствами {@code bulkhead.<группа>.initial-limit|min-limit|max-limit},
+ * где группа - {@code avatar-upload}, {@code avatar-download} или {@code api}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "bulkhead.enabled", havingValue = "true", matchIfMissing = true)
+public class BulkheadConfig {
+
+    @Bean
+    public BulkheadFilter bulkheadFilter(Environment environment) {
+        double tolerance = environment.getProperty("bulkhead.rtt-tolerance", Double.class, 1.5);
+        double smoothing = environment.getProperty("bulkhead.smoothing", Double.class, 0.2);
+        Map<Group, AdaptiveConcurrencyLimit> limits = new EnumMap<>(Group.class);
+        limits.put(Group.AVATAR_UPLOAD, limit(environment, "avatar-upload", 8, 32, tolerance, smoothing));
+        limits.put(Group.AVATAR_DOWNLOAD, limit(environment, "avatar-download", 32, 100, tolerance, smoothing));
+        limits.put(Group.API, limit(environment, "api", 100, 180, tolerance, smoothing));
+        return new BulkheadFilter(limits);
+    }
+
+    private static AdaptiveConcurrencyLimit limit(Environment environment, String group, int initial, int max,
+                                                  double tolerance, double smoothing) {
+        String prefix = "bulkhead." + group + ".";
+        return new AdaptiveConcurrencyLimit(
+                environment.getProperty(prefix + "initial-limit", Integer.class, initial),
+                environment.getProperty(prefix + "min-limit", Integer.class, 1),
+                environment.getProperty(prefix + "max-limit", Integer.class, max),
+                tolerance, smoothing);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import ru.hogwarts.school.profiling.InspectingDataSource;
+import ru.hogwarts.school.profiling.QueryOrigin;
+import ru.hogwarts.school.profiling.RepositoryQueryEventInterceptor;
+import ru.hogwarts.school.profiling.SqlStatistics;
+
+import javax.sql.DataSource;
+
+/**
+ * Подключает JFR-события и метку источника SQL к прокси всех Spring Data репозиториев - так же, как Spring Boot
+ * подключает метрики {@code spring.data.repository.invocations}, и оборачивает пул соединений
+ * в {@link InspectingDataSource} для статистики SQL.
+ */
+@Configuration
+public class ProfilingConfig {
+
+    @Bean
+    static BeanPostProcessor repositoryQueryEventsPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, repositoryInformation) -> {
+                                Class<?> repositoryInterface = repositoryInformation.getRepositoryInterface();
+                                proxyFactory.addAdvice(new QueryOrigin(repositoryInterface));
+                                proxyFactory.addAdvice(new RepositoryQueryEventInterceptor(repositoryInterface));
+                            }));
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    static BeanPostProcessor sqlInspectionPostProcessor(ObjectProvider<SqlStatistics> statistics,
+                                                        @Value("${sql.inspection.enabled:true}") boolean enabled,
+                                                        @Value("${sql.inspection.explain.timeout-ms:5000}") long explainTimeoutMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (enabled && bean instanceof DataSource dataSource && !(bean instanceof InspectingDataSource)) {
+                    return new InspectingDataSource(dataSource, statistics.getObject(), explainTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+}
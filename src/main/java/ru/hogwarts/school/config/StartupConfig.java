@@ -0,0 +1,25 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.cluster.InvalidationListener;
+import ru.hogwarts.school.service.AvatarReconciler;
+import ru.hogwarts.school.service.ChangeEventRelay;
+
+/**
+ * При {@code spring.main.lazy-initialization=true} бины создаются при первом обращении.
+ * Фоновые компоненты никто не запрашивает, поэтому они исключены из ленивой инициализации,
+ * иначе ретранслятор событий, слушатель инвалидаций, сверка аватаров и фильтры существования
+ * просто не запустятся.
+ */
+@Configuration
+public class StartupConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter backgroundBeansExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ChangeEventRelay.class, InvalidationListener.class,
+                AvatarReconciler.class, ExistenceFilters.class);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.hogwarts.school.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.hogwarts.school.profiling.RequestEventInterceptor;
+import ru.hogwarts.school.web.ConditionalGetInterceptor;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final RequestEventInterceptor requestEventInterceptor;
+    private final ConditionalGetInterceptor conditionalGetInterceptor;
+
+    public WebConfig(RequestEventInterceptor requestEventInterceptor,
+                     ConditionalGetInterceptor conditionalGetInterceptor) {
+        this.requestEventInterceptor = requestEventInterceptor;
+        this.conditionalGetInterceptor = conditionalGetInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(requestEventInterceptor);
+        registry.addInterceptor(conditionalGetInterceptor);
+    }
+}
@@ -0,0 +1,574 @@
+package ru.hogwarts.school.controller;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Неблокирующий вариант эндпоинтов аватаров на Servlet async I/O.
+ * Тело запроса читается через {@link ReadListener} и пишется во временный файл
+ * через {@link AsynchronousFileChannel}, ответ отдаётся через {@link WriteListener}
+ * кусками по мере готовности клиента. Медленный клиент не держит поток контейнера,
+ * а работа с БД и генерация превью выполняются в отдельном пуле. Если пул переполнен,
+ * запрос завершается ответом 503.
+ *
+ * <ul>
+ *     <li>{@code PUT /avatar/async/{id}} - тело запроса - изображение, тип из {@code Content-Type}</li>
+ *     <li>{@code GET /avatar/async/{id}} - оригинал аватара</li>
+ * </ul>
+ */
+public class AvatarAsyncServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(AvatarAsyncServlet.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final AvatarService avatarService;
+    private final ExistenceFilters existenceFilters;
+    private final Executor executor;
+    private final long maxUploadSize;
+    private final long timeoutMillis;
+
+    public AvatarAsyncServlet(AvatarService avatarService, ExistenceFilters existenceFilters, Executor executor,
+                              long maxUploadSize, long timeoutMillis) {
+        this.avatarService = avatarService;
+        this.existenceFilters = existenceFilters;
+        this.executor = executor;
+        this.maxUploadSize = maxUploadSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Long studentId = studentId(request);
+        String contentType = request.getContentType();
+        if (studentId == null || existenceFilters.studentMissing(studentId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (contentType == null || !contentType.startsWith("image/")) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "File must be an image");
+            return;
+        }
+        if (request.getContentLengthLong() > maxUploadSize) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "File is too large");
+            return;
+        }
+
+        Path temp = Files.createTempFile("avatar-" + studentId + "-", ".upload");
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeoutMillis);
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(temp, StandardOpenOption.WRITE);
+        UploadListener listener = new UploadListener(context, request.getInputStream(), channel, temp,
+                studentId, contentType);
+        context.addListener(listener.timeoutListener());
+        request.getInputStream().setReadListener(listener);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Long studentId = studentId(request);
+        if (studentId == null || existenceFilters.avatarMissing(studentId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeoutMillis);
+        DownloadGuard guard = new DownloadGuard(studentId);
+        context.addListener(guard);
+        try {
+            executor.execute(() -> {
+                try {
+                    startDownload(context, studentId, guard);
+                } catch (Exception e) {
+                    logger.error("Failed to start async avatar download for student {}", studentId, e);
+                    guard.respond(context, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Async avatar pool is saturated, rejecting download for student {}", studentId);
+            guard.respond(context, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void startDownload(AsyncContext context, Long studentId, DownloadGuard guard) throws IOException {
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+        Avatar avatar;
+        try {
+            avatar = avatarService.findAvatar(studentId);
+        } catch (NoSuchElementException e) {
+            guard.respond(context, HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (avatar.getStorageKey() == null) {
+            guard.respond(context, HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Optional<URI> downloadUrl = avatarService.getAvatarDownloadUrl(avatar);
+        if (downloadUrl.isPresent()) {
+            response.setHeader("Location", downloadUrl.get().toString());
+            guard.respond(context, HttpServletResponse.SC_FOUND);
+            return;
+        }
+        if (!avatarService.avatarDataExists(avatar)) {
+            guard.respond(context, HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        DownloadListener listener;
+        Optional<ByteBuffer> mapped = avatarService.mapAvatarData(avatar);
+        Optional<Path> path = avatarService.getAvatarDataPath(avatar);
+        if (mapped.isPresent()) {
+            listener = new DownloadListener(context, mapped.get(), null, null);
+        } else if (path.isPresent()) {
+            listener = new DownloadListener(context, null,
+                    AsynchronousFileChannel.open(path.get(), StandardOpenOption.READ), null);
+        } else {
+            // Хранилище без файлов и прямых ссылок: поток читается кусками в пуле, целиком в память не грузится
+            listener = new DownloadListener(context, null, null, avatarService.openAvatarData(avatar));
+        }
+        if (!guard.attach(listener)) {
+            // Запрос уже завершён по таймауту, пока открывался источник
+            listener.close();
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(avatar.getMediaType());
+        response.setContentLengthLong(avatar.getFileSize());
+        response.getOutputStream().setWriteListener(listener);
+    }
+
+    private static Long studentId(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.length() < 2) {
+            return null;
+        }
+        try {
+            return Long.parseLong(pathInfo.substring(1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String extension(String contentType) {
+        String subtype = contentType.substring(contentType.indexOf('/') + 1);
+        int parameters = subtype.indexOf(';');
+        if (parameters >= 0) {
+            subtype = subtype.substring(0, parameters);
+        }
+        subtype = subtype.trim().toLowerCase();
+        return subtype.equals("jpeg") ? "jpg" : subtype;
+    }
+
+    private static void finish(AsyncContext context, int status) {
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+        if (!response.isCommitted()) {
+            response.setStatus(status);
+        }
+        context.complete();
+    }
+
+    private final class UploadListener implements ReadListener {
+        private final AsyncContext context;
+        private final ServletInputStream input;
+        private final AsynchronousFileChannel channel;
+        private final Path temp;
+        private final Long studentId;
+        private final String contentType;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        /**
+         * Фаза загрузки. Таймаут и ошибки чтения завершают запрос только на приёме тела:
+         * после начала сохранения временный файл нужен сервису, и запрос завершает сам {@link #store()}.
+         */
+        private final AtomicReference<Phase> phase = new AtomicReference<>(Phase.RECEIVING);
+        private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+        private long position;
+
+        UploadListener(AsyncContext context, ServletInputStream input, AsynchronousFileChannel channel,
+                       Path temp, Long studentId, String contentType) {
+            this.context = context;
+            this.input = input;
+            this.channel = channel;
+            this.temp = temp;
+            this.studentId = studentId;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (phase.get() == Phase.RECEIVING && input.isReady() && !input.isFinished()) {
+                int read = input.read(buffer);
+                if (read <= 0) {
+                    continue;
+                }
+                if (position + read > maxUploadSize) {
+                    complete(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+                // Буфер чтения переиспользуется, поэтому в канал уходит копия куска
+                ByteBuffer chunk = ByteBuffer.allocate(read).put(buffer, 0, read).flip();
+                writes = writes.thenCombine(write(chunk, position), (a, b) -> null);
+                position += read;
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (phase.get() != Phase.RECEIVING) {
+                return;
+            }
+            writes.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    onError(error);
+                    return;
+                }
+                try {
+                    executor.execute(this::store);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Async avatar pool is saturated, rejecting upload for student {}", studentId);
+                    complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            });
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (phase.get() != Phase.RECEIVING) {
+                return;
+            }
+            logger.error("Async avatar upload failed for student {}", studentId, error);
+            complete(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        private void store() {
+            if (!phase.compareAndSet(Phase.RECEIVING, Phase.STORING)) {
+                return;
+            }
+            int status = HttpServletResponse.SC_OK;
+            try {
+                channel.force(true);
+                avatarService.uploadAvatar(studentId, new FileSystemResource(temp), contentType,
+                        extension(contentType), position);
+            } catch (NoSuchElementException e) {
+                status = HttpServletResponse.SC_NOT_FOUND;
+            } catch (IllegalArgumentException e) {
+                status = HttpServletResponse.SC_BAD_REQUEST;
+            } catch (Exception e) {
+                logger.error("Failed to store async avatar upload for student {}", studentId, e);
+                status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            }
+            phase.set(Phase.DONE);
+            cleanup();
+            try {
+                finish(context, status);
+            } catch (IllegalStateException e) {
+                // Контейнер уже завершил запрос по таймауту, пока шло сохранение
+                logger.warn("Async avatar upload for student {} stored after the request had completed", studentId);
+            }
+        }
+
+        /**
+         * Удаляет временный файл и завершает запрос, если тело ещё принимается.
+         */
+        private void complete(int status) {
+            if (phase.compareAndSet(Phase.RECEIVING, Phase.DONE)) {
+                cleanup();
+                finish(context, status);
+            }
+        }
+
+        AsyncListener timeoutListener() {
+            return new AsyncListener() {
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    if (phase.get() == Phase.STORING) {
+                        logger.warn("Async avatar upload timed out while storing for student {}", studentId);
+                        return;
+                    }
+                    logger.warn("Async avatar upload timed out for student {}", studentId);
+                    complete(HttpServletResponse.SC_REQUEST_TIMEOUT);
+                }
+
+                @Override
+                public void onComplete(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            };
+        }
+
+        private CompletableFuture<Void> write(ByteBuffer chunk, long offset) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            channel.write(chunk, offset, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer written, Void attachment) {
+                    if (chunk.hasRemaining()) {
+                        channel.write(chunk, offset + chunk.position(), null, this);
+                    } else {
+                        future.complete(null);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable error, Void attachment) {
+                    future.completeExceptionally(error);
+                }
+            });
+            return future;
+        }
+
+        private void cleanup() {
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.warn("Failed to remove temporary upload {}", temp, e);
+            }
+        }
+    }
+
+    private enum Phase {
+        /** Тело запроса читается во временный файл. */
+        RECEIVING,
+        /** Файл передан сервису; таймаут запроса его уже не прерывает. */
+        STORING,
+        DONE
+    }
+
+    /**
+     * Закрывает источник скачивания, когда запрос завершается раньше ответа: по таймауту или ошибке.
+     * Регистрируется до передачи работы в пул, поэтому источник подключается позже через {@link #attach}.
+     */
+    private static final class DownloadGuard implements AsyncListener {
+        private final Long studentId;
+        private DownloadListener listener;
+        private boolean ended;
+
+        DownloadGuard(Long studentId) {
+            this.studentId = studentId;
+        }
+
+        /**
+         * @return {@code false}, если запрос уже завершён и источник нужно закрыть вызывающему
+         */
+        synchronized boolean attach(DownloadListener listener) {
+            if (ended) {
+                return false;
+            }
+            this.listener = listener;
+            return true;
+        }
+
+        /**
+         * @return {@code true}, если источник закрыт этим вызовом или ещё не был подключён
+         */
+        private synchronized boolean end() {
+            if (ended) {
+                return false;
+            }
+            ended = true;
+            return listener == null || listener.close();
+        }
+
+        /**
+         * Завершает запрос статусом, если его ещё не завершил таймаут.
+         */
+        void respond(AsyncContext context, int status) {
+            if (end()) {
+                finish(context, status);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            logger.warn("Async avatar download timed out for student {}", studentId);
+            if (end()) {
+                finish(event.getAsyncContext(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (end()) {
+                event.getAsyncContext().complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            end();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Отдаёт данные кусками, пока клиент готов принимать. Если источник - файл или поток,
+     * следующий кусок читается асинхронно только после того, как предыдущий ушёл клиенту.
+     * Поток хранилища блокирующий, поэтому читается в пуле.
+     */
+    private final class DownloadListener implements WriteListener, CompletionHandler<Integer, Void> {
+        private final AsyncContext context;
+        private final ByteBuffer source;
+        private final AsynchronousFileChannel channel;
+        private final InputStream stream;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).limit(0);
+        private long position;
+        private boolean reading;
+        private boolean finished;
+        private boolean closed;
+
+        DownloadListener(AsyncContext context, ByteBuffer source, AsynchronousFileChannel channel, InputStream stream) {
+            this.context = context;
+            this.source = source;
+            this.channel = channel;
+            this.stream = stream;
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            if (closed) {
+                return;
+            }
+            ServletOutputStream output = context.getResponse().getOutputStream();
+            while (output.isReady()) {
+                if (chunk.hasRemaining()) {
+                    output.write(chunk.array(), chunk.position(), chunk.remaining());
+                    chunk.position(chunk.limit());
+                } else if (finished) {
+                    if (close()) {
+                        context.complete();
+                    }
+                    return;
+                } else if (source != null) {
+                    int length = Math.min(CHUNK_SIZE, source.remaining());
+                    chunk.clear();
+                    source.get(source.position(), chunk.array(), 0, length);
+                    source.position(source.position() + length);
+                    chunk.limit(length);
+                    finished = !source.hasRemaining();
+                } else {
+                    if (!reading) {
+                        reading = true;
+                        chunk.clear();
+                        if (channel != null) {
+                            channel.read(chunk, position, null, this);
+                        } else {
+                            readStream();
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void readStream() {
+            try {
+                executor.execute(() -> {
+                    try {
+                        int read = stream.readNBytes(chunk.array(), 0, CHUNK_SIZE);
+                        completed(read == 0 ? -1 : read, null);
+                    } catch (IOException e) {
+                        failed(e, null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public synchronized void completed(Integer read, Void attachment) {
+            reading = false;
+            if (closed) {
+                return;
+            }
+            if (read < 0) {
+                finished = true;
+                chunk.limit(0);
+            } else {
+                position += read;
+                chunk.position(read).flip();
+            }
+            try {
+                onWritePossible();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            onError(error);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (close()) {
+                logger.warn("Async avatar download failed", error);
+                context.complete();
+            }
+        }
+
+        /**
+         * Закрывает источник один раз: повторные вызовы от таймаута, ошибки и завершения ничего не делают.
+         *
+         * @return {@code true}, если источник закрыт этим вызовом
+         */
+        synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to close avatar source", e);
+            }
+            return true;
+        }
+    }
+}
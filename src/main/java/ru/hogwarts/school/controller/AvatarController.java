@@ -1,31 +1,45 @@
 package ru.hogwarts.school.controller;
 
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.dto.AvatarPreview;
 import ru.hogwarts.school.model.Avatar;
 import ru.hogwarts.school.service.AvatarService;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/avatar")
 public class AvatarController {
+    static final String PREVIEW_BATCH_MEDIA_TYPE = "application/vnd.hogwarts.avatar-previews";
 
     private final AvatarService avatarService;
+    private final ExistenceFilters existenceFilters;
 
-    public AvatarController(AvatarService avatarService) {
+    public AvatarController(AvatarService avatarService, ExistenceFilters existenceFilters) {
         this.avatarService = avatarService;
+        this.existenceFilters = existenceFilters;
     }
 
     @PostMapping(value = "/{id}/avatar", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -48,33 +62,134 @@ public class AvatarController {
 
     @GetMapping(value = "/{id}/cover/preview")
     public ResponseEntity<byte[]> downloadAvatarPreview(@PathVariable Long id) {
-        Avatar avatar = avatarService.findAvatar(id);
-        if (avatar == null || avatar.getData() == null) {
+        if (existenceFilters.avatarMissing(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        AvatarPreview preview = avatarService.findPreview(id).orElse(null);
+        if (preview == null || preview.data() == null) {
             return ResponseEntity.notFound().build();
         }
 
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType(avatar.getMediaType()));
-        headers.setContentLength(avatar.getData().length);
+        headers.setContentType(MediaType.parseMediaType(preview.mediaType()));
+        headers.setContentLength(preview.data().length);
+
+        return ResponseEntity.status(HttpStatus.OK).headers(headers).body(preview.data());
+    }
+
+    /**
+     * Превью нескольких студентов одним ответом.
+     * Формат: {@code count:int}, затем для каждого превью
+     * {@code studentId:long | mediaType:UTF | length:int | data}.
+     * Студенты без аватара в ответ не попадают. Превью факультета отдаются страницами
+     * по возрастанию ID студента: следующая страница - {@code afterStudentId} с последним ID из ответа.
+     * Длина ответа считается заранее, и превью пишутся прямо в ответ без промежуточного буфера.
+     */
+    @GetMapping(value = "/previews", produces = PREVIEW_BATCH_MEDIA_TYPE)
+    public void downloadAvatarPreviews(
+            @RequestParam(required = false) List<Long> studentIds,
+            @RequestParam(required = false) Long facultyId,
+            @RequestParam(defaultValue = "0") long afterStudentId,
+            @RequestParam(required = false) Integer limit,
+            HttpServletResponse response) throws IOException {
+        if ((studentIds == null) == (facultyId == null)) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        Map<Long, AvatarPreview> previews;
+        try {
+            previews = facultyId != null
+                    ? avatarService.findFacultyPreviews(facultyId, afterStudentId, limit)
+                    : avatarService.findPreviews(new LinkedHashSet<>(studentIds));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
 
-        return ResponseEntity.status(HttpStatus.OK).headers(headers).body(avatar.getData());
+        long length = Integer.BYTES;
+        for (AvatarPreview preview : previews.values()) {
+            length += Long.BYTES + Short.BYTES + utfLength(preview.mediaType()) + Integer.BYTES + preview.data().length;
+        }
+        response.setStatus(200);
+        response.setContentType(PREVIEW_BATCH_MEDIA_TYPE);
+        response.setContentLengthLong(length);
+
+        DataOutputStream out = new DataOutputStream(response.getOutputStream());
+        out.writeInt(previews.size());
+        for (Map.Entry<Long, AvatarPreview> entry : previews.entrySet()) {
+            byte[] data = entry.getValue().data();
+            out.writeLong(entry.getKey());
+            out.writeUTF(entry.getValue().mediaType());
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        out.flush();
+    }
+
+    /**
+     * Число байт строки в модифицированной UTF-8 {@link DataOutputStream#writeUTF}, без двух байт длины.
+     */
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
     }
 
+    /**
+     * Оригинал аватара. Если хранилище выдаёт прямые ссылки, клиент перенаправляется туда
+     * и байты идут мимо приложения. Иначе поддерживается один диапазон {@code Range: bytes=...}.
+     */
     @GetMapping(value = "/{id}/cover")
-    public void downloadAvatar(@PathVariable Long id, HttpServletResponse response) throws IOException {
+    public void downloadAvatar(@PathVariable Long id, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        if (existenceFilters.avatarMissing(id)) {
+            response.setStatus(404);
+            return;
+        }
         Avatar avatar = avatarService.findAvatar(id);
-        if (avatar == null || avatar.getFilePath() == null) {
+        if (avatar == null || avatar.getStorageKey() == null) {
             response.setStatus(404);
             return;
         }
 
-        Path path = Path.of(avatar.getFilePath());
-        if (!Files.exists(path)) {
+        Optional<URI> downloadUrl = avatarService.getAvatarDownloadUrl(avatar);
+        if (downloadUrl.isPresent()) {
+            response.setStatus(HttpStatus.FOUND.value());
+            response.setHeader(HttpHeaders.LOCATION, downloadUrl.get().toString());
+            return;
+        }
+
+        if (!avatarService.avatarDataExists(avatar)) {
             response.setStatus(404);
             return;
         }
 
-        try (InputStream is = Files.newInputStream(path);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null) {
+            writeRange(avatar, rangeHeader, response);
+            return;
+        }
+
+        Optional<ByteBuffer> mapped = avatarService.mapAvatarData(avatar);
+        if (mapped.isPresent()) {
+            ByteBuffer buffer = mapped.get();
+            response.setStatus(200);
+            response.setContentType(avatar.getMediaType());
+            response.setContentLength(buffer.remaining());
+            try (WritableByteChannel channel = Channels.newChannel(response.getOutputStream())) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return;
+        }
+
+        try (InputStream is = avatarService.openAvatarData(avatar);
              OutputStream os = response.getOutputStream()) {
             response.setStatus(200);
             response.setContentType(avatar.getMediaType());
@@ -83,6 +198,41 @@ public class AvatarController {
         }
     }
 
+    private void writeRange(Avatar avatar, String rangeHeader, HttpServletResponse response) throws IOException {
+        long length = avatar.getFileSize();
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            ranges = List.of();
+        }
+        if (ranges.size() != 1 || length == 0) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return;
+        }
+
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(length);
+            end = ranges.get(0).getRangeEnd(length);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return;
+        }
+
+        try (InputStream is = avatarService.openAvatarRange(avatar, start, end - start + 1);
+             OutputStream os = response.getOutputStream()) {
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setContentType(avatar.getMediaType());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setContentLengthLong(end - start + 1);
+            is.transferTo(os);
+        }
+    }
+
     @GetMapping
     public ResponseEntity<Page<Avatar>> getAllAvatars(
             @RequestParam(defaultValue = "0") int page,
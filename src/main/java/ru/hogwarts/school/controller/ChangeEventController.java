@@ -0,0 +1,49 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.hogwarts.school.dto.ChangeEventDto;
+import ru.hogwarts.school.web.ChangeEventBroker;
+
+import java.util.List;
+
+/**
+ * Лента изменений студентов, факультетов и аватаров для внешних систем.
+ * Потребитель хранит номер последнего обработанного события и читает "после него"
+ * вместо периодического опроса списков целиком.
+ */
+@RestController
+@RequestMapping("/changes")
+public class ChangeEventController {
+    private final ChangeEventBroker broker;
+    private final int maxWaitSeconds;
+
+    public ChangeEventController(ChangeEventBroker broker,
+                                 @Value("${outbox.poll.max-wait-seconds:60}") int maxWaitSeconds) {
+        this.broker = broker;
+        this.maxWaitSeconds = maxWaitSeconds;
+    }
+
+    /**
+     * Long-polling: сразу отдаёт события после {@code after}, а если их нет - ждёт до {@code wait} секунд.
+     */
+    @GetMapping
+    public DeferredResult<List<ChangeEventDto>> getChanges(@RequestParam(defaultValue = "0") long after,
+                                                           @RequestParam(defaultValue = "100") int limit,
+                                                           @RequestParam(defaultValue = "30") int wait) {
+        long timeout = Math.min(Math.max(0, wait), maxWaitSeconds) * 1000L;
+        return broker.poll(after, limit, Math.max(1, timeout));
+    }
+
+    /**
+     * Server-Sent Events. Номер, с которого продолжать, берётся из {@code Last-Event-ID} при переподключении.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(defaultValue = "0") long after,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return broker.subscribe(lastEventId != null ? lastEventId : after);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.hogwarts.school.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import ru.hogwarts.school.service.DatasetTransfer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Перенос всех данных школы одним потоком через {@code COPY}, для резервных копий и наполнения стендов:
+ * <ul>
+ *     <li>{@code GET /admin/dataset?format=binary|csv&files=true} - архив gzip, с файлами аватаров или без;</li>
+ *     <li>{@code POST /admin/dataset?replace=true} с архивом в теле - загрузка, с очисткой таблиц или без.</li>
+ * </ul>
+ * Включается свойством {@code dataset.admin.enabled}: загрузка в режиме замены стирает все данные.
+ */
+@RestController
+@RequestMapping("/admin/dataset")
+@ConditionalOnProperty(name = "dataset.admin.enabled", havingValue = "true")
+public class DatasetController {
+    private static final String GZIP = "application/gzip";
+
+    private final DatasetTransfer datasetTransfer;
+
+    public DatasetController(DatasetTransfer datasetTransfer) {
+        this.datasetTransfer = datasetTransfer;
+    }
+
+    @GetMapping
+    public void exportDataset(@RequestParam(defaultValue = "binary") String format,
+                              @RequestParam(defaultValue = "false") boolean files,
+                              HttpServletResponse response) throws IOException {
+        DatasetTransfer.Format copyFormat;
+        try {
+            copyFormat = DatasetTransfer.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        response.setContentType(GZIP);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"hogwarts-" + LocalDate.now() + ".dataset.gz\"");
+        datasetTransfer.export(response.getOutputStream(), copyFormat, files);
+    }
+
+    @PostMapping(consumes = GZIP)
+    public ResponseEntity<Object> importDataset(@RequestParam(defaultValue = "false") boolean replace,
+                                                HttpServletRequest request) throws IOException {
+        try {
+            return ResponseEntity.ok(datasetTransfer.importDataset(request.getInputStream(), replace));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
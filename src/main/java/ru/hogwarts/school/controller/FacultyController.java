@@ -1,22 +1,44 @@
 package ru.hogwarts.school.controller;
 
 import jakarta.persistence.OneToMany;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ru.hogwarts.school.cache.SingleFlight;
+import ru.hogwarts.school.dto.EntityVersion;
+import ru.hogwarts.school.dto.FieldSelection;
+import ru.hogwarts.school.dto.FacultyView;
+import ru.hogwarts.school.dto.StudentView;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.web.ConditionalGet;
+import ru.hogwarts.school.web.ConditionalGetInterceptor;
+import ru.hogwarts.school.web.TableVersions;
+import ru.hogwarts.school.web.TableVersions.Table;
 
 import java.util.List;
+import java.util.Map;
+
+import static ru.hogwarts.school.web.TableVersions.Table.FACULTY;
+import static ru.hogwarts.school.web.TableVersions.Table.STUDENTS;
 
 @RestController
 @RequestMapping("/faculty")
 public class FacultyController {
     private final FacultyService facultyService;
+    private final SingleFlight singleFlight;
+    private final TableVersions tableVersions;
 
 
-    public FacultyController(FacultyService facultyService) {
+    public FacultyController(FacultyService facultyService, SingleFlight singleFlight, TableVersions tableVersions) {
         this.facultyService = facultyService;
+        this.singleFlight = singleFlight;
+        this.tableVersions = tableVersions;
     }
 
     @OneToMany(mappedBy = "faculty")
@@ -27,40 +49,126 @@ public class FacultyController {
         return facultyService.createFaculty(faculty);
     }
 
+    /**
+     * ETag - версия факультета (см. {@link PatchVersions}), его можно передать в {@code If-Match} у PATCH.
+     * Для ответа 304 читается только версия, без загрузки записи.
+     */
     @GetMapping("{id}")
-    public ResponseEntity<Faculty> getFaculty(@PathVariable long id) {
+    public ResponseEntity<Faculty> getFaculty(@PathVariable long id, HttpServletRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            String etag = PatchVersions.etag(facultyService.getFacultyVersion(id).orElse(null));
+            if (etag == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (ConditionalGetInterceptor.matches(request.getHeaders(HttpHeaders.IF_NONE_MATCH), etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .cacheControl(CacheControl.noCache())
+                        .build();
+            }
+        }
         return facultyService.getFacultyById(id)
-                .map(ResponseEntity::ok)
+                .map(faculty -> ResponseEntity.ok()
+                        .eTag(PatchVersions.etag(new EntityVersion(faculty.getVersion(), null)))
+                        .cacheControl(CacheControl.noCache())
+                        .body(faculty))
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Только перечисленные поля, например {@code fields=id,name}: в SQL попадают только их столбцы.
+     */
+    @ConditionalGet(FACULTY)
+    @GetMapping(value = "{id}", params = "fields")
+    public ResponseEntity<Object> getFaculty(@PathVariable long id, @RequestParam String fields) {
+        return SparseFields.single(fields, FieldSelection.FACULTY_FIELDS,
+                selection -> facultyService.getFacultyById(id, selection));
+    }
+
     @PutMapping
     public Faculty updateFaculty(@RequestBody Faculty faculty) {
         return facultyService.updateFaculty(faculty);
     }
 
+    /**
+     * Частичное обновление по JSON Merge Patch. Версию для проверки конфликтов можно передать
+     * в {@code If-Match} (ETag из GET записи) или полем {@code version}; при расхождении ответ 409.
+     * {@code null} очищает поле.
+     */
+    @PatchMapping(value = "{id}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<String> patchFaculty(@PathVariable long id,
+                                               @RequestBody Map<String, Object> patch,
+                                               @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        try {
+            boolean found = facultyService.patchFaculty(id, patch,
+                    PatchVersions.fromIfMatch(ifMatch, Faculty.class, id));
+            return found ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @DeleteMapping("{id}")
     public void deleteFaculty(@PathVariable long id) {
         facultyService.deleteFaculty(id);
     }
 
+    @ConditionalGet(FACULTY)
     @GetMapping("/color/{color}")
-    public List<Faculty> getFacultiesByColor(@PathVariable String color) {
-        return facultyService.getFacultiesByColor(color);
+    public List<FacultyView> getFacultiesByColor(@PathVariable String color) {
+        return singleFlight.execute(flightKey("faculty:color:" + color, FACULTY),
+                () -> facultyService.getFacultiesByColor(color).stream().map(FacultyView::from).toList());
+    }
+
+    @ConditionalGet(FACULTY)
+    @GetMapping(value = "/color/{color}", params = "fields")
+    public ResponseEntity<Object> getFacultiesByColor(@PathVariable String color, @RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.FACULTY_FIELDS,
+                selection -> singleFlight.execute(
+                        flightKey("faculty:color:" + color + ":" + selection.key(), FACULTY),
+                        () -> facultyService.getFacultiesByColor(color, selection)));
     }
 
+    @ConditionalGet(FACULTY)
     @GetMapping("/search")
-    public List<Faculty> searchFaculties(@RequestParam String searchTerm) {
-        return facultyService.searchFaculties(searchTerm);
+    public List<FacultyView> searchFaculties(@RequestParam String searchTerm) {
+        return facultyService.searchFaculties(searchTerm).stream().map(FacultyView::from).toList();
     }
 
+    @ConditionalGet(FACULTY)
+    @GetMapping(value = "/search", params = "fields")
+    public ResponseEntity<Object> searchFaculties(@RequestParam String searchTerm, @RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.FACULTY_FIELDS,
+                selection -> facultyService.searchFaculties(searchTerm, selection));
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
     @GetMapping("/{id}/students")
-    public List<Student> getFacultyStudents(@PathVariable Long id) {
-        return facultyService.getFacultyStudents(id);
+    public List<StudentView> getFacultyStudents(@PathVariable Long id) {
+        return singleFlight.execute(flightKey("faculty:students:" + id, STUDENTS, FACULTY),
+                () -> facultyService.getFacultyStudents(id).stream().map(StudentView::from).toList());
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
+    @GetMapping(value = "/{id}/students", params = "fields")
+    public ResponseEntity<Object> getFacultyStudents(@PathVariable Long id, @RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.STUDENT_FIELDS,
+                selection -> singleFlight.execute(
+                        flightKey("faculty:students:" + id + ":" + selection.key(), STUDENTS, FACULTY),
+                        () -> facultyService.getFacultyStudents(id, selection)));
     }
 
+    @ConditionalGet(FACULTY)
     @GetMapping("/longest-name")
     public String getLongestFacultyName() {
         return facultyService.getLongestFacultyName();
     }
-}
\ No newline at end of file
+
+    /**
+     * Ключ объединения чтений включает ETag таблиц: запрос, пришедший после коммита записи, не присоединится
+     * к загрузке, начатой до коммита, и не получит старые данные под новым ETag из {@link ConditionalGet}.
+     */
+    private String flightKey(String key, Table... tables) {
+        return key + ":" + tableVersions.etag(tables);
+    }
+}
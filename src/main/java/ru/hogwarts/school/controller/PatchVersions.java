@@ -0,0 +1,62 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import ru.hogwarts.school.dto.EntityVersion;
+
+import java.util.regex.Pattern;
+
+/**
+ * Версии записей в заголовках. GET одной записи отдаёт ETag {@code W/"v3"}, а для студента с факультетом -
+ * {@code W/"v3-f7"}: представление студента включает факультет, поэтому его версия тоже входит в ETag.
+ * В {@code If-Match} у PATCH принимается такой ETag или просто версия: {@code "3"}, {@code W/"3"}, {@code 3}.
+ */
+final class PatchVersions {
+    /** ETag выборки из {@link ru.hogwarts.school.web.TableVersions}: эпоха и счётчики таблиц. */
+    private static final Pattern TABLE_ETAG = Pattern.compile("[0-9a-f]+(-[0-9a-f]+)+");
+
+    private PatchVersions() {
+    }
+
+    /**
+     * @return {@code null}, если версия неизвестна
+     */
+    static String etag(EntityVersion version) {
+        if (version == null || version.version() == null) {
+            return null;
+        }
+        StringBuilder etag = new StringBuilder("W/\"v").append(version.version());
+        if (version.relatedVersion() != null) {
+            etag.append("-f").append(version.relatedVersion());
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * @throws ObjectOptimisticLockingFailureException если передан ETag выборки: версию записи он не указывает,
+     *                                                 поэтому клиенту нужно перечитать запись, как при конфликте
+     * @throws IllegalArgumentException                если значение не похоже ни на версию, ни на ETag
+     */
+    static Long fromIfMatch(String ifMatch, Class<?> type, long id) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (value.startsWith("v")) {
+            int related = value.indexOf("-f");
+            value = value.substring(1, related < 0 ? value.length() : related);
+        } else if (TABLE_ETAG.matcher(value).matches()) {
+            throw new ObjectOptimisticLockingFailureException(type, id);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректная версия в If-Match: " + ifMatch);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.profiling.ProfilingRecorder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Управление записью JFR:
+ * <ul>
+ *     <li>{@code GET /actuator/profiling} - состояние записи;</li>
+ *     <li>{@code POST /actuator/profiling} - запуск, параметры {@code settings}, {@code maxAgeMinutes}, {@code maxSizeMb};</li>
+ *     <li>{@code DELETE /actuator/profiling} - остановка;</li>
+ *     <li>{@code GET /actuator/profiling/dump} - файл {@code .jfr} для JDK Mission Control.</li>
+ * </ul>
+ * По умолчанию не открыт: дамп содержит стеки и данные запросов. Включается на время разбора
+ * через {@code management.endpoints.web.exposure.include} и доступен только на порту actuator.
+ */
+@Component
+@WebEndpoint(id = "profiling")
+public class ProfilingEndpoint {
+
+    private final ProfilingRecorder recorder;
+
+    public ProfilingEndpoint(ProfilingRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @ReadOperation
+    public ProfilingRecorder.Status status() {
+        return recorder.status();
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Object> start(@Nullable String settings, @Nullable Long maxAgeMinutes,
+                                             @Nullable Long maxSizeMb) {
+        try {
+            return new WebEndpointResponse<>(recorder.start(settings, maxAgeMinutes, maxSizeMb));
+        } catch (IllegalStateException e) {
+            return new WebEndpointResponse<>(e.getMessage(), HttpStatus.CONFLICT.value());
+        } catch (IllegalArgumentException e) {
+            return new WebEndpointResponse<>(e.getMessage(), WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+    }
+
+    @DeleteOperation
+    public WebEndpointResponse<Object> stop() {
+        try {
+            return new WebEndpointResponse<>(recorder.stop());
+        } catch (IllegalStateException e) {
+            return new WebEndpointResponse<>(e.getMessage(), WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+    }
+
+    @ReadOperation(produces = "application/octet-stream")
+    public WebEndpointResponse<Resource> dump(@Selector String action) throws IOException {
+        if (!"dump".equals(action)) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        try {
+            return new WebEndpointResponse<>(new TemporaryFileResource(recorder.dump()));
+        } catch (IllegalStateException e) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Файл дампа удаляется, как только ответ прочитан.
+     */
+    private static final class TemporaryFileResource extends FileSystemResource {
+
+        TemporaryFileResource(Path file) {
+            super(file);
+        }
+
+        @Override
+        public boolean isFile() {
+            // Иначе контейнер может отдать файл напрямую, минуя поток, и файл не удалится
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        Files.deleteIfExists(getFile().toPath());
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.hogwarts.school.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.NoSuchElementException;
+
+@RestControllerAdvice
+public class RestExceptionHandler {
+    private static final Logger logger = LoggerFactory.getLogger(RestExceptionHandler.class);
+
+    /**
+     * Запись уже изменена другим запросом - клиент должен перечитать её и повторить правку.
+     */
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleVersionConflict(ObjectOptimisticLockingFailureException e) {
+        logger.warn("Version conflict for {} {}", e.getPersistentClassName(), e.getIdentifier());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body("Запись была изменена другим запросом, перечитайте её и повторите изменение");
+    }
+
+    /**
+     * Запрошенной записи нет. Это не сбой сервера, поэтому ответ 404, а не 500,
+     * который ограничитель нагрузки принял бы за признак перегрузки.
+     */
+    @ExceptionHandler(NoSuchElementException.class)
+    public ResponseEntity<String> handleNotFound(NoSuchElementException e) {
+        logger.debug("Not found: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+    }
+}
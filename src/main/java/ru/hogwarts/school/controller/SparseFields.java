@@ -0,0 +1,48 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.dto.FieldSelection;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Ответы для запросов с {@code fields=}: неизвестное поле - 400 с описанием, иначе результат выборки.
+ * Описание отдаётся как {@link ProblemDetail}, а не строкой: строку нельзя записать в CBOR или Smile,
+ * и клиент с таким {@code Accept} получил бы 406 вместо 400.
+ */
+final class SparseFields {
+
+    private SparseFields() {
+    }
+
+    static ResponseEntity<Object> list(String fields, List<String> allowed, Function<FieldSelection, List<?>> query) {
+        FieldSelection selection;
+        try {
+            selection = FieldSelection.parse(fields, allowed);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        }
+        return ResponseEntity.ok(query.apply(selection));
+    }
+
+    static ResponseEntity<Object> single(String fields, List<String> allowed,
+                                         Function<FieldSelection, Optional<?>> query) {
+        FieldSelection selection;
+        try {
+            selection = FieldSelection.parse(fields, allowed);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        }
+        return query.apply(selection)
+                .<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    private static ResponseEntity<Object> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+}
@@ -0,0 +1,37 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.profiling.SqlStatistics;
+
+import java.util.List;
+
+/**
+ * {@code GET /actuator/sql?sort=total|max|avg|calls&limit=20} - самые тяжёлые формы SQL
+ * с планами медленных выполнений, {@code DELETE /actuator/sql} - сброс статистики.
+ * По умолчанию не открыт: планы раскрывают схему и данные запросов. Включается через
+ * {@code management.endpoints.web.exposure.include} и доступен только на порту actuator.
+ */
+@Component
+@Endpoint(id = "sql")
+public class SqlStatisticsEndpoint {
+
+    private final SqlStatistics statistics;
+
+    public SqlStatisticsEndpoint(SqlStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @ReadOperation
+    public List<SqlStatistics.ShapeSnapshot> shapes(@Nullable String sort, @Nullable Integer limit) {
+        return statistics.top(sort, limit == null ? 20 : limit);
+    }
+
+    @DeleteOperation
+    public void reset() {
+        statistics.reset();
+    }
+}
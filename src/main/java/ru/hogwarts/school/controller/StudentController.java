@@ -1,21 +1,51 @@
 package ru.hogwarts.school.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.cache.SingleFlight;
+import ru.hogwarts.school.dto.AgeStatistics;
+import ru.hogwarts.school.dto.EntityVersion;
+import ru.hogwarts.school.dto.FieldSelection;
+import ru.hogwarts.school.dto.StudentView;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.StudentStatisticsService;
+import ru.hogwarts.school.web.ConditionalGet;
+import ru.hogwarts.school.web.ConditionalGetInterceptor;
+import ru.hogwarts.school.web.TableVersions;
+import ru.hogwarts.school.web.TableVersions.Table;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Map;
+
+import static ru.hogwarts.school.web.TableVersions.Table.FACULTY;
+import static ru.hogwarts.school.web.TableVersions.Table.STUDENTS;
 
 @RestController
 @RequestMapping("/student")
 public class StudentController {
     private final StudentService studentService;
-
-    public StudentController(StudentService studentService) {
+    private final StudentStatisticsService studentStatisticsService;
+    private final SingleFlight singleFlight;
+    private final ExistenceFilters existenceFilters;
+    private final TableVersions tableVersions;
+
+    public StudentController(StudentService studentService, StudentStatisticsService studentStatisticsService,
+                             SingleFlight singleFlight, ExistenceFilters existenceFilters,
+                             TableVersions tableVersions) {
         this.studentService = studentService;
+        this.studentStatisticsService = studentStatisticsService;
+        this.singleFlight = singleFlight;
+        this.existenceFilters = existenceFilters;
+        this.tableVersions = tableVersions;
     }
 
     @PostMapping
@@ -23,55 +53,157 @@ public class StudentController {
         return studentService.createStudent(student);
     }
 
+    /**
+     * ETag - версии студента и факультета (см. {@link PatchVersions}), его можно передать в {@code If-Match} у PATCH.
+     * Для ответа 304 читаются только версии, без загрузки записи.
+     */
     @GetMapping("{id}")
-    public ResponseEntity<Student> getStudent(@PathVariable long id) {
-        return studentService.getStudentById(id)
-                .map(ResponseEntity::ok)
+    public ResponseEntity<StudentView> getStudent(@PathVariable long id, HttpServletRequest request) {
+        if (existenceFilters.studentMissing(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            String etag = PatchVersions.etag(studentService.getStudentVersion(id).orElse(null));
+            if (etag == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (ConditionalGetInterceptor.matches(request.getHeaders(HttpHeaders.IF_NONE_MATCH), etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .cacheControl(CacheControl.noCache())
+                        .build();
+            }
+        }
+        return singleFlight.execute(flightKey("student:" + id, STUDENTS, FACULTY),
+                        () -> studentService.getStudentById(id).map(StudentView::from))
+                .map(view -> ResponseEntity.ok()
+                        .eTag(PatchVersions.etag(EntityVersion.of(view)))
+                        .cacheControl(CacheControl.noCache())
+                        .body(view))
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Только перечисленные поля, например {@code fields=id,name,faculty.name}: в SQL попадают только
+     * их столбцы, а факультет присоединяется, только если нужно что-то кроме его id.
+     */
+    @ConditionalGet({STUDENTS, FACULTY})
+    @GetMapping(value = "{id}", params = "fields")
+    public ResponseEntity<Object> getStudent(@PathVariable long id, @RequestParam String fields) {
+        if (existenceFilters.studentMissing(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        return SparseFields.single(fields, FieldSelection.STUDENT_FIELDS, selection ->
+                singleFlight.execute(flightKey("student:" + id + ":" + selection.key(), STUDENTS, FACULTY),
+                        () -> studentService.getStudentById(id, selection)));
+    }
+
     @PutMapping
     public Student updateStudent(@RequestBody Student student) {
         return studentService.updateStudent(student);
     }
 
+    /**
+     * Частичное обновление по JSON Merge Patch. Версию для проверки конфликтов можно передать
+     * в {@code If-Match} (ETag из GET записи) или полем {@code version}; при расхождении ответ 409.
+     * {@code null} очищает необязательное поле.
+     */
+    @PatchMapping(value = "{id}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<String> patchStudent(@PathVariable long id,
+                                               @RequestBody Map<String, Object> patch,
+                                               @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        try {
+            boolean found = studentService.patchStudent(id, patch,
+                    PatchVersions.fromIfMatch(ifMatch, Student.class, id));
+            return found ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @DeleteMapping("{id}")
     public void deleteStudent(@PathVariable long id) {
         studentService.deleteStudent(id);
     }
 
+    @DeleteMapping(params = "ids")
+    public ResponseEntity<List<Long>> deleteStudents(@RequestParam List<Long> ids) {
+        try {
+            return ResponseEntity.ok(studentService.deleteStudents(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @DeleteMapping(params = "facultyId")
+    public List<Long> deleteStudentsByFaculty(@RequestParam long facultyId) {
+        return studentService.deleteStudentsByFaculty(facultyId);
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
     @GetMapping("/age/{age}")
-    public List<Student> getStudentsByAge(@PathVariable int age) {
-        return studentService.getStudentsByAge(age);
+    public List<StudentView> getStudentsByAge(@PathVariable int age) {
+        return studentService.getStudentsByAge(age).stream().map(StudentView::from).toList();
     }
 
+    @ConditionalGet({STUDENTS, FACULTY})
+    @GetMapping(value = "/age/{age}", params = "fields")
+    public ResponseEntity<Object> getStudentsByAge(@PathVariable int age, @RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.STUDENT_FIELDS,
+                selection -> studentService.getStudentsByAge(age, selection));
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
     @GetMapping("/age-between")
-    public List<Student> getStudentsByAgeBetween(
+    public List<StudentView> getStudentsByAgeBetween(
+            @RequestParam int min,
+            @RequestParam int max,
+            @RequestParam(required = false) Long facultyId) {
+        return studentService.findStudentsByAgeBetween(min, max, facultyId).stream().map(StudentView::from).toList();
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
+    @GetMapping(value = "/age-between", params = "fields")
+    public ResponseEntity<Object> getStudentsByAgeBetween(
             @RequestParam int min,
-            @RequestParam int max) {
-        return studentService.findStudentsByAgeBetween(min, max);
+            @RequestParam int max,
+            @RequestParam(required = false) Long facultyId,
+            @RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.STUDENT_FIELDS,
+                selection -> studentService.findStudentsByAgeBetween(min, max, facultyId, selection));
     }
 
+    @ConditionalGet({STUDENTS, FACULTY})
     @GetMapping("/{id}/faculty")
     public Faculty getStudentFaculty(@PathVariable Long id) {
         return studentService.getStudentFaculty(id);
     }
 
+    @ConditionalGet(STUDENTS)
     @GetMapping("/count")
     public Integer getStudentsCount() {
         return studentService.getTotalStudentsCount();
     }
 
+    @ConditionalGet(STUDENTS)
     @GetMapping("/avg-age")
     public Double getAverageAge() {
         return studentService.getAverageStudentsAge();
     }
 
+    @ConditionalGet({STUDENTS, FACULTY})
     @GetMapping("/last-students")
-    public List<Student> getLastStudents() {
-        return studentService.getLastStudents();
+    public List<StudentView> getLastStudents() {
+        return studentService.getLastStudents().stream().map(StudentView::from).toList();
+    }
+
+    @ConditionalGet({STUDENTS, FACULTY})
+    @GetMapping(value = "/last-students", params = "fields")
+    public ResponseEntity<Object> getLastStudents(@RequestParam String fields) {
+        return SparseFields.list(fields, FieldSelection.STUDENT_FIELDS, studentService::getLastStudents);
     }
 
+    @ConditionalGet(STUDENTS)
     @GetMapping("/names-starting-with-a")
     public List<String> getStudentsNamesStartingWithA() {
         return studentService.getStudentsNamesStartingWithA();
@@ -79,10 +211,38 @@ public class StudentController {
 
     @GetMapping("/parallel-sum")
     public long getParallelSum() {
-        return IntStream.rangeClosed(1, 1_000_000)
-                .parallel()
-                .asLongStream()
-                .sum();
+        return studentStatisticsService.calculateParallelSum();
+    }
+
+    @ConditionalGet(STUDENTS)
+    @GetMapping("/statistics/age")
+    public ResponseEntity<AgeStatistics> getAgeStatistics(
+            @RequestParam(defaultValue = "50,90,99") int[] percentiles) {
+        if (!validPercentiles(percentiles)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(studentStatisticsService.getAgeStatistics(percentiles));
     }
-}
 
+    @ConditionalGet(STUDENTS)
+    @GetMapping("/statistics/age/by-faculty")
+    public ResponseEntity<Map<Long, AgeStatistics>> getAgeStatisticsByFaculty(
+            @RequestParam(defaultValue = "50,90,99") int[] percentiles) {
+        if (!validPercentiles(percentiles)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(studentStatisticsService.getAgeStatisticsByFaculty(percentiles));
+    }
+
+    private static boolean validPercentiles(int[] percentiles) {
+        return Arrays.stream(percentiles).allMatch(p -> p >= 0 && p <= 100);
+    }
+
+    /**
+     * Ключ объединения чтений включает ETag таблиц: запрос, пришедший после коммита записи, не присоединится
+     * к загрузке, начатой до коммита, и не получит старые данные под новым ETag из {@link ConditionalGet}.
+     */
+    private String flightKey(String key, Table... tables) {
+        return key + ":" + tableVersions.etag(tables);
+    }
+}
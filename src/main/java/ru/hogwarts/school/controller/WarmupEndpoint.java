@@ -0,0 +1,27 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.WarmupReport;
+import ru.hogwarts.school.service.WarmupRunner;
+
+/**
+ * {@code GET /actuator/warmup} - отчёт о прогреве: длительность этапов
+ * и задержка каждого запроса до и после прогрева.
+ */
+@Component
+@Endpoint(id = "warmup")
+public class WarmupEndpoint {
+
+    private final WarmupRunner warmupRunner;
+
+    public WarmupEndpoint(WarmupRunner warmupRunner) {
+        this.warmupRunner = warmupRunner;
+    }
+
+    @ReadOperation
+    public WarmupReport report() {
+        return warmupRunner.getReport();
+    }
+}
@@ -0,0 +1,15 @@
+package ru.hogwarts.school.dto;
+
+import java.util.Map;
+
+public record AgeStatistics(long count,
+                            long sum,
+                            double average,
+                            int min,
+                            int max,
+                            Map<Integer, Integer> percentiles) {
+
+    public static AgeStatistics empty() {
+        return new AgeStatistics(0, 0, 0.0, 0, 0, Map.of());
+    }
+}
@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record AvatarFileRef(Long id, Long studentId, String storageKey) {
+}
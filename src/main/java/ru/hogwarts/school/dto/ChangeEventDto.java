@@ -0,0 +1,19 @@
+package ru.hogwarts.school.dto;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import ru.hogwarts.school.model.ChangeEvent;
+
+import java.time.Instant;
+
+public record ChangeEventDto(long sequence,
+                             ChangeEvent.Aggregate aggregate,
+                             Long aggregateId,
+                             ChangeEvent.Operation operation,
+                             @JsonRawValue String payload,
+                             Instant createdAt) {
+
+    public static ChangeEventDto from(ChangeEvent event) {
+        return new ChangeEventDto(event.getSequence(), event.getAggregate(), event.getAggregateId(),
+                event.getOperation(), event.getPayload(), event.getCreatedAt());
+    }
+}
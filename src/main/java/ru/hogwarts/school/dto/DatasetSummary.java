@@ -0,0 +1,9 @@
+package ru.hogwarts.school.dto;
+
+import java.util.Map;
+
+/**
+ * Итог выгрузки или загрузки данных: строки по таблицам в порядке обработки и число файлов аватаров.
+ */
+public record DatasetSummary(Map<String, Long> rows, long files, long durationMs) {
+}
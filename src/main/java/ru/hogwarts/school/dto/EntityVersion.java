@@ -0,0 +1,12 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Версия записи и, если представление записи включает связанную сущность, версия этой сущности.
+ * Из неё строится ETag ответа на чтение одной записи.
+ */
+public record EntityVersion(Long version, Long relatedVersion) {
+
+    public static EntityVersion of(StudentView student) {
+        return new EntityVersion(student.version(), student.faculty() == null ? null : student.faculty().version());
+    }
+}
@@ -0,0 +1,14 @@
+package ru.hogwarts.school.dto;
+
+import ru.hogwarts.school.model.Faculty;
+
+/**
+ * Представление факультета для чтения: только данные, без ленивых коллекций и прокси Hibernate.
+ */
+public record FacultyView(Long id, String name, String color, Long version) {
+
+    public static FacultyView from(Faculty faculty) {
+        return faculty == null ? null
+                : new FacultyView(faculty.getId(), faculty.getName(), faculty.getColor(), faculty.getVersion());
+    }
+}
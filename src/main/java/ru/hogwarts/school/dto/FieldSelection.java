@@ -0,0 +1,67 @@
+package ru.hogwarts.school.dto;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Поля, запрошенные параметром {@code fields=}, например {@code id,name,faculty.name}.
+ * Имя связи без атрибута ({@code faculty}) означает все её поля. Повторы отбрасываются,
+ * порядок полей в ответе - порядок в запросе.
+ */
+public record FieldSelection(List<String> fields) {
+    public static final List<String> STUDENT_FIELDS = List.of("id", "name", "age", "version",
+            "faculty.id", "faculty.name", "faculty.color", "faculty.version");
+    public static final List<String> FACULTY_FIELDS = List.of("id", "name", "color", "version");
+
+    public FieldSelection {
+        fields = List.copyOf(fields);
+    }
+
+    /**
+     * @throws IllegalArgumentException если поле не входит в {@code allowed} или список пуст
+     */
+    public static FieldSelection parse(String fields, List<String> allowed) {
+        Set<String> selected = new LinkedHashSet<>();
+        for (String part : fields.split(",")) {
+            String field = part.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            if (allowed.contains(field)) {
+                selected.add(field);
+                continue;
+            }
+            List<String> association = allowed.stream().filter(name -> name.startsWith(field + ".")).toList();
+            if (association.isEmpty()) {
+                throw new IllegalArgumentException("Неизвестное поле: " + field + ", допустимы " + allowed);
+            }
+            selected.addAll(association);
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("Не указано ни одного поля, допустимы " + allowed);
+        }
+        return new FieldSelection(List.copyOf(selected));
+    }
+
+    /**
+     * Связи, из которых запрошено хотя бы одно поле: для {@code faculty.name} - {@code faculty}.
+     */
+    public Set<String> associations() {
+        Set<String> associations = new LinkedHashSet<>();
+        for (String field : fields) {
+            int dot = field.indexOf('.');
+            if (dot > 0) {
+                associations.add(field.substring(0, dot));
+            }
+        }
+        return associations;
+    }
+
+    /**
+     * Нормализованный вид для ключей кэша: одинаковые наборы полей дают одинаковую строку.
+     */
+    public String key() {
+        return String.join(",", fields);
+    }
+}
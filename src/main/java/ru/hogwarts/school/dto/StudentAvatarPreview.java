@@ -0,0 +1,8 @@
+package ru.hogwarts.school.dto;
+
+public record StudentAvatarPreview(Long studentId, byte[] data, String mediaType) {
+
+    public AvatarPreview toPreview() {
+        return new AvatarPreview(data, mediaType);
+    }
+}
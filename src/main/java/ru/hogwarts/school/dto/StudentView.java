@@ -0,0 +1,15 @@
+package ru.hogwarts.school.dto;
+
+import ru.hogwarts.school.model.Student;
+
+/**
+ * Представление студента для чтения. В JSON совпадает по форме с сущностью {@link Student},
+ * но сериализуется без обращения к прокси и одинаково во все форматы ответа.
+ */
+public record StudentView(Long id, String name, int age, Long version, FacultyView faculty) {
+
+    public static StudentView from(Student student) {
+        return new StudentView(student.getId(), student.getName(), student.getAge(), student.getVersion(),
+                FacultyView.from(student.getFaculty()));
+    }
+}
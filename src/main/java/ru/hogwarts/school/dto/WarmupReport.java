@@ -0,0 +1,42 @@
+package ru.hogwarts.school.dto;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Итог прогрева перед открытием трафика: длительность этапов и задержка каждого запроса
+ * на первом вызове и после прогрева.
+ */
+public record WarmupReport(boolean completed,
+                           long durationMs,
+                           long poolMs,
+                           int poolConnections,
+                           long requestsMs,
+                           long thumbnailsMs,
+                           long cachesMs,
+                           int previewsPreloaded,
+                           List<RequestLatency> requests) {
+
+    /**
+     * @param firstMicros  задержка самого первого вызова
+     * @param warmedMicros медиана последней четверти повторов
+     */
+    public record RequestLatency(String path, int status, int calls, long firstMicros, long warmedMicros) {
+
+        public static RequestLatency of(String path, int status, long[] nanos) {
+            if (nanos.length == 0) {
+                return new RequestLatency(path, status, 0, 0, 0);
+            }
+            long[] tail = Arrays.copyOfRange(nanos, nanos.length - Math.max(1, nanos.length / 4), nanos.length);
+            Arrays.sort(tail);
+            return new RequestLatency(path, status, nanos.length, nanos[0] / 1000, tail[tail.length / 2] / 1000);
+        }
+
+        /**
+         * Во сколько раз прогретый вызов быстрее первого.
+         */
+        public double speedup() {
+            return warmedMicros == 0 ? 0 : (double) firstMicros / warmedMicros;
+        }
+    }
+}
@@ -11,7 +11,7 @@ public class Avatar {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    private String filePath;
+    private String storageKey;
     private long fileSize;
     private String mediaType;
 
@@ -20,8 +20,9 @@ public class Avatar {
     @Column(columnDefinition = "bytea")
     private byte[] data;
 
+    // students секционирована, и внешний ключ на неё заменён триггерами (students-partitioning.sql)
     @OneToOne
-    @JoinColumn(name = "student_id")
+    @JoinColumn(name = "student_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Student student;
 
 
@@ -33,12 +34,12 @@ public class Avatar {
         this.id = id;
     }
 
-    public String getFilePath() {
-        return filePath;
+    public String getStorageKey() {
+        return storageKey;
     }
 
-    public void setFilePath(String filePath) {
-        this.filePath = filePath;
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
     }
 
     public long getFileSize() {
@@ -0,0 +1,96 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Запись transactional outbox: пишется в той же транзакции, что и изменение данных.
+ * Номер {@code sequence} назначает ретранслятор после коммита - по нему потребители
+ * читают события строго по порядку и продолжают чтение с последнего полученного номера.
+ */
+@Entity
+@Table(name = "change_events")
+public class ChangeEvent {
+
+    public enum Aggregate {
+        STUDENT, FACULTY, AVATAR
+    }
+
+    public enum Operation {
+        CREATED, UPDATED, DELETED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long sequence;
+
+    @Enumerated(EnumType.STRING)
+    private Aggregate aggregate;
+
+    private Long aggregateId;
+
+    @Enumerated(EnumType.STRING)
+    private Operation operation;
+
+    @Column(columnDefinition = "text")
+    private String payload;
+
+    private Instant createdAt;
+
+    public ChangeEvent() {
+    }
+
+    public ChangeEvent(Aggregate aggregate, Long aggregateId, Operation operation, String payload) {
+        this.aggregate = aggregate;
+        this.aggregateId = aggregateId;
+        this.operation = operation;
+        this.payload = payload;
+        this.createdAt = Instant.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Aggregate getAggregate() {
+        return aggregate;
+    }
+
+    public Long getAggregateId() {
+        return aggregateId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "id=" + id +
+                ", sequence=" + sequence +
+                ", aggregate=" + aggregate +
+                ", aggregateId=" + aggregateId +
+                ", operation=" + operation +
+                '}';
+    }
+}
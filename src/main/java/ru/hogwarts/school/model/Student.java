@@ -1,10 +1,14 @@
 package ru.hogwarts.school.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
 
 import java.util.Objects;
 
 @Entity
+@DynamicUpdate
 @Table(name = "students")
 public class Student {
     @Id
@@ -14,11 +18,15 @@ public class Student {
     private String name;
     private int age;
 
+    @Version
+    private Long version;
+
     public Student() {
     }
 
     @ManyToOne
     @JoinColumn(name = "faculty_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
     private Faculty faculty;
 
     public Student(Long id, String name, int age) {
@@ -55,6 +63,14 @@ public class Student {
         this.age = age;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Faculty getFaculty() {
         return faculty;
     }
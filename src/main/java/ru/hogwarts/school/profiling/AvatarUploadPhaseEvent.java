@@ -0,0 +1,53 @@
+package ru.hogwarts.school.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Этап загрузки аватара: запись оригинала, декодирование, масштабирование, кодирование превью, сохранение в БД.
+ * Этапы одной загрузки идут в одном потоке, поэтому в JMC они складываются в одну цепочку.
+ */
+@Name("ru.hogwarts.school.AvatarUploadPhase")
+@Label("Avatar Upload Phase")
+@Category({"Hogwarts", "Avatars"})
+@Description("Duration of one phase of avatar upload")
+@StackTrace(false)
+public class AvatarUploadPhaseEvent extends Event {
+    public static final String WRITE = "write";
+    public static final String DECODE = "decode";
+    public static final String SCALE = "scale";
+    public static final String ENCODE = "encode";
+    public static final String DB_SAVE = "db-save";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Student ID")
+    @Description("0 for image processing phases, which run in the same thread as the upload")
+    long studentId;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    public static AvatarUploadPhaseEvent start(String phase, long studentId) {
+        AvatarUploadPhaseEvent event = new AvatarUploadPhaseEvent();
+        event.phase = phase;
+        event.studentId = studentId;
+        event.begin();
+        return event;
+    }
+
+    public void finish(long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
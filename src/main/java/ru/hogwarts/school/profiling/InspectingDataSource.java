@@ -0,0 +1,247 @@
+package ru.hogwarts.school.profiling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обёртка над пулом соединений, которая замеряет каждое выполнение SQL и передаёт его в {@link SqlStatistics}.
+ * Для запросов строки считаются по мере чтения, и выполнение учитывается при закрытии {@link ResultSet}.
+ * Планы медленных запросов снимаются в отдельном потоке на отдельном соединении:
+ * в транзакции только для чтения, с таймаутом и откатом в конце.
+ */
+public class InspectingDataSource extends DelegatingDataSource {
+    private static final Logger logger = LoggerFactory.getLogger(InspectingDataSource.class);
+
+    private final SqlStatistics statistics;
+    private final long explainTimeoutMs;
+    private final ThreadPoolExecutor explainExecutor;
+
+    public InspectingDataSource(DataSource target, SqlStatistics statistics, long explainTimeoutMs) {
+        super(target);
+        this.statistics = statistics;
+        this.explainTimeoutMs = explainTimeoutMs;
+        // Планы - вспомогательная информация: если очередь полна, лишние просто отбрасываются
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "sql-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return connection(super.getConnection(username, password));
+    }
+
+    private Connection connection(Connection target) {
+        return proxy(Connection.class, target, (proxy, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof Statement statement && args != null && args.length > 0 && args[0] instanceof String sql) {
+                // prepareStatement(sql, ...) и prepareCall(sql, ...)
+                Class<? extends Statement> type = statement instanceof CallableStatement ? CallableStatement.class
+                        : PreparedStatement.class;
+                return statement(type, statement, sql);
+            }
+            if (result instanceof Statement statement) {
+                return statement(Statement.class, statement, null);
+            }
+            return result;
+        });
+    }
+
+    private <T extends Statement> T statement(Class<T> type, Statement target, String preparedSql) {
+        StatementHandler handler = new StatementHandler(target, preparedSql);
+        return proxy(type, target, handler);
+    }
+
+    private void record(Execution execution, long rows, boolean failed) {
+        if (statistics.record(execution.sql, execution.origin, execution.nanos, rows, failed)) {
+            explainExecutor.execute(() -> explain(execution));
+        }
+    }
+
+    private void explain(Execution execution) {
+        try (Connection connection = getTargetDataSource().getConnection()) {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LOCAL statement_timeout = " + explainTimeoutMs);
+                }
+                StringBuilder plan = new StringBuilder();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "EXPLAIN (ANALYZE, BUFFERS) " + execution.sql)) {
+                    for (int i = 0; i < execution.parameters.length; i++) {
+                        statement.setObject(i + 1, execution.parameters[i]);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            plan.append(resultSet.getString(1)).append('\n');
+                        }
+                    }
+                }
+                statistics.addExplain(execution.sql, execution.nanos, plan.toString());
+            } finally {
+                connection.rollback();
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.debug("Failed to capture plan for slow statement {}", execution.sql, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isExecute(String name) {
+        return name.startsWith("execute");
+    }
+
+    /**
+     * Одно выполнение: текст, параметры и время, пока не известно число строк.
+     */
+    private record Execution(String sql, Object[] parameters, String origin, long nanos) {
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        private final List<Object> parameters = new ArrayList<>();
+        private Execution pending;
+        private long pendingRows;
+
+        private StatementHandler(Statement target, String preparedSql) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (preparedSql != null && name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer index) {
+                remember(index, name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("close")) {
+                flush();
+            }
+            if (!isExecute(name)) {
+                Object result = InspectingDataSource.invoke(target, method, args);
+                if (result instanceof ResultSet resultSet && name.equals("getResultSet") && pending != null) {
+                    return resultSet(resultSet);
+                }
+                return result;
+            }
+
+            flush();
+            String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : preparedSql;
+            Object[] snapshot = parameters.toArray();
+            String origin = QueryOrigin.current();
+            long started = System.nanoTime();
+            Object result;
+            try {
+                result = InspectingDataSource.invoke(target, method, args);
+            } catch (Throwable e) {
+                if (sql != null) {
+                    record(new Execution(sql, snapshot, origin, System.nanoTime() - started), -1, true);
+                }
+                throw e;
+            }
+            if (sql == null) {
+                return result;
+            }
+            Execution execution = new Execution(sql, snapshot, origin, System.nanoTime() - started);
+            if (result instanceof ResultSet resultSet) {
+                pending = execution;
+                pendingRows = 0;
+                return resultSet(resultSet);
+            }
+            if (result instanceof Boolean hasResultSet) {
+                if (hasResultSet) {
+                    pending = execution;
+                    pendingRows = 0;
+                } else {
+                    record(execution, target.getUpdateCount(), false);
+                }
+                return result;
+            }
+            record(execution, rows(result), false);
+            return result;
+        }
+
+        private void remember(int index, Object value) {
+            while (parameters.size() < index) {
+                parameters.add(null);
+            }
+            parameters.set(index - 1, value);
+        }
+
+        private ResultSet resultSet(ResultSet target) {
+            return proxy(ResultSet.class, target, (proxy, method, args) -> {
+                Object result = InspectingDataSource.invoke(target, method, args);
+                if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                    pendingRows++;
+                } else if (method.getName().equals("close")) {
+                    flush();
+                }
+                return result;
+            });
+        }
+
+        private void flush() {
+            if (pending != null) {
+                Execution execution = pending;
+                pending = null;
+                record(execution, pendingRows, false);
+            }
+        }
+
+        private static long rows(Object result) {
+            if (result instanceof Number count) {
+                return count.longValue();
+            }
+            if (result instanceof int[] counts) {
+                return Arrays.stream(counts).filter(count -> count > 0).asLongStream().sum();
+            }
+            if (result instanceof long[] counts) {
+                return Arrays.stream(counts).filter(count -> count > 0).sum();
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.hogwarts.school.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Запись JFR по запросу. Запись непрерывная, но ограничена по возрасту и объёму данных
+ * (кольцевой буфер на диске) и сама останавливается через {@code profiling.max-duration-minutes},
+ * если её забыли остановить. Одновременно идёт не больше одной записи.
+ */
+@Component
+public class ProfilingRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(ProfilingRecorder.class);
+
+    static final String RECORDING_NAME = "hogwarts-on-demand";
+
+    private final Duration maxAge;
+    private final long maxSizeBytes;
+    private final Duration maxDuration;
+
+    private Recording recording;
+
+    public ProfilingRecorder(@Value("${profiling.max-age-minutes:30}") long maxAgeMinutes,
+                             @Value("${profiling.max-size-mb:256}") long maxSizeMb,
+                             @Value("${profiling.max-duration-minutes:60}") long maxDurationMinutes) {
+        this.maxAge = Duration.ofMinutes(maxAgeMinutes);
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+        this.maxDuration = Duration.ofMinutes(maxDurationMinutes);
+    }
+
+    /**
+     * Запускает запись с настройками JFR {@code default} (около 1% накладных расходов)
+     * или {@code profile} (подробнее, дороже). Запрошенные пределы не могут превышать настроенные.
+     */
+    public synchronized Status start(String settings, Long maxAgeMinutes, Long maxSizeMb) {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("Recording is already running");
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings == null ? "default" : settings);
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("Unknown JFR settings: " + settings, e);
+        }
+        closeRecording();
+
+        Recording started = new Recording(configuration);
+        started.setName(RECORDING_NAME);
+        started.setToDisk(true);
+        started.setMaxAge(maxAgeMinutes == null ? maxAge : min(Duration.ofMinutes(maxAgeMinutes), maxAge));
+        started.setMaxSize(maxSizeMb == null ? maxSizeBytes : Math.min(maxSizeMb * 1024 * 1024, maxSizeBytes));
+        started.setDuration(maxDuration);
+        // Системные свойства и переменные окружения содержат пароли и ключи, в дамп они попадать не должны
+        started.disable("jdk.InitialSystemProperty");
+        started.disable("jdk.InitialEnvironmentVariable");
+        started.enable(AvatarUploadPhaseEvent.class);
+        started.enable(RepositoryQueryEvent.class);
+        started.enable(RequestHandlingEvent.class);
+        started.start();
+        recording = started;
+        logger.info("JFR recording started with '{}' settings (max age {}, max size {} bytes)",
+                configuration.getName(), started.getMaxAge(), started.getMaxSize());
+        return status();
+    }
+
+    public synchronized Status stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            throw new IllegalStateException("No running recording");
+        }
+        recording.stop();
+        logger.info("JFR recording stopped, {} bytes recorded", recording.getSize());
+        return status();
+    }
+
+    /**
+     * Сбрасывает записанное во временный файл. Работает и для идущей, и для остановленной записи.
+     */
+    public synchronized Path dump() throws IOException {
+        if (recording == null || recording.getState() == RecordingState.NEW) {
+            throw new IllegalStateException("Nothing has been recorded");
+        }
+        Path file = Files.createTempFile("hogwarts-", ".jfr");
+        recording.dump(file);
+        logger.info("JFR recording dumped to {} ({} bytes)", file, Files.size(file));
+        return file;
+    }
+
+    public synchronized Status status() {
+        if (recording == null) {
+            return new Status("NONE", null, null, 0, maxAge, maxSizeBytes);
+        }
+        return new Status(recording.getState().name(), recording.getStartTime(), recording.getStopTime(),
+                recording.getSize(), recording.getMaxAge(), recording.getMaxSize());
+    }
+
+    private void closeRecording() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    public record Status(String state, Instant startTime, Instant stopTime, long sizeBytes,
+                         Duration maxAge, long maxSizeBytes) {
+    }
+}
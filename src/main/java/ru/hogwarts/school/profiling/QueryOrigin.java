@@ -0,0 +1,38 @@
+package ru.hogwarts.school.profiling;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Метод репозитория, который сейчас выполняется в потоке, - чтобы в статистике SQL
+ * было видно, откуда пришёл запрос ({@code StudentRepository.findByAgeBetween}).
+ */
+public final class QueryOrigin implements MethodInterceptor {
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private final String repository;
+
+    public QueryOrigin(Class<?> repositoryInterface) {
+        this.repository = repositoryInterface.getSimpleName() + ".";
+    }
+
+    /**
+     * Самый внешний метод репозитория в текущем потоке или {@code null}.
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (CURRENT.get() != null) {
+            return invocation.proceed();
+        }
+        CURRENT.set(repository + invocation.getMethod().getName());
+        try {
+            return invocation.proceed();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ru.hogwarts.school.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("ru.hogwarts.school.RepositoryQuery")
+@Label("Repository Query")
+@Category({"Hogwarts", "Database"})
+@Description("Call of a Spring Data repository method")
+@StackTrace(false)
+public class RepositoryQueryEvent extends Event {
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Method")
+    String method;
+
+    @Label("Rows")
+    @Description("Number of returned entities or affected rows, -1 if unknown")
+    long rows;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,47 @@
+package ru.hogwarts.school.profiling;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Пишет {@link RequestHandlingEvent} на каждый запрос к методу контроллера.
+ * Регистрируется первым, чтобы в событие попадали и запросы, на которые другие перехватчики ответили сами (304).
+ */
+@Component
+public class RequestEventInterceptor implements HandlerInterceptor {
+    private static final String EVENT_ATTRIBUTE = RequestEventInterceptor.class.getName() + ".event";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod) {
+            RequestHandlingEvent event = new RequestHandlingEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                request.setAttribute(EVENT_ATTRIBUTE, event);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (!(request.getAttribute(EVENT_ATTRIBUTE) instanceof RequestHandlingEvent event)) {
+            return;
+        }
+        request.removeAttribute(EVENT_ATTRIBUTE);
+        event.end();
+        if (event.shouldCommit() && handler instanceof HandlerMethod handlerMethod) {
+            event.controller = handlerMethod.getBeanType().getSimpleName();
+            event.handlerMethod = handlerMethod.getMethod().getName();
+            event.httpMethod = request.getMethod();
+            event.pattern = String.valueOf(request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE));
+            event.status = response.getStatus();
+            event.commit();
+        }
+    }
+}
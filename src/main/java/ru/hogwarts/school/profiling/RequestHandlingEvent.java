@@ -0,0 +1,31 @@
+package ru.hogwarts.school.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("ru.hogwarts.school.RequestHandling")
+@Label("Request Handling")
+@Category({"Hogwarts", "Web"})
+@Description("Handling of an HTTP request by a controller method")
+@StackTrace(false)
+public class RequestHandlingEvent extends Event {
+
+    @Label("Controller")
+    String controller;
+
+    @Label("Handler Method")
+    String handlerMethod;
+
+    @Label("HTTP Method")
+    String httpMethod;
+
+    @Label("Path Pattern")
+    String pattern;
+
+    @Label("Status")
+    int status;
+}
@@ -0,0 +1,37 @@
+package ru.hogwarts.school.profiling;
+
+import java.util.regex.Pattern;
+
+/**
+ * Приведение SQL к «форме»: литералы заменяются на {@code ?}, списки {@code IN (?, ?, ...)}
+ * сворачиваются, пробелы схлопываются. Запросы, отличающиеся только значениями
+ * или длиной списка ID, попадают в одну строку статистики.
+ */
+public final class SqlShapes {
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$.])-?\\d+(?:\\.\\d+)?(?![\\w$])");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern DATA_CHANGE = Pattern.compile("(?i)\\b(insert|update|delete|merge|truncate|copy)\\b");
+    private static final Pattern ROW_LOCK = Pattern.compile("(?i)\\bfor\\s+(key\\s+)?share\\b");
+
+    private SqlShapes() {
+    }
+
+    public static String normalize(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+        return IN_LIST.matcher(shape).replaceAll("in (?...)");
+    }
+
+    /**
+     * Можно ли выполнить {@code EXPLAIN ANALYZE} без побочных эффектов: ANALYZE выполняет запрос по-настоящему,
+     * поэтому годятся только чистые SELECT, без изменения данных и блокировок строк.
+     */
+    public static boolean isExplainable(String sql) {
+        String head = sql.stripLeading().toLowerCase();
+        return (head.startsWith("select") || head.startsWith("with"))
+                && !DATA_CHANGE.matcher(sql).find() && !ROW_LOCK.matcher(sql).find();
+    }
+}
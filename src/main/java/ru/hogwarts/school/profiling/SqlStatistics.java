@@ -0,0 +1,229 @@
+package ru.hogwarts.school.profiling;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика SQL по формам запросов: число вызовов, время, строки, ошибки и медленные выполнения.
+ * Для части медленных SELECT запрашивается план {@code EXPLAIN (ANALYZE, BUFFERS)} -
+ * не чаще раза в {@code sql.inspection.explain.min-interval-ms} на форму.
+ * Число форм ограничено, всё сверх лимита считается в общей строке {@link #OVERFLOW_SHAPE}.
+ */
+@Component
+public class SqlStatistics implements MeterBinder {
+    static final String OVERFLOW_SHAPE = "<other>";
+
+    private final long slowThresholdNanos;
+    private final int maxShapes;
+    private final boolean explainEnabled;
+    private final double explainSampleRate;
+    private final long explainMinIntervalNanos;
+    private final int samplesPerShape;
+
+    private final Map<String, String> shapeCache = new ConcurrentHashMap<>();
+    private final Map<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder explains = new LongAdder();
+
+    public SqlStatistics(@Value("${sql.inspection.slow-threshold-ms:200}") long slowThresholdMs,
+                         @Value("${sql.inspection.max-shapes:500}") int maxShapes,
+                         @Value("${sql.inspection.explain.enabled:true}") boolean explainEnabled,
+                         @Value("${sql.inspection.explain.sample-rate:0.1}") double explainSampleRate,
+                         @Value("${sql.inspection.explain.min-interval-ms:60000}") long explainMinIntervalMs,
+                         @Value("${sql.inspection.explain.samples-per-shape:3}") int samplesPerShape) {
+        this.slowThresholdNanos = Duration.ofMillis(slowThresholdMs).toNanos();
+        this.maxShapes = maxShapes;
+        this.explainEnabled = explainEnabled;
+        this.explainSampleRate = explainSampleRate;
+        this.explainMinIntervalNanos = Duration.ofMillis(explainMinIntervalMs).toNanos();
+        this.samplesPerShape = Math.max(1, samplesPerShape);
+    }
+
+    /**
+     * Учитывает одно выполнение.
+     *
+     * @param rows число прочитанных или изменённых строк, {@code -1} если неизвестно
+     * @return {@code true}, если для этого выполнения нужно снять план
+     */
+    public boolean record(String sql, String origin, long nanos, long rows, boolean failed) {
+        ShapeStats stats = stats(sql, origin);
+        statements.increment();
+        totalNanos.add(nanos);
+        stats.calls.increment();
+        stats.totalNanos.add(nanos);
+        stats.maxNanos.accumulateAndGet(nanos, Math::max);
+        if (rows > 0) {
+            this.rows.add(rows);
+            stats.rows.add(rows);
+        }
+        if (failed) {
+            errors.increment();
+            stats.errors.increment();
+            return false;
+        }
+        if (nanos < slowThresholdNanos) {
+            return false;
+        }
+        slow.increment();
+        stats.slow.increment();
+        return explainEnabled && stats != shapes.get(OVERFLOW_SHAPE)
+                && SqlShapes.isExplainable(sql) && shouldExplain(stats);
+    }
+
+    private boolean shouldExplain(ShapeStats stats) {
+        if (ThreadLocalRandom.current().nextDouble() >= explainSampleRate) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long last = stats.lastExplainAt.get();
+        // Не чаще заданного интервала, и только одним потоком
+        return now - last >= explainMinIntervalNanos && stats.lastExplainAt.compareAndSet(last, now);
+    }
+
+    public void addExplain(String sql, long nanos, String plan) {
+        ShapeStats stats = shapes.get(shape(sql));
+        if (stats == null) {
+            return;
+        }
+        explains.increment();
+        synchronized (stats.samples) {
+            if (stats.samples.size() == samplesPerShape) {
+                stats.samples.removeFirst();
+            }
+            stats.samples.addLast(new ExplainSample(Instant.now(), Duration.ofNanos(nanos).toMillis(), plan));
+        }
+    }
+
+    /**
+     * Формы, отсортированные по убыванию: {@code total} - суммарное время, {@code max}, {@code avg} или {@code calls}.
+     */
+    public List<ShapeSnapshot> top(String sort, int limit) {
+        Comparator<ShapeSnapshot> order = switch (sort == null ? "total" : sort) {
+            case "max" -> Comparator.comparingDouble(ShapeSnapshot::maxMs);
+            case "avg" -> Comparator.comparingDouble(ShapeSnapshot::avgMs);
+            case "calls" -> Comparator.comparingLong(ShapeSnapshot::calls);
+            default -> Comparator.comparingDouble(ShapeSnapshot::totalMs);
+        };
+        return shapes.values().stream()
+                .map(ShapeStats::snapshot)
+                .sorted(order.reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    public void reset() {
+        shapes.clear();
+        shapeCache.clear();
+    }
+
+    private ShapeStats stats(String sql, String origin) {
+        String shape = shape(sql);
+        ShapeStats stats = shapes.get(shape);
+        if (stats == null) {
+            if (shapes.size() >= maxShapes) {
+                shape = OVERFLOW_SHAPE;
+            }
+            stats = shapes.computeIfAbsent(shape,
+                    key -> new ShapeStats(key, System.nanoTime() - explainMinIntervalNanos));
+        }
+        if (origin != null && stats.origin == null) {
+            stats.origin = origin;
+        }
+        return stats;
+    }
+
+    private String shape(String sql) {
+        String shape = shapeCache.get(sql);
+        if (shape == null) {
+            shape = SqlShapes.normalize(sql);
+            // Hibernate генерирует ограниченный набор текстов, но нативные запросы с литералами могут быть уникальными
+            if (shapeCache.size() < maxShapes * 4) {
+                shapeCache.put(sql, shape);
+            }
+        }
+        return shape;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("sql.statements", statements, LongAdder::sum)
+                .description("Executed SQL statements")
+                .register(registry);
+        FunctionCounter.builder("sql.statements.errors", errors, LongAdder::sum)
+                .description("SQL statements that failed")
+                .register(registry);
+        FunctionCounter.builder("sql.statements.slow", slow, LongAdder::sum)
+                .description("SQL statements slower than sql.inspection.slow-threshold-ms")
+                .register(registry);
+        FunctionCounter.builder("sql.statements.time", totalNanos, adder -> adder.sum() / 1e9)
+                .description("Total time spent executing SQL statements")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("sql.rows", rows, LongAdder::sum)
+                .description("Rows read or changed by SQL statements")
+                .register(registry);
+        FunctionCounter.builder("sql.explain.samples", explains, LongAdder::sum)
+                .description("Captured EXPLAIN ANALYZE plans of slow statements")
+                .register(registry);
+        Gauge.builder("sql.shapes", shapes, Map::size)
+                .description("Distinct normalized SQL shapes being tracked")
+                .register(registry);
+    }
+
+    public record ExplainSample(Instant capturedAt, long durationMs, String plan) {
+    }
+
+    public record ShapeSnapshot(String shape, String origin, long calls, double totalMs, double avgMs,
+                                double maxMs, long rows, long errors, long slow, List<ExplainSample> explains) {
+    }
+
+    private static final class ShapeStats {
+        private final String shape;
+        private volatile String origin;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final AtomicLong lastExplainAt;
+        private final Deque<ExplainSample> samples = new ArrayDeque<>();
+
+        private ShapeStats(String shape, long lastExplainAt) {
+            this.shape = shape;
+            // Первый медленный запрос формы может получить план сразу
+            this.lastExplainAt = new AtomicLong(lastExplainAt);
+        }
+
+        private ShapeSnapshot snapshot() {
+            long count = calls.sum();
+            double total = totalNanos.sum() / 1e6;
+            List<ExplainSample> explains;
+            synchronized (samples) {
+                explains = List.copyOf(samples);
+            }
+            return new ShapeSnapshot(shape, origin, count, total, count == 0 ? 0 : total / count,
+                    maxNanos.get() / 1e6, rows.sum(), errors.sum(), slow.sum(), explains);
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package ru.hogwarts.school.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.dto.AvatarPreview;
+import ru.hogwarts.school.dto.StudentAvatarPreview;
 import ru.hogwarts.school.model.Avatar;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -14,4 +22,38 @@ public interface AvatarRepository extends JpaRepository<Avatar, Long> {
     Optional<Avatar> findByStudentId(Long studentId);
 
     Page<Avatar> findAll(Pageable pageable);
-}
\ No newline at end of file
+
+    long countByStorageKey(String storageKey);
+
+    @Query("SELECT new ru.hogwarts.school.dto.AvatarPreview(a.data, a.mediaType) FROM Avatar a WHERE a.student.id = :studentId")
+    Optional<AvatarPreview> findPreviewByStudentId(Long studentId);
+
+    @Query("SELECT new ru.hogwarts.school.dto.StudentAvatarPreview(a.student.id, a.data, a.mediaType) FROM Avatar a WHERE a.student.id IN :studentIds")
+    List<StudentAvatarPreview> findPreviewsByStudentIdIn(Collection<Long> studentIds);
+
+    /**
+     * Страница превью факультета по возрастанию ID студента. Условие по {@code faculty_id}
+     * оставляет в плане одну секцию students.
+     */
+    @Query("SELECT new ru.hogwarts.school.dto.StudentAvatarPreview(s.id, a.data, a.mediaType) FROM Avatar a "
+            + "JOIN a.student s WHERE s.faculty.id = :facultyId AND s.id > :afterStudentId AND a.data IS NOT NULL "
+            + "ORDER BY s.id")
+    List<StudentAvatarPreview> findPreviewsByFacultyId(Long facultyId, long afterStudentId, Limit limit);
+
+    /**
+     * Постраничное чтение ключей файлов по возрастанию ID, без байтов превью.
+     */
+    @Query("SELECT new ru.hogwarts.school.dto.AvatarFileRef(a.id, a.student.id, a.storageKey) FROM Avatar a "
+            + "WHERE a.id > :afterId AND a.storageKey IS NOT NULL ORDER BY a.id")
+    List<AvatarFileRef> findFileRefsAfter(long afterId, Limit limit);
+
+    /**
+     * Удаляет запись, только если она всё ещё ссылается на тот же файл.
+     */
+    @Modifying
+    @Query("DELETE FROM Avatar a WHERE a.id = :id AND a.storageKey = :storageKey")
+    int deleteByIdAndStorageKey(Long id, String storageKey);
+
+    @Query("SELECT a.student.id FROM Avatar a WHERE a.student.id > :afterId ORDER BY a.student.id")
+    List<Long> findStudentIdsAfter(long afterId, Limit limit);
+}
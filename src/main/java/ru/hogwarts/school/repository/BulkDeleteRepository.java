@@ -0,0 +1,83 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Удаление множеством: один DELETE вместо загрузки и удаления сущностей по одной.
+ * Аватары удаляются в БД триггером {@code students_delete_avatars}, а ключи их файлов
+ * возвращаются из того же запроса - он видит снимок данных до удаления.
+ * События {@code DELETED} пишутся в outbox тем же запросом, в формате {@code ChangeOutbox}.
+ * Вызывать нужно внутри транзакции.
+ */
+@Repository
+public class BulkDeleteRepository {
+    private static final Logger logger = LoggerFactory.getLogger(BulkDeleteRepository.class);
+
+    private static final String DELETED_STUDENTS = """
+            , events AS (
+                INSERT INTO change_events (aggregate, aggregate_id, operation, payload, created_at)
+                SELECT 'STUDENT', id, 'DELETED', json_build_object('id', id)::text, now() FROM deleted
+            )
+            SELECT d.id, a.storage_key FROM deleted d LEFT JOIN avatars a ON a.student_id = d.id
+            """;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public record DeletedStudent(Long id, String avatarKey) {
+    }
+
+    public List<DeletedStudent> deleteStudents(Collection<Long> ids) {
+        List<DeletedStudent> deleted = execute("WITH deleted AS (DELETE FROM students WHERE id IN (:ids) RETURNING id)"
+                + DELETED_STUDENTS, "ids", ids);
+        logger.debug("Bulk delete of {} students by ID: {} rows", ids.size(), deleted.size());
+        return deleted;
+    }
+
+    public List<DeletedStudent> deleteStudentsByFaculty(Long facultyId) {
+        List<DeletedStudent> deleted = execute("WITH deleted AS (DELETE FROM students WHERE faculty_id = :facultyId RETURNING id)"
+                + DELETED_STUDENTS, "facultyId", facultyId);
+        logger.debug("Bulk delete of students of faculty {}: {} rows", facultyId, deleted.size());
+        return deleted;
+    }
+
+    /**
+     * @return {@code true}, если факультет существовал
+     */
+    public boolean deleteFaculty(Long id) {
+        entityManager.flush();
+        Number deleted = (Number) entityManager.createNativeQuery("""
+                        WITH deleted AS (DELETE FROM faculty WHERE id = :id RETURNING id),
+                        events AS (
+                            INSERT INTO change_events (aggregate, aggregate_id, operation, payload, created_at)
+                            SELECT 'FACULTY', id, 'DELETED', json_build_object('id', id)::text, now() FROM deleted
+                        )
+                        SELECT count(*) FROM deleted
+                        """)
+                .setParameter("id", id)
+                .getSingleResult();
+        entityManager.clear();
+        return deleted.longValue() > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<DeletedStudent> execute(String sql, String parameter, Object value) {
+        // Несохранённые изменения уходят в БД до удаления, а загруженные сущности
+        // после него отсоединяются, чтобы не ссылаться на удалённые строки
+        entityManager.flush();
+        List<Object[]> rows = entityManager.createNativeQuery(sql)
+                .setParameter(parameter, value)
+                .getResultList();
+        entityManager.clear();
+        return rows.stream()
+                .map(row -> new DeletedStudent(((Number) row[0]).longValue(), (String) row[1]))
+                .toList();
+    }
+}
@@ -0,0 +1,34 @@
+package ru.hogwarts.school.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import ru.hogwarts.school.model.ChangeEvent;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface ChangeEventRepository extends JpaRepository<ChangeEvent, Long> {
+
+    /**
+     * Блокировка ретранслятора до конца транзакции: номера назначает только один узел.
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+    boolean tryRelayLock(long key);
+
+    @Query(value = "SELECT * FROM change_events WHERE sequence IS NULL ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<ChangeEvent> findUnpublished(int limit);
+
+    @Query(value = "SELECT nextval('change_event_sequence') FROM generate_series(1, :count)", nativeQuery = true)
+    List<Long> nextSequences(int count);
+
+    @Query("SELECT MAX(e.sequence) FROM ChangeEvent e")
+    Long findMaxSequence();
+
+    List<ChangeEvent> findBySequenceGreaterThanOrderBySequence(long after, Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM ChangeEvent e WHERE e.sequence IS NOT NULL AND e.createdAt < :before")
+    int deletePublishedBefore(Instant before);
+}
@@ -1,12 +1,17 @@
 package ru.hogwarts.school.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import ru.hogwarts.school.model.Faculty;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface FacultyRepository extends JpaRepository<Faculty, Long> {
     List<Faculty> findByColor(String color);
 
     List<Faculty> findByNameIgnoreCaseOrColorIgnoreCase(String name, String color);
-}
\ No newline at end of file
+
+    @Query("SELECT f.version FROM Faculty f WHERE f.id = :id")
+    Optional<Long> findVersionById(Long id);
+}
@@ -0,0 +1,49 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+import java.util.Map;
+
+/**
+ * Частичное обновление сущностей одним UPDATE без предварительной загрузки.
+ * В запрос попадают только переданные атрибуты и увеличение {@code version};
+ * если указана ожидаемая версия, она проверяется в том же WHERE.
+ * Вызывать нужно внутри транзакции.
+ */
+@Repository
+public class PartialUpdateRepository {
+    private static final Logger logger = LoggerFactory.getLogger(PartialUpdateRepository.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @return число обновлённых строк: 0, если строки нет или версия не совпала
+     */
+    public <T> int update(Class<T> type, Long id, Long expectedVersion, Map<String, Object> changes) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<T> update = cb.createCriteriaUpdate(type);
+        Root<T> root = update.from(type);
+        changes.forEach(update::set);
+
+        Path<Long> version = root.get("version");
+        update.set(version, cb.sum(version, 1L));
+
+        Predicate byId = cb.equal(root.get("id"), id);
+        update.where(expectedVersion == null ? byId : cb.and(byId, cb.equal(version, expectedVersion)));
+
+        int updated = entityManager.createQuery(update).executeUpdate();
+        logger.debug("Partial update of {} {} with attributes {}: {} rows",
+                type.getSimpleName(), id, changes.keySet(), updated);
+        return updated;
+    }
+}
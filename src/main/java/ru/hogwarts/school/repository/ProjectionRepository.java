@@ -0,0 +1,111 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.stereotype.Repository;
+import ru.hogwarts.school.dto.FieldSelection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Чтение только запрошенных полей одним запросом-кортежем, без загрузки сущностей в контекст.
+ * Связь присоединяется ({@code LEFT JOIN}) только если из неё нужно что-то кроме id:
+ * id связи берётся из внешнего ключа самой таблицы.
+ */
+@Repository
+public class ProjectionRepository {
+    private static final Logger logger = LoggerFactory.getLogger(ProjectionRepository.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @param limit наибольшее число строк, {@code 0} - без ограничения
+     * @return по строке на запись: поля в порядке запроса, поля связи - во вложенном объекте
+     * или {@code null}, если связи нет
+     */
+    public <T> List<Map<String, Object>> find(Class<T> type, FieldSelection fields, Specification<T> filter,
+                                              Sort sort, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(type);
+
+        Map<String, Join<T, ?>> joins = new HashMap<>();
+        List<Selection<?>> selections = new ArrayList<>();
+        for (String field : fields.fields()) {
+            int dot = field.indexOf('.');
+            if (dot < 0) {
+                selections.add(root.get(field));
+                continue;
+            }
+            String association = field.substring(0, dot);
+            String attribute = field.substring(dot + 1);
+            selections.add(attribute.equals("id") ? root.get(association).get("id")
+                    : joins.computeIfAbsent(association, name -> root.join(name, JoinType.LEFT)).get(attribute));
+        }
+        // По id связи видно, есть ли она вообще, даже если сам id не запрошен
+        for (String association : fields.associations()) {
+            selections.add(root.get(association).get("id"));
+        }
+        query.multiselect(selections);
+        if (filter != null) {
+            query.where(filter.toPredicate(root, query, cb));
+        }
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        TypedQuery<Tuple> typed = entityManager.createQuery(query);
+        if (limit > 0) {
+            typed.setMaxResults(limit);
+        }
+        List<Map<String, Object>> rows = typed.getResultList().stream()
+                .map(tuple -> toMap(fields, tuple))
+                .toList();
+        logger.debug("Projection of {} fields {}: {} rows", type.getSimpleName(), fields.fields(), rows.size());
+        return rows;
+    }
+
+    private static Map<String, Object> toMap(FieldSelection fields, Tuple tuple) {
+        List<String> names = fields.fields();
+        Map<String, Object> row = new LinkedHashMap<>();
+        int present = names.size();
+        Map<String, Boolean> exists = new HashMap<>();
+        for (String association : fields.associations()) {
+            exists.put(association, tuple.get(present++) != null);
+        }
+        for (int i = 0; i < names.size(); i++) {
+            String field = names.get(i);
+            int dot = field.indexOf('.');
+            if (dot < 0) {
+                row.put(field, tuple.get(i));
+                continue;
+            }
+            String association = field.substring(0, dot);
+            if (!exists.get(association)) {
+                row.put(association, null);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> nested = (Map<String, Object>) row.computeIfAbsent(association,
+                    name -> new LinkedHashMap<String, Object>());
+            nested.put(field.substring(dot + 1), tuple.get(i));
+        }
+        return row;
+    }
+}
@@ -0,0 +1,68 @@
+package ru.hogwarts.school.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Возрасты студентов для агрегации: строки читаются сразу в примитивные массивы,
+ * без сущностей и без упаковки каждого значения в {@code Integer}.
+ */
+@Repository
+public class StudentAgeRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StudentAgeRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Возрасты с ID факультета, отсортированные по факультету: каждая группа - непрерывный отрезок.
+     */
+    public record FacultyAges(long[] facultyIds, int[] ages) {
+    }
+
+    public int[] findAllAges() {
+        AgeCollector collector = new AgeCollector(false);
+        jdbcTemplate.query("SELECT age FROM students", collector);
+        return Arrays.copyOf(collector.ages, collector.size);
+    }
+
+    public FacultyAges findFacultyAges() {
+        AgeCollector collector = new AgeCollector(true);
+        jdbcTemplate.query("SELECT age, faculty_id FROM students WHERE faculty_id IS NOT NULL ORDER BY faculty_id",
+                collector);
+        return new FacultyAges(Arrays.copyOf(collector.facultyIds, collector.size),
+                Arrays.copyOf(collector.ages, collector.size));
+    }
+
+    private static final class AgeCollector implements RowCallbackHandler {
+        private int[] ages = new int[1024];
+        private long[] facultyIds;
+        private int size;
+
+        AgeCollector(boolean withFaculty) {
+            this.facultyIds = withFaculty ? new long[ages.length] : null;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            if (size == ages.length) {
+                ages = Arrays.copyOf(ages, size * 2);
+                if (facultyIds != null) {
+                    facultyIds = Arrays.copyOf(facultyIds, size * 2);
+                }
+            }
+            ages[size] = resultSet.getInt(1);
+            if (facultyIds != null) {
+                facultyIds[size] = resultSet.getLong(2);
+            }
+            size++;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package ru.hogwarts.school.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import ru.hogwarts.school.dto.EntityVersion;
 import ru.hogwarts.school.model.Student;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface StudentRepository extends JpaRepository<Student, Long> {
     List<Student> findByAge(int age);
 
     List<Student> findByAgeBetween(int minAge, int maxAge);
 
+    /**
+     * Условие по faculty_id позволяет планировщику читать одну секцию students вместо всех.
+     */
+    List<Student> findByFacultyIdAndAgeBetween(Long facultyId, int minAge, int maxAge);
+
     @Query("SELECT COUNT(*) FROM Student")
     Integer getTotalCount();
 
@@ -19,4 +27,15 @@ public interface StudentRepository extends JpaRepository<Student, Long> {
 
     @Query(value = "SELECT * FROM students ORDER BY id DESC LIMIT 5", nativeQuery = true)
     List<Student> getLastStudents();
+
+
+    @Query("SELECT s.version FROM Student s WHERE s.id = :id")
+    Optional<Long> findVersionById(Long id);
+
+    @Query("SELECT new ru.hogwarts.school.dto.EntityVersion(s.version, f.version) FROM Student s "
+            + "LEFT JOIN s.faculty f WHERE s.id = :id")
+    Optional<EntityVersion> findEntityVersionById(Long id);
+
+    @Query("SELECT s.id FROM Student s WHERE s.id > :afterId ORDER BY s.id")
+    List<Long> findIdsAfter(long afterId, Limit limit);
 }
@@ -0,0 +1,263 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.dto.AgeStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Агрегация возрастов над примитивными массивами.
+ * Небольшие объёмы считаются последовательно в вызывающем потоке,
+ * большие делятся на поддиапазоны и считаются в выделенном {@link ForkJoinPool}.
+ */
+public class AgeAggregator {
+
+    /**
+     * Максимальная ширина диапазона значений, для которого перцентили считаются гистограммой.
+     * Для более широкого диапазона используется сортировка копии.
+     */
+    private static final int MAX_HISTOGRAM_RANGE = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final int sequentialThreshold;
+
+    public AgeAggregator(ForkJoinPool pool, int sequentialThreshold) {
+        this.pool = pool;
+        this.sequentialThreshold = Math.max(1, sequentialThreshold);
+    }
+
+    public AgeStatistics aggregate(int[] ages, int[] percentiles) {
+        return aggregate(ages, 0, ages.length, percentiles);
+    }
+
+    public AgeStatistics aggregate(int[] ages, int from, int to, int[] percentiles) {
+        int length = to - from;
+        if (length <= 0) {
+            return AgeStatistics.empty();
+        }
+
+        Summary summary = isSequential(length)
+                ? Summary.of(ages, from, to)
+                : pool.invoke(new SummaryTask(ages, from, to, splitSize(length)));
+
+        return new AgeStatistics(
+                summary.count,
+                summary.sum,
+                (double) summary.sum / summary.count,
+                summary.min,
+                summary.max,
+                percentiles(ages, from, to, summary, percentiles));
+    }
+
+    /**
+     * Группированная агрегация. Массив {@code keys} должен быть отсортирован,
+     * тогда каждая группа - это непрерывный отрезок массива {@code ages}.
+     */
+    public Map<Long, AgeStatistics> aggregateGrouped(long[] keys, int[] ages, int[] percentiles) {
+        if (keys.length != ages.length) {
+            throw new IllegalArgumentException("keys and ages must have the same length");
+        }
+
+        List<int[]> runs = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= keys.length; i++) {
+            if (i == keys.length || keys[i] != keys[start]) {
+                runs.add(new int[]{start, i});
+                start = i;
+            }
+        }
+
+        Map<Long, AgeStatistics> result = new LinkedHashMap<>();
+        if (isSequential(keys.length) || runs.size() == 1) {
+            for (int[] run : runs) {
+                result.put(keys[run[0]], aggregate(ages, run[0], run[1], percentiles));
+            }
+            return result;
+        }
+
+        List<Callable<AgeStatistics>> tasks = new ArrayList<>(runs.size());
+        for (int[] run : runs) {
+            tasks.add(() -> aggregate(ages, run[0], run[1], percentiles));
+        }
+        List<Future<AgeStatistics>> futures = pool.invokeAll(tasks);
+        for (int i = 0; i < runs.size(); i++) {
+            result.put(keys[runs.get(i)[0]], join(futures.get(i)));
+        }
+        return result;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    private boolean isSequential(int length) {
+        return length < sequentialThreshold || pool.getParallelism() == 1;
+    }
+
+    private int splitSize(int length) {
+        return Math.max(sequentialThreshold, length / (pool.getParallelism() * 4));
+    }
+
+    private Map<Integer, Integer> percentiles(int[] ages, int from, int to, Summary summary, int[] percentiles) {
+        Map<Integer, Integer> result = new LinkedHashMap<>();
+        if (percentiles == null || percentiles.length == 0) {
+            return result;
+        }
+
+        long range = (long) summary.max - summary.min + 1;
+        if (range <= MAX_HISTOGRAM_RANGE) {
+            int[] histogram = isSequential(to - from)
+                    ? histogram(ages, from, to, summary.min, (int) range)
+                    : pool.invoke(new HistogramTask(ages, from, to, summary.min, (int) range, splitSize(to - from)));
+            for (int p : percentiles) {
+                long rank = rank(p, summary.count);
+                long seen = 0;
+                for (int bucket = 0; bucket < histogram.length; bucket++) {
+                    seen += histogram[bucket];
+                    if (seen >= rank) {
+                        result.put(p, summary.min + bucket);
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        int[] sorted = Arrays.copyOfRange(ages, from, to);
+        if (isSequential(sorted.length)) {
+            Arrays.sort(sorted);
+        } else {
+            join(pool.submit(() -> Arrays.parallelSort(sorted)));
+        }
+        for (int p : percentiles) {
+            result.put(p, sorted[(int) rank(p, sorted.length) - 1]);
+        }
+        return result;
+    }
+
+    private static long rank(int percentile, long count) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        return Math.min(Math.max(rank, 1), count);
+    }
+
+    private static int[] histogram(int[] ages, int from, int to, int min, int range) {
+        int[] histogram = new int[range];
+        for (int i = from; i < to; i++) {
+            histogram[ages[i] - min]++;
+        }
+        return histogram;
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Aggregation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Aggregation failed", e.getCause());
+        }
+    }
+
+    private static final class Summary {
+        private long count;
+        private long sum;
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+
+        static Summary of(int[] ages, int from, int to) {
+            Summary summary = new Summary();
+            for (int i = from; i < to; i++) {
+                int age = ages[i];
+                summary.sum += age;
+                if (age < summary.min) {
+                    summary.min = age;
+                }
+                if (age > summary.max) {
+                    summary.max = age;
+                }
+            }
+            summary.count = to - from;
+            return summary;
+        }
+
+        Summary merge(Summary other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            return this;
+        }
+    }
+
+    private static final class SummaryTask extends RecursiveTask<Summary> {
+        private final int[] ages;
+        private final int from;
+        private final int to;
+        private final int splitSize;
+
+        SummaryTask(int[] ages, int from, int to, int splitSize) {
+            this.ages = ages;
+            this.from = from;
+            this.to = to;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= splitSize) {
+                return Summary.of(ages, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            SummaryTask left = new SummaryTask(ages, from, middle, splitSize);
+            left.fork();
+            Summary right = new SummaryTask(ages, middle, to, splitSize).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private static final class HistogramTask extends RecursiveTask<int[]> {
+        private final int[] ages;
+        private final int from;
+        private final int to;
+        private final int min;
+        private final int range;
+        private final int splitSize;
+
+        HistogramTask(int[] ages, int from, int to, int min, int range, int splitSize) {
+            this.ages = ages;
+            this.from = from;
+            this.to = to;
+            this.min = min;
+            this.range = range;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= splitSize) {
+                return histogram(ages, from, to, min, range);
+            }
+            int middle = (from + to) >>> 1;
+            HistogramTask left = new HistogramTask(ages, from, middle, min, range, splitSize);
+            left.fork();
+            int[] right = new HistogramTask(ages, middle, to, min, range, splitSize).compute();
+            int[] merged = left.join();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += right[i];
+            }
+            return merged;
+        }
+    }
+}
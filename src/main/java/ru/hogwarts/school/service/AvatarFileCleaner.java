@@ -0,0 +1,118 @@
+package ru.hogwarts.school.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarStorage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фоновое удаление файлов аватаров. Ключи ставятся в очередь только после коммита,
+ * поэтому при откате файлы остаются на месте, а запрос на удаление не ждёт файловую систему.
+ * Файл, на который ссылается другой аватар, не удаляется. Если хранилище дедуплицирует содержимое,
+ * файлы здесь не удаляются вовсе: проверка ссылок и удаление не атомарны относительно загрузки
+ * того же содержимого, поэтому такие файлы убирает {@link AvatarReconciler} после периода ожидания.
+ * Очередь живёт в памяти: ключи, не удалённые до остановки, остаются на диске лишними файлами.
+ */
+@Component
+public class AvatarFileCleaner implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(AvatarFileCleaner.class);
+
+    private final AvatarRepository avatarRepository;
+    private final AvatarStorage avatarStorage;
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "avatar-file-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AvatarFileCleaner(AvatarRepository avatarRepository, AvatarStorage avatarStorage) {
+        this.avatarRepository = avatarRepository;
+        this.avatarStorage = avatarStorage;
+    }
+
+    public void deleteAfterCommit(Collection<String> keys) {
+        List<String> nonNullKeys = keys.stream().filter(Objects::nonNull).toList();
+        if (nonNullKeys.isEmpty()) {
+            return;
+        }
+        if (avatarStorage.sharesKeys()) {
+            logger.debug("Leaving {} shared avatar files to the reconciler", nonNullKeys.size());
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(nonNullKeys);
+                }
+            });
+        } else {
+            enqueue(nonNullKeys);
+        }
+    }
+
+    private void enqueue(List<String> keys) {
+        queue.addAll(keys);
+        logger.debug("Queued {} avatar files for deletion", keys.size());
+        worker.execute(this::drain);
+    }
+
+    private void drain() {
+        String key;
+        while ((key = queue.poll()) != null) {
+            try {
+                if (avatarRepository.countByStorageKey(key) > 0) {
+                    logger.debug("Avatar file {} is still referenced, keeping it", key);
+                    continue;
+                }
+                avatarStorage.delete(key);
+                deleted.increment();
+                logger.debug("Deleted avatar file {}", key);
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                logger.warn("Failed to delete avatar file {}", key, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        worker.shutdown();
+        if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Avatar file cleaner stopped with {} files still queued", queue.size());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("avatar.files.cleanup.pending", queue, ConcurrentLinkedQueue::size)
+                .register(registry);
+        FunctionCounter.builder("avatar.files.cleanup", deleted, LongAdder::sum)
+                .tag("result", "deleted")
+                .register(registry);
+        FunctionCounter.builder("avatar.files.cleanup", failed, LongAdder::sum)
+                .tag("result", "failed")
+                .register(registry);
+    }
+}
@@ -0,0 +1,372 @@
+package ru.hogwarts.school.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.cluster.ClusterInvalidator;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarStorage;
+import ru.hogwarts.school.storage.FileSystemAvatarStorage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Сверка каталога аватаров с таблицей {@code avatars}. Находит файлы, на которые не ссылается
+ * ни одна запись (старые расширения, оставшиеся после удалений, недописанные загрузки),
+ * и записи, чей файл пропал. В режиме удаления убирает и то, и другое.
+ *
+ * <p>Каталог обходится параллельно по подкаталогам верхнего уровня в виртуальных потоках,
+ * найденные файлы сортируются по ключу. Записи затем читаются страницами по ID и сразу
+ * отмечают свой файл двоичным поиском, так что в памяти держатся только файлы и висячие записи.
+ * Свежие файлы не трогаем: при загрузке файл пишется раньше, чем коммитится запись.
+ * Обращения к диску ограничены по частоте, чтобы сверка не мешала обслуживанию запросов.
+ */
+@Component
+public class AvatarReconciler implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(AvatarReconciler.class);
+
+    private static final String TEMP_DIR = ".tmp";
+    private static final String SEGMENTS_DIR = "segments";
+    private static final int PAGE_SIZE = 1000;
+    private static final int SAMPLE_SIZE = 20;
+
+    private final AvatarStorage avatarStorage;
+    private final AvatarRepository avatarRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterInvalidator clusterInvalidator;
+    private final boolean delete;
+    private final Duration grace;
+    private final int parallelism;
+    private final Throttle throttle;
+
+    private volatile Report lastReport;
+
+    public AvatarReconciler(AvatarStorage avatarStorage,
+                            AvatarRepository avatarRepository,
+                            TransactionTemplate transactionTemplate,
+                            ClusterInvalidator clusterInvalidator,
+                            @Value("${avatar.reconcile.delete:false}") boolean delete,
+                            @Value("${avatar.reconcile.grace-minutes:60}") long graceMinutes,
+                            @Value("${avatar.reconcile.parallelism:4}") int parallelism,
+                            @Value("${avatar.reconcile.max-files-per-second:2000}") int maxFilesPerSecond) {
+        this.avatarStorage = avatarStorage;
+        this.avatarRepository = avatarRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.clusterInvalidator = clusterInvalidator;
+        this.delete = delete;
+        this.grace = Duration.ofMinutes(graceMinutes);
+        this.parallelism = Math.max(1, parallelism);
+        this.throttle = new Throttle(maxFilesPerSecond);
+        logger.info("AvatarReconciler initialized in {} mode, grace {}, parallelism {}, {} files/s",
+                delete ? "delete" : "report", grace, this.parallelism, maxFilesPerSecond);
+    }
+
+    /**
+     * Найденное при сверке. Списки содержат лишь первые {@value #SAMPLE_SIZE} элементов для лога.
+     */
+    public record Report(Instant startedAt, Duration took, long filesScanned, long rowsScanned,
+                         long orphanFiles, long orphanBytes, long danglingRows,
+                         long deletedFiles, long deletedRows,
+                         List<String> orphanSample, List<Long> danglingSample) {
+    }
+
+    record ScannedFile(String key, long size, Instant lastModified) {
+    }
+
+    record JoinResult(List<ScannedFile> orphans, List<AvatarFileRef> dangling) {
+    }
+
+    @Scheduled(initialDelayString = "${avatar.reconcile.initial-delay-ms:600000}",
+            fixedDelayString = "${avatar.reconcile.interval-ms:86400000}")
+    public void scheduledReconcile() {
+        try {
+            reconcile();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Avatar reconciliation failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    public Report reconcile() throws IOException, InterruptedException {
+        if (!(avatarStorage instanceof FileSystemAvatarStorage storage)) {
+            logger.debug("Avatar storage {} is not a plain directory, skipping reconciliation",
+                    avatarStorage.getClass().getSimpleName());
+            return null;
+        }
+        Instant startedAt = Instant.now();
+        logger.info("Starting avatar reconciliation of {}", storage.getRoot());
+
+        // Сначала файлы, потом записи: новые записи получают большие ID и читаются последними,
+        // а запись, сменившую ключ на уже просмотренной странице, перед удалением файла
+        // ловит повторная проверка в deleteOrphans
+        List<ScannedFile> files = scan(storage.getRoot(), storage);
+        Join join = new Join(files);
+        long rows = matchRows(storage, join);
+        JoinResult result = join.result(startedAt.minus(grace));
+
+        long deletedFiles = delete ? deleteOrphans(storage, result.orphans()) : 0;
+        long deletedRows = delete ? deleteDangling(storage, result.dangling()) : 0;
+
+        Report report = new Report(startedAt, Duration.between(startedAt, Instant.now()), files.size(), rows,
+                result.orphans().size(), result.orphans().stream().mapToLong(ScannedFile::size).sum(),
+                result.dangling().size(), deletedFiles, deletedRows,
+                result.orphans().stream().limit(SAMPLE_SIZE).map(ScannedFile::key).toList(),
+                result.dangling().stream().limit(SAMPLE_SIZE).map(AvatarFileRef::id).toList());
+        lastReport = report;
+        logger.info("Avatar reconciliation finished in {}: {} files, {} rows, {} orphan files ({} bytes), "
+                        + "{} dangling rows, deleted {} files and {} rows. Orphans: {}, dangling avatar IDs: {}",
+                report.took(), report.filesScanned(), report.rowsScanned(), report.orphanFiles(),
+                report.orphanBytes(), report.danglingRows(), deletedFiles, deletedRows,
+                report.orphanSample(), report.danglingSample());
+        return report;
+    }
+
+    /**
+     * Сопоставление записей с отсортированным по ключу списком файлов. Запись висячая, если её файла нет;
+     * файл сирота, если на него не сослалась ни одна запись и он старше {@code freshAfter}.
+     * При дедупликации на один файл ссылаются несколько записей.
+     */
+    static final class Join {
+        private final List<ScannedFile> files;
+        private final BitSet referenced;
+        private final List<AvatarFileRef> dangling = new ArrayList<>();
+
+        Join(List<ScannedFile> files) {
+            this.files = files;
+            this.referenced = new BitSet(files.size());
+        }
+
+        void accept(String key, AvatarFileRef ref) {
+            int index = Collections.binarySearch(files, new ScannedFile(key, 0, null),
+                    Comparator.comparing(ScannedFile::key));
+            if (index >= 0) {
+                referenced.set(index);
+            } else {
+                dangling.add(ref);
+            }
+        }
+
+        JoinResult result(Instant freshAfter) {
+            List<ScannedFile> orphans = new ArrayList<>();
+            for (int i = referenced.nextClearBit(0); i < files.size(); i = referenced.nextClearBit(i + 1)) {
+                ScannedFile file = files.get(i);
+                if (file.lastModified().isBefore(freshAfter)) {
+                    orphans.add(file);
+                }
+            }
+            return new JoinResult(orphans, dangling);
+        }
+    }
+
+    private long matchRows(FileSystemAvatarStorage storage, Join join) {
+        long rows = 0;
+        long afterId = 0;
+        List<AvatarFileRef> page;
+        do {
+            page = avatarRepository.findFileRefsAfter(afterId, Limit.of(PAGE_SIZE));
+            for (AvatarFileRef ref : page) {
+                String key = storage.normalizeKey(ref.storageKey());
+                // Ключи вне корня хранилища этой сверкой не проверяются
+                if (key != null) {
+                    join.accept(key, ref);
+                    rows++;
+                }
+            }
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).id();
+            }
+        } while (page.size() == PAGE_SIZE);
+        return rows;
+    }
+
+    private List<ScannedFile> scan(Path root, FileSystemAvatarStorage storage) throws IOException, InterruptedException {
+        ConcurrentLinkedQueue<ScannedFile> files = new ConcurrentLinkedQueue<>();
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        Semaphore walkers = new Semaphore(parallelism);
+        List<Future<?>> walks = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             DirectoryStream<Path> children = Files.newDirectoryStream(root)) {
+            for (Path child : children) {
+                if (child.getFileName().toString().equals(SEGMENTS_DIR)) {
+                    continue;
+                }
+                walks.add(executor.submit(() -> {
+                    walkers.acquire();
+                    try {
+                        walk(child, storage, files);
+                    } finally {
+                        walkers.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> walk : walks) {
+                walk.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        List<ScannedFile> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(ScannedFile::key));
+        return sorted;
+    }
+
+    private void walk(Path start, FileSystemAvatarStorage storage, ConcurrentLinkedQueue<ScannedFile> files)
+            throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                throttle.acquire();
+                if (attributes.isRegularFile()) {
+                    files.add(new ScannedFile(storage.keyOf(file), attributes.size(),
+                            attributes.lastModifiedTime().toInstant()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Файл мог быть удалён между чтением каталога и чтением атрибутов
+                logger.debug("Skipping unreadable avatar file {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private long deleteOrphans(FileSystemAvatarStorage storage, List<ScannedFile> orphans) {
+        long deleted = 0;
+        for (ScannedFile orphan : orphans) {
+            throttle.acquire();
+            // Запись могла появиться после чтения таблицы
+            if (!orphan.key().startsWith(TEMP_DIR + "/") && avatarRepository.countByStorageKey(orphan.key()) > 0) {
+                continue;
+            }
+            // Файл могли перезаписать после обхода: новая загрузка под тем же ключом ещё без записи
+            if (modifiedAfter(storage, orphan.key(), Instant.now().minus(grace))) {
+                continue;
+            }
+            try {
+                storage.delete(orphan.key());
+                deleted++;
+            } catch (IOException e) {
+                logger.warn("Failed to delete orphan avatar file {}", orphan.key(), e);
+            }
+        }
+        return deleted;
+    }
+
+    private static boolean modifiedAfter(FileSystemAvatarStorage storage, String key, Instant freshAfter) {
+        try {
+            return !Files.getLastModifiedTime(storage.path(key).orElseThrow()).toInstant().isBefore(freshAfter);
+        } catch (IOException e) {
+            // Файла уже нет или он недоступен - удалять нечего
+            return true;
+        }
+    }
+
+    private long deleteDangling(FileSystemAvatarStorage storage, List<AvatarFileRef> dangling) {
+        long deleted = 0;
+        for (AvatarFileRef ref : dangling) {
+            throttle.acquire();
+            if (storage.exists(ref.storageKey())) {
+                continue;
+            }
+            Integer rows = transactionTemplate.execute(status -> {
+                int count = avatarRepository.deleteByIdAndStorageKey(ref.id(), ref.storageKey());
+                if (count > 0) {
+                    clusterInvalidator.avatarChanged(ref.studentId());
+                }
+                return count;
+            });
+            deleted += rows == null ? 0 : rows;
+        }
+        return deleted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("avatar.reconcile.orphan.files", this, r -> r.lastValue(Report::orphanFiles))
+                .register(registry);
+        Gauge.builder("avatar.reconcile.orphan.bytes", this, r -> r.lastValue(Report::orphanBytes))
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("avatar.reconcile.dangling.rows", this, r -> r.lastValue(Report::danglingRows))
+                .register(registry);
+    }
+
+    private double lastValue(ToLongFunction<Report> value) {
+        Report report = lastReport;
+        return report == null ? Double.NaN : value.applyAsLong(report);
+    }
+
+    /**
+     * Равномерное ограничение частоты: каждый вызов занимает следующий интервал и ждёт его.
+     * В виртуальном потоке ожидание не занимает поток-носитель.
+     */
+    private static final class Throttle {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        Throttle(int permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        }
+
+        void acquire() {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                next = Math.max(next, now) + intervalNanos;
+                wait = next - intervalNanos - now;
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
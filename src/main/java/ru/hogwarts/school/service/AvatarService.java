@@ -4,38 +4,66 @@ import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cluster.ClusterInvalidator;
+import ru.hogwarts.school.dto.AvatarPreview;
+import ru.hogwarts.school.dto.StudentAvatarPreview;
 import ru.hogwarts.school.model.Avatar;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.profiling.AvatarUploadPhaseEvent;
 import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarStorage;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.*;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import java.util.Optional;
 
 @Service
 @Transactional
 public class AvatarService {
     private static final Logger logger = LoggerFactory.getLogger(AvatarService.class);
 
-    @Value("${avatar.cover.dir.path}")
-    private String avatarDir;
-
     private final StudentService studentService;
     private final AvatarRepository avatarRepository;
-
-    public AvatarService(StudentService studentService, AvatarRepository avatarRepository) {
+    private final AvatarStorage avatarStorage;
+    private final AvatarPreviewCache previewCache;
+    private final ImagePreviewGenerator previewGenerator;
+    private final ChangeOutbox changeOutbox;
+    private final ClusterInvalidator clusterInvalidator;
+    private final AvatarFileCleaner avatarFileCleaner;
+    private final int maxBatchSize;
+
+    public AvatarService(StudentService studentService, AvatarRepository avatarRepository,
+                         AvatarStorage avatarStorage, AvatarPreviewCache previewCache,
+                         ImagePreviewGenerator previewGenerator,
+                         ChangeOutbox changeOutbox, ClusterInvalidator clusterInvalidator,
+                         AvatarFileCleaner avatarFileCleaner,
+                         @Value("${avatar.preview.batch.max-size:200}") int maxBatchSize) {
         this.studentService = studentService;
         this.avatarRepository = avatarRepository;
+        this.avatarStorage = avatarStorage;
+        this.previewCache = previewCache;
+        this.previewGenerator = previewGenerator;
+        this.changeOutbox = changeOutbox;
+        this.clusterInvalidator = clusterInvalidator;
+        this.avatarFileCleaner = avatarFileCleaner;
+        this.maxBatchSize = maxBatchSize;
         logger.info("AvatarService initialized");
     }
 
@@ -47,37 +75,33 @@ public class AvatarService {
     }
 
     public void uploadAvatar(Long studentId, MultipartFile file) throws IOException {
-        logger.info("Starting avatar upload for student ID: {}", studentId);
-
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("Файл не может быть пустым");
         }
+        String extension = getExtension(Objects.requireNonNull(file.getOriginalFilename()));
+        uploadAvatar(studentId, file, file.getContentType(), extension, file.getSize());
+    }
 
-        if (!Objects.requireNonNull(file.getContentType()).startsWith("image/")) {
+    public void uploadAvatar(Long studentId, InputStreamSource content, String contentType,
+                             String extension, long size) throws IOException {
+        logger.info("Starting avatar upload for student ID: {}", studentId);
+
+        if (!Objects.requireNonNull(contentType).startsWith("image/")) {
             throw new IllegalArgumentException("Файл должен быть изображением");
         }
 
         Student student = studentService.getStudentById(studentId)
                 .orElseThrow(() -> {
                     logger.error("Student not found with ID: {}", studentId);
-                    return new RuntimeException("Студент не найден");
+                    return new NoSuchElementException("Студент не найден");
                 });
 
-
-        String extension = getExtension(Objects.requireNonNull(file.getOriginalFilename()));
-        Path filePath = Path.of(avatarDir, studentId + "." + extension);
-        logger.debug("Preparing to save avatar to: {}", filePath);
-
-        Files.createDirectories(filePath.getParent());
-        Files.deleteIfExists(filePath);
-
-
-        try (InputStream is = file.getInputStream();
-             OutputStream os = Files.newOutputStream(filePath, CREATE_NEW);
-             BufferedInputStream bis = new BufferedInputStream(is);
-             BufferedOutputStream bos = new BufferedOutputStream(os)) {
-            bis.transferTo(bos);
-            logger.debug("Avatar file saved successfully");
+        String key;
+        AvatarUploadPhaseEvent writeEvent = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.WRITE, studentId);
+        try (InputStream is = content.getInputStream()) {
+            key = avatarStorage.save(studentId, extension, is);
+            writeEvent.finish(size);
+            logger.debug("Avatar file saved successfully as {}", key);
         } catch (IOException e) {
             logger.error("Failed to save avatar file", e);
             throw e;
@@ -85,13 +109,14 @@ public class AvatarService {
 
         Avatar avatar = avatarRepository.findByStudentId(studentId).orElse(new Avatar());
         logger.debug("Found existing avatar: {}", avatar.getId() != null);
+        String previousKey = avatar.getStorageKey();
         avatar.setStudent(student);
-        avatar.setFilePath(filePath.toString());
-        avatar.setFileSize(file.getSize());
-        avatar.setMediaType(file.getContentType());
+        avatar.setStorageKey(key);
+        avatar.setFileSize(size);
+        avatar.setMediaType(contentType);
 
-        try {
-            byte[] previewData = generateImagePreview(filePath);
+        try (InputStream is = avatarStorage.open(key)) {
+            byte[] previewData = previewGenerator.generate(is);
             avatar.setData(previewData);
             logger.debug("Image preview generated successfully");
         } catch (IOException e) {
@@ -99,50 +124,111 @@ public class AvatarService {
             throw e;
         }
 
+        AvatarUploadPhaseEvent saveEvent = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.DB_SAVE, studentId);
         Avatar savedAvatar = avatarRepository.save(avatar);
+        saveEvent.finish(avatar.getData().length);
+        changeOutbox.recordAvatar(studentId, savedAvatar);
+        clusterInvalidator.avatarChanged(studentId);
+        if (previousKey != null && !previousKey.equals(key)) {
+            // Старый файл удаляется только после коммита, чтобы при откате запись не указывала на удалённые данные
+            avatarFileCleaner.deleteAfterCommit(List.of(previousKey));
+        }
         logger.info("Avatar uploaded successfully for student ID: {}. Avatar ID: {}", studentId, savedAvatar.getId());
     }
 
+    public boolean avatarDataExists(Avatar avatar) {
+        return avatar.getStorageKey() != null && avatarStorage.exists(avatar.getStorageKey());
+    }
 
-    public Avatar findAvatar(Long studentId) {
-        logger.debug("Looking for avatar by student ID: {}", studentId);
-        return avatarRepository.findByStudentId(studentId)
-                .orElseThrow(() -> {
-                    logger.error("Avatar not found for student ID: {}", studentId);
-                    return new RuntimeException("Аватар не найден");
-                });
+    public InputStream openAvatarData(Avatar avatar) throws IOException {
+        return avatarStorage.open(avatar.getStorageKey());
     }
 
-    private byte[] generateImagePreview(Path filePath) throws IOException {
-        logger.debug("Generating image preview for: {}", filePath);
-        try (InputStream is = Files.newInputStream(filePath);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+    public InputStream openAvatarRange(Avatar avatar, long offset, long length) throws IOException {
+        return avatarStorage.openRange(avatar.getStorageKey(), offset, length);
+    }
 
-            BufferedImage originalImage = ImageIO.read(is);
-            if (originalImage == null) {
-                logger.error("Failed to read image file: {}", filePath);
-                throw new IOException("Не удалось прочитать изображение");
-            }
+    /**
+     * Прямая ссылка на оригинал в хранилище, если оно умеет отдавать данные само.
+     */
+    public Optional<URI> getAvatarDownloadUrl(Avatar avatar) {
+        return avatarStorage.downloadUrl(avatar.getStorageKey());
+    }
 
-            int targetWidth = 100;
-            int targetHeight = (int) ((double) originalImage.getHeight() / originalImage.getWidth() * targetWidth);
-            logger.trace("Original dimensions: {}x{}, Preview dimensions: {}x{}",
-                    originalImage.getWidth(), originalImage.getHeight(), targetWidth, targetHeight);
+    public Optional<ByteBuffer> mapAvatarData(Avatar avatar) throws IOException {
+        return avatarStorage.map(avatar.getStorageKey());
+    }
 
+    public Optional<Path> getAvatarDataPath(Avatar avatar) {
+        return avatarStorage.path(avatar.getStorageKey());
+    }
 
-            BufferedImage preview = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
-            Graphics2D graphics = preview.createGraphics();
-            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            graphics.drawImage(originalImage, 0, 0, targetWidth, targetHeight, null);
-            graphics.dispose();
+    /**
+     * Превью отдаётся из кеша без транзакции и без обращения к БД.
+     * При промахе загружаются только байты превью и тип, без студента и факультета.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public Optional<AvatarPreview> findPreview(Long studentId) {
+        return previewCache.get(studentId, () -> {
+            logger.debug("Preview cache miss for student ID: {}", studentId);
+            return avatarRepository.findPreviewByStudentId(studentId);
+        });
+    }
 
-            if (!ImageIO.write(preview, "jpg", baos)) {
-                logger.error("Failed to generate preview image in JPG format");
-                throw new IOException("Не удалось сгенерировать превью");
+    /**
+     * Превью для списка студентов: всё, что есть в кеше, берётся оттуда,
+     * остальное загружается одним запросом {@code IN (...)}.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public Map<Long, AvatarPreview> findPreviews(Collection<Long> studentIds) {
+        if (studentIds.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Too many students requested: " + studentIds.size()
+                    + " (max " + maxBatchSize + ")");
+        }
+        return previewCache.getAll(studentIds, missing -> {
+            logger.debug("Loading {} previews from database", missing.size());
+            Map<Long, AvatarPreview> loaded = new HashMap<>();
+            for (StudentAvatarPreview row : avatarRepository.findPreviewsByStudentIdIn(missing)) {
+                if (row.data() != null) {
+                    loaded.put(row.studentId(), row.toPreview());
+                }
             }
-            return baos.toByteArray();
+            return loaded;
+        });
+    }
+
+    /**
+     * Превью факультета страницами по возрастанию ID студента: одна страница - один запрос
+     * с соединением по {@code faculty_id}. Следующая страница запрашивается с последним полученным ID.
+     * Загруженное кладётся в кеш для последующих запросов по отдельным студентам.
+     *
+     * @param limit размер страницы, {@code null} - наибольший допустимый
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public Map<Long, AvatarPreview> findFacultyPreviews(Long facultyId, long afterStudentId, Integer limit) {
+        int pageSize = limit == null ? maxBatchSize : limit;
+        if (pageSize < 1 || pageSize > maxBatchSize) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxBatchSize + ": " + pageSize);
         }
+        Map<Long, AvatarPreview> previews = previewCache.loadAll(() -> {
+            Map<Long, AvatarPreview> loaded = new LinkedHashMap<>();
+            for (StudentAvatarPreview row : avatarRepository.findPreviewsByFacultyId(
+                    facultyId, afterStudentId, Limit.of(pageSize))) {
+                loaded.put(row.studentId(), row.toPreview());
+            }
+            return loaded;
+        });
+        logger.debug("Loaded {} previews of faculty {} after student {}", previews.size(), facultyId, afterStudentId);
+        return previews;
+    }
 
+    public Avatar findAvatar(Long studentId) {
+        logger.debug("Looking for avatar by student ID: {}", studentId);
+        return avatarRepository.findByStudentId(studentId)
+                .orElseThrow(() -> {
+                    logger.error("Avatar not found for student ID: {}", studentId);
+                    return new NoSuchElementException("Аватар не найден");
+                });
     }
 
     private String getExtension(String fileName) {
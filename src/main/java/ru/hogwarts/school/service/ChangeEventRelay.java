@@ -0,0 +1,86 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+import ru.hogwarts.school.web.ChangeEventBroker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Ретранслятор outbox: назначает закоммиченным событиям возрастающие номера пачками
+ * и будит ожидающих потребителей. Номер назначается после коммита, а не при вставке,
+ * поэтому транзакция, закоммиченная позже, никогда не получит номер меньше уже выданного -
+ * потребитель, читающий "после N", ничего не пропустит.
+ * Номера назначает только узел, получивший advisory lock; остальные лишь замечают новые события.
+ */
+@Component
+public class ChangeEventRelay {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeEventRelay.class);
+
+    private static final long RELAY_LOCK_KEY = 0x6F7574626F78L;
+
+    private final ChangeEventRepository changeEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ChangeEventBroker broker;
+    private final int batchSize;
+    private final Duration retention;
+
+    public ChangeEventRelay(ChangeEventRepository changeEventRepository,
+                            TransactionTemplate transactionTemplate,
+                            ChangeEventBroker broker,
+                            @Value("${outbox.relay.batch-size:500}") int batchSize,
+                            @Value("${outbox.retention-hours:168}") long retentionHours) {
+        this.changeEventRepository = changeEventRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.broker = broker;
+        this.batchSize = batchSize;
+        this.retention = Duration.ofHours(retentionHours);
+        logger.info("ChangeEventRelay initialized with batch size {} and retention {}", batchSize, retention);
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.relay.interval-ms:500}")
+    public void relay() {
+        try {
+            Integer published;
+            do {
+                published = transactionTemplate.execute(status -> publishBatch());
+            } while (published != null && published == batchSize);
+            broker.onPublished(changeEventRepository.findMaxSequence());
+        } catch (RuntimeException e) {
+            logger.error("Change event relay failed", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.retention.cleanup-interval-ms:3600000}")
+    public void purge() {
+        Instant before = Instant.now().minus(retention);
+        Integer deleted = transactionTemplate.execute(status -> changeEventRepository.deletePublishedBefore(before));
+        logger.info("Purged {} change events older than {}", deleted, before);
+    }
+
+    private int publishBatch() {
+        if (!changeEventRepository.tryRelayLock(RELAY_LOCK_KEY)) {
+            logger.trace("Change event relay lock is held by another node");
+            return 0;
+        }
+        List<ChangeEvent> batch = changeEventRepository.findUnpublished(batchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<Long> sequences = changeEventRepository.nextSequences(batch.size()).stream().sorted().toList();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setSequence(sequences.get(i));
+        }
+        logger.debug("Assigned sequences {}..{} to {} change events",
+                sequences.get(0), sequences.get(sequences.size() - 1), batch.size());
+        return batch.size();
+    }
+}
@@ -0,0 +1,92 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Запись событий изменений в outbox. Вызывается только внутри транзакции изменения,
+ * поэтому событие появляется тогда и только тогда, когда изменение закоммичено.
+ * Для {@link Operation#UPDATED} после PATCH в payload попадают только изменённые поля.
+ */
+@Component
+public class ChangeOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeOutbox.class);
+
+    private final ChangeEventRepository changeEventRepository;
+    private final ObjectMapper objectMapper;
+
+    public ChangeOutbox(ChangeEventRepository changeEventRepository, ObjectMapper objectMapper) {
+        this.changeEventRepository = changeEventRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordStudent(Student student, Operation operation) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("id", student.getId());
+        payload.put("name", student.getName());
+        payload.put("age", student.getAge());
+        payload.put("facultyId", student.getFaculty() == null ? null : student.getFaculty().getId());
+        record(Aggregate.STUDENT, student.getId(), operation, payload);
+    }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordFaculty(Faculty faculty, Operation operation) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("id", faculty.getId());
+        payload.put("name", faculty.getName());
+        payload.put("color", faculty.getColor());
+        record(Aggregate.FACULTY, faculty.getId(), operation, payload);
+    }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordAvatar(Long studentId, Avatar avatar) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("studentId", studentId);
+        payload.put("mediaType", avatar.getMediaType());
+        payload.put("fileSize", avatar.getFileSize());
+        record(Aggregate.AVATAR, studentId, Operation.UPDATED, payload);
+    }
+
+    /**
+     * Частичное изменение: связанные сущности заменяются на их идентификаторы ({@code faculty -> facultyId}).
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordPatch(Aggregate aggregate, Long id, Map<String, Object> changes) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("id", id);
+        changes.forEach((field, value) -> {
+            if (field.equals("faculty")) {
+                payload.put("facultyId", value == null ? null : ((Faculty) value).getId());
+            } else {
+                payload.put(field, value);
+            }
+        });
+        record(aggregate, id, Operation.UPDATED, payload);
+    }
+
+    private void record(Aggregate aggregate, Long id, Operation operation, Map<String, Object> payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize change event payload", e);
+        }
+        ChangeEvent event = changeEventRepository.save(new ChangeEvent(aggregate, id, operation, json));
+        logger.debug("Recorded change event {}", event);
+    }
+}
@@ -0,0 +1,277 @@
+package ru.hogwarts.school.service;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Потоковый формат выгрузки данных школы: один gzip-поток из последовательности секций.
+ * Секция - заголовок (вид, имя, формат COPY или ID студента) и тело порциями {@code длина + байты},
+ * которое завершается порцией нулевой длины. Размер тела заранее не нужен, поэтому вывод {@code COPY}
+ * и файлы аватаров пишутся в архив сразу, без временных файлов, и так же читаются при загрузке.
+ */
+public final class DatasetArchive {
+    static final String MAGIC = "HOGWARTS-DATASET";
+    static final int VERSION = 1;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte TABLE = 'T';
+    private static final byte FILE = 'F';
+    private static final byte END = 'E';
+
+    private DatasetArchive() {
+    }
+
+    public enum Kind {
+        TABLE, FILE
+    }
+
+    /**
+     * @param attribute для таблицы - формат COPY ({@code csv} или {@code binary}), для файла - пусто
+     * @param studentId для файла - ID студента, которому принадлежит аватар
+     * @param body      тело секции; читать нужно до перехода к следующей секции
+     */
+    public record Section(Kind kind, String name, String attribute, long studentId, InputStream body) {
+    }
+
+    public static final class Writer implements Closeable {
+        private final GZIPOutputStream gzip;
+        private final DataOutputStream out;
+        private ChunkedOutputStream current;
+        private boolean finished;
+
+        public Writer(OutputStream target) throws IOException {
+            this.gzip = new GZIPOutputStream(target, CHUNK_SIZE);
+            this.out = new DataOutputStream(gzip);
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /**
+         * Начинает секцию таблицы. Поток нужно закрыть до начала следующей секции.
+         */
+        public OutputStream table(String name, String format) throws IOException {
+            return begin(TABLE, name, format, 0);
+        }
+
+        public OutputStream file(String key, long studentId) throws IOException {
+            return begin(FILE, key, "", studentId);
+        }
+
+        private OutputStream begin(byte kind, String name, String attribute, long studentId) throws IOException {
+            if (current != null && !current.closed) {
+                throw new IllegalStateException("Previous section is not closed");
+            }
+            out.writeByte(kind);
+            out.writeUTF(name);
+            out.writeUTF(attribute);
+            out.writeLong(studentId);
+            current = new ChunkedOutputStream(out);
+            return current;
+        }
+
+        /**
+         * Дописывает конец архива. Целевой поток не закрывается - им владеет вызывающий.
+         */
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (current != null && !current.closed) {
+                throw new IllegalStateException("Last section is not closed");
+            }
+            out.writeByte(END);
+            out.flush();
+            gzip.finish();
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+
+    public static final class Reader {
+        private final DataInputStream in;
+        private ChunkedInputStream current;
+
+        /**
+         * @throws IllegalArgumentException если поток не является архивом поддерживаемой версии
+         */
+        public Reader(InputStream source) throws IOException {
+            try {
+                this.in = new DataInputStream(new GZIPInputStream(source, CHUNK_SIZE));
+                if (!MAGIC.equals(in.readUTF())) {
+                    throw new IllegalArgumentException("Not a dataset archive");
+                }
+            } catch (java.util.zip.ZipException | EOFException e) {
+                throw new IllegalArgumentException("Not a dataset archive", e);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported dataset archive version: " + version);
+            }
+        }
+
+        /**
+         * Следующая секция или {@code null} в конце архива. Непрочитанный остаток предыдущей секции пропускается.
+         */
+        public Section next() throws IOException {
+            if (current != null) {
+                current.close();
+            }
+            byte kind;
+            try {
+                kind = in.readByte();
+            } catch (EOFException e) {
+                throw new IllegalArgumentException("Dataset archive is truncated", e);
+            }
+            if (kind == END) {
+                current = null;
+                return null;
+            }
+            if (kind != TABLE && kind != FILE) {
+                throw new IllegalArgumentException("Corrupted dataset archive: unknown section " + kind);
+            }
+            String name = in.readUTF();
+            String attribute = in.readUTF();
+            long studentId = in.readLong();
+            current = new ChunkedInputStream(in);
+            return new Section(kind == TABLE ? Kind.TABLE : Kind.FILE, name, attribute, studentId, current);
+        }
+    }
+
+    private static final class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean closed;
+
+        private ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ensureOpen();
+            while (length > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            ensureOpen();
+            if (count > 0) {
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Section is closed");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            flushChunk();
+            out.writeInt(0);
+            closed = true;
+        }
+    }
+
+    private static final class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean eof;
+
+        private ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (remaining == 0) {
+                try {
+                    remaining = in.readInt();
+                } catch (EOFException e) {
+                    throw new IllegalArgumentException("Dataset archive is truncated", e);
+                }
+                if (remaining < 0 || remaining > CHUNK_SIZE) {
+                    throw new IllegalArgumentException("Corrupted dataset archive: chunk of " + remaining + " bytes");
+                }
+                if (remaining == 0) {
+                    eof = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = in.read(bytes, offset, Math.min(length, remaining));
+            if (n < 0) {
+                throw new IllegalArgumentException("Dataset archive is truncated");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * Пропускает остаток секции, чтобы следующий заголовок читался с правильного места.
+         */
+        @Override
+        public void close() throws IOException {
+            while (fill()) {
+                in.skipNBytes(remaining);
+                remaining = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package ru.hogwarts.school.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.cluster.ClusterInvalidator;
+import ru.hogwarts.school.dto.DatasetSummary;
+import ru.hogwarts.school.storage.AvatarStorage;
+import ru.hogwarts.school.storage.StagedAvatar;
+
+import javax.sql.DataSource;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Выгрузка и загрузка данных школы через протокол {@code COPY} в формате {@link DatasetArchive}.
+ * <p>
+ * Таблицы идут в порядке внешних ключей: faculty, students, avatars. Выгрузка читает их в одном снимке
+ * ({@code REPEATABLE READ}), загрузка выполняется одной транзакцией. Перед загрузкой в режиме замены
+ * индексы, не обслуживающие ограничения, удаляются и строятся заново после неё одним проходом.
+ * Построчные проверки-триггеры {@code name_unique} и {@code fk_avatars_student} на время загрузки
+ * выключаются и заменяются одной проверкой всего набора; {@code age_check} и ключи проверяет сам COPY.
+ * Уникальность id студентов после секционирования не обеспечивает ни один ключ, её проверяет отдельный запрос.
+ * <p>
+ * Файлы аватаров до коммита только подготавливаются ({@link AvatarStorage#stage}) и не затрагивают
+ * существующие ключи; публикуются они после коммита, а при откате удаляются лишь подготовленные копии.
+ * Аватары загружаются через временную таблицу: ключи из архива заменяются ключами подготовленных файлов,
+ * а ключи без файлов проверяются хранилищем ({@link AvatarStorage#normalizeKey}), и только затем строки
+ * вставляются в {@code avatars}, так что существующие записи не затрагиваются.
+ */
+@Service
+public class DatasetTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(DatasetTransfer.class);
+
+    private static final int KEY_BATCH_SIZE = 500;
+
+    public enum Format {
+        CSV, BINARY;
+
+        public static Format of(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown dataset format: " + value + ", expected csv or binary");
+            }
+        }
+
+        private String copyOptions() {
+            return this == CSV ? "FORMAT csv, HEADER" : "FORMAT binary";
+        }
+    }
+
+    private record TableSpec(String name, String columns) {
+    }
+
+    private static final List<TableSpec> TABLES = List.of(
+            new TableSpec("faculty", "id, name, color, version"),
+            new TableSpec("students", "id, name, age, faculty_id, version"),
+            new TableSpec("avatars", "id, storage_key, file_size, media_type, data, student_id"));
+
+    /**
+     * Триггер, заменяющий ограничение, и запрос, находящий нарушения во всей таблице сразу.
+     * Проверка без триггера ({@code trigger == null}) выполняется при каждой загрузке.
+     */
+    private record DeferredCheck(String table, String trigger, String violations, String message) {
+    }
+
+    private static final List<DeferredCheck> DEFERRED_CHECKS = List.of(
+            new DeferredCheck("students", "name_unique",
+                    "SELECT name FROM students WHERE name IS NOT NULL GROUP BY name HAVING count(*) > 1 LIMIT 5",
+                    "Duplicate student names violate name_unique: "),
+            // Первичный ключ секционированной таблицы включает ключ секционирования и повторы id пропускает
+            new DeferredCheck("students", null,
+                    "SELECT id FROM students GROUP BY id HAVING count(*) > 1 LIMIT 5",
+                    "Duplicate student ids: "),
+            new DeferredCheck("avatars", "fk_avatars_student",
+                    "SELECT a.student_id FROM avatars a WHERE a.student_id IS NOT NULL "
+                            + "AND NOT EXISTS (SELECT 1 FROM students s WHERE s.id = a.student_id) LIMIT 5",
+                    "Avatars reference missing students: "));
+
+    private final DataSource dataSource;
+    private final AvatarStorage avatarStorage;
+    private final ClusterInvalidator clusterInvalidator;
+    private final String maintenanceWorkMem;
+
+    public DatasetTransfer(DataSource dataSource,
+                           AvatarStorage avatarStorage,
+                           ClusterInvalidator clusterInvalidator,
+                           @Value("${dataset.import.maintenance-work-mem:256MB}") String maintenanceWorkMem) {
+        this.dataSource = dataSource;
+        this.avatarStorage = avatarStorage;
+        this.clusterInvalidator = clusterInvalidator;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    /**
+     * Пишет архив в {@code target}. Поток не закрывается.
+     *
+     * @param includeFiles добавить в архив содержимое аватаров из хранилища
+     */
+    public DatasetSummary export(OutputStream target, Format format, boolean includeFiles) throws IOException {
+        long started = System.nanoTime();
+        Map<String, Long> rows = new LinkedHashMap<>();
+        long files = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setReadOnly(true);
+            try {
+                CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+                DatasetArchive.Writer writer = new DatasetArchive.Writer(target);
+                for (TableSpec table : TABLES) {
+                    try (OutputStream section = writer.table(table.name(), format.name().toLowerCase(Locale.ROOT))) {
+                        // COPY (SELECT ...), а не COPY table: секционированную таблицу напрямую выгрузить нельзя
+                        rows.put(table.name(), copy.copyOut("COPY (SELECT " + table.columns() + " FROM " + table.name()
+                                + " ORDER BY id) TO STDOUT WITH (" + format.copyOptions() + ")", section));
+                    }
+                }
+                if (includeFiles) {
+                    files = exportFiles(connection, writer);
+                }
+                writer.finish();
+            } finally {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Dataset export failed: " + e.getMessage(), e);
+        }
+        DatasetSummary summary = new DatasetSummary(rows, files, elapsedMs(started));
+        logger.info("Exported dataset as {}: {}", format, summary);
+        return summary;
+    }
+
+    private long exportFiles(Connection connection, DatasetArchive.Writer writer) throws SQLException, IOException {
+        long files = 0;
+        try (Statement statement = connection.createStatement()) {
+            // Курсор вместо загрузки всех ключей в память
+            statement.setFetchSize(1000);
+            try (ResultSet resultSet = statement.executeQuery(
+                    "SELECT student_id, storage_key FROM avatars WHERE storage_key IS NOT NULL ORDER BY id")) {
+                while (resultSet.next()) {
+                    long studentId = resultSet.getLong(1);
+                    String key = resultSet.getString(2);
+                    InputStream content;
+                    try {
+                        content = avatarStorage.open(key);
+                    } catch (NoSuchFileException e) {
+                        logger.warn("Avatar file {} of student {} is missing, exporting metadata only", key, studentId);
+                        continue;
+                    }
+                    try (content; OutputStream section = writer.file(key, studentId)) {
+                        content.transferTo(section);
+                    }
+                    files++;
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Загружает архив одной транзакцией: при любой ошибке данные откатываются, а подготовленные файлы удаляются.
+     * После коммита файлы публикуются под ключами, уже записанными в таблицу.
+     *
+     * @param replace очистить таблицы перед загрузкой; иначе строки добавляются к существующим
+     * @throws IllegalArgumentException если архив повреждён или данные нарушают ограничения
+     */
+    public DatasetSummary importDataset(InputStream source, boolean replace) throws IOException {
+        long started = System.nanoTime();
+        Map<String, Long> rows = new LinkedHashMap<>();
+        List<StagedAvatar> staged = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            long files;
+            try {
+                files = load(connection, source, replace, rows, staged);
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                discard(staged);
+                throw e;
+            }
+            publish(staged);
+            DatasetSummary summary = new DatasetSummary(rows, files, elapsedMs(started));
+            logger.info("Imported dataset (replace={}): {}", replace, summary);
+            clusterInvalidator.everythingChanged();
+            return summary;
+        } catch (SQLException e) {
+            // Класс 22 - некорректные значения, 23 - нарушение ограничений: это ошибка во входных данных
+            String state = e.getSQLState();
+            if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            throw new IOException("Dataset import failed: " + e.getMessage(), e);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Dataset archive is truncated", e);
+        }
+    }
+
+    private long load(Connection connection, InputStream source, boolean replace, Map<String, Long> rows,
+                      List<StagedAvatar> staged) throws SQLException, IOException {
+        CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+        execute(connection, "SET LOCAL maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+        if (replace) {
+            execute(connection, "TRUNCATE avatars, students, faculty");
+        }
+        List<String> indexes = replace ? dropIndexes(connection) : List.of();
+        List<String> disabledTriggers = disableDeferredChecks(connection);
+        execute(connection, "CREATE TEMP TABLE dataset_keys (old_key TEXT, new_key TEXT) ON COMMIT DROP");
+        // Аватары сначала попадают в промежуточную таблицу: их ключи нужно проверить и заменить
+        // до вставки, не затрагивая уже существующие записи
+        execute(connection, "CREATE TEMP TABLE dataset_avatars (LIKE avatars) ON COMMIT DROP");
+
+        DatasetArchive.Reader reader = new DatasetArchive.Reader(source);
+        int lastTable = -1;
+        long files = 0;
+        try (PreparedStatement keys = connection.prepareStatement("INSERT INTO dataset_keys VALUES (?, ?)")) {
+            DatasetArchive.Section section;
+            while ((section = reader.next()) != null) {
+                if (section.kind() == DatasetArchive.Kind.FILE) {
+                    StagedAvatar file = avatarStorage.stage(section.studentId(), extension(section.name()),
+                            section.body());
+                    staged.add(file);
+                    keys.setString(1, section.name());
+                    keys.setString(2, file.key());
+                    keys.addBatch();
+                    if (++files % KEY_BATCH_SIZE == 0) {
+                        keys.executeBatch();
+                    }
+                    continue;
+                }
+                int index = tableIndex(section.name());
+                if (index < lastTable) {
+                    throw new IllegalArgumentException("Table " + section.name() + " must come before "
+                            + TABLES.get(lastTable).name() + " in the archive");
+                }
+                lastTable = index;
+                TableSpec table = TABLES.get(index);
+                String target = table.name().equals("avatars") ? "dataset_avatars" : table.name();
+                Format format = Format.of(section.attribute());
+                rows.merge(table.name(), copy.copyIn("COPY " + target + " (" + table.columns()
+                        + ") FROM STDIN WITH (" + format.copyOptions() + ")", section.body()), Long::sum);
+            }
+            keys.executeBatch();
+        }
+        normalizeImportedKeys(connection);
+        // Хранилище само выбирает ключи, поэтому ключи из архива заменяются новыми
+        execute(connection, "INSERT INTO avatars (id, storage_key, file_size, media_type, data, student_id) "
+                + "SELECT d.id, COALESCE(k.new_key, d.storage_key), d.file_size, d.media_type, d.data, d.student_id "
+                + "FROM dataset_avatars d LEFT JOIN dataset_keys k ON k.old_key = d.storage_key");
+
+        checkDeferred(connection, disabledTriggers);
+        enableTriggers(connection, disabledTriggers);
+        for (String definition : indexes) {
+            execute(connection, definition);
+        }
+        for (TableSpec table : TABLES) {
+            execute(connection, "SELECT setval(pg_get_serial_sequence('" + table.name() + "', 'id'), "
+                    + "GREATEST(max(id), 1), max(id) IS NOT NULL) FROM " + table.name());
+            execute(connection, "ANALYZE " + table.name());
+        }
+        return files;
+    }
+
+    /**
+     * Проверяет ключи импортированных аватаров, для которых в архиве нет файла. Такой ключ должен
+     * указывать внутрь хранилища: архив мог собрать кто угодно, а ключ вроде {@code /etc/passwd}
+     * позволил бы читать и удалять произвольные файлы. Допустимые ключи приводятся к виду хранилища.
+     */
+    private void normalizeImportedKeys(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             PreparedStatement keys = connection.prepareStatement("INSERT INTO dataset_keys VALUES (?, ?)")) {
+            statement.setFetchSize(KEY_BATCH_SIZE);
+            int pending = 0;
+            try (ResultSet resultSet = statement.executeQuery("""
+                    SELECT DISTINCT d.storage_key FROM dataset_avatars d
+                    WHERE d.storage_key IS NOT NULL
+                      AND NOT EXISTS (SELECT 1 FROM dataset_keys k WHERE k.old_key = d.storage_key)
+                    """)) {
+                while (resultSet.next()) {
+                    String key = resultSet.getString(1);
+                    String normalized = avatarStorage.normalizeKey(key);
+                    if (normalized == null) {
+                        throw new IllegalArgumentException("Avatar storage key outside of storage: " + key);
+                    }
+                    if (normalized.equals(key)) {
+                        continue;
+                    }
+                    keys.setString(1, key);
+                    keys.setString(2, normalized);
+                    keys.addBatch();
+                    if (++pending % KEY_BATCH_SIZE == 0) {
+                        keys.executeBatch();
+                    }
+                }
+            }
+            keys.executeBatch();
+        }
+    }
+
+    /**
+     * Удаляет индексы, не обслуживающие ограничения, и возвращает команды для их создания.
+     * Индексы секционированной таблицы удаляются и создаются на родителе вместе с индексами секций.
+     */
+    private static List<String> dropIndexes(Connection connection) throws SQLException {
+        List<String> definitions = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid) FROM pg_index i
+                WHERE i.indrelid = ANY (ARRAY['faculty', 'students', 'avatars']::regclass[])
+                  AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)
+                """);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+                // Для секционированного индекса определение содержит ON ONLY, а нужен индекс и на секциях
+                definitions.add(resultSet.getString(2).replace(" ON ONLY ", " ON "));
+            }
+        }
+        for (String name : names) {
+            execute(connection, "DROP INDEX " + name);
+        }
+        logger.debug("Dropped indexes {} before load", names);
+        return definitions;
+    }
+
+    /**
+     * Выключает построчные триггеры-проверки, включая их копии на секциях, и возвращает команды включения.
+     */
+    private static List<String> disableDeferredChecks(Connection connection) throws SQLException {
+        List<String> enable = new ArrayList<>();
+        for (DeferredCheck check : DEFERRED_CHECKS) {
+            if (check.trigger() == null) {
+                continue;
+            }
+            try (PreparedStatement statement = connection.prepareStatement("""
+                    SELECT t.tgrelid::regclass::text FROM pg_trigger t
+                    WHERE t.tgname = ? AND t.tgenabled <> 'D' AND NOT t.tgisinternal
+                      AND t.tgrelid IN (SELECT relid FROM pg_partition_tree(?::regclass))
+                    """)) {
+                statement.setString(1, check.trigger());
+                statement.setString(2, check.table());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String relation = resultSet.getString(1);
+                        execute(connection, "ALTER TABLE " + relation + " DISABLE TRIGGER " + check.trigger());
+                        enable.add("ALTER TABLE " + relation + " ENABLE TRIGGER " + check.trigger());
+                    }
+                }
+            }
+        }
+        return enable;
+    }
+
+    private static void checkDeferred(Connection connection, List<String> disabledTriggers) throws SQLException {
+        for (DeferredCheck check : DEFERRED_CHECKS) {
+            boolean needed = check.trigger() == null
+                    || disabledTriggers.stream().anyMatch(command -> command.endsWith(" " + check.trigger()));
+            if (!needed) {
+                continue;
+            }
+            List<String> violations = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(check.violations())) {
+                while (resultSet.next()) {
+                    violations.add(resultSet.getString(1));
+                }
+            }
+            if (!violations.isEmpty()) {
+                throw new IllegalArgumentException(check.message() + violations);
+            }
+        }
+    }
+
+    private static void enableTriggers(Connection connection, List<String> commands) throws SQLException {
+        for (String command : commands) {
+            execute(connection, command);
+        }
+    }
+
+    /**
+     * Ошибка публикации уже не откатит коммит: запись останется без файла, её найдёт сверка аватаров.
+     */
+    private void publish(List<StagedAvatar> staged) {
+        for (StagedAvatar file : staged) {
+            try {
+                avatarStorage.publish(file);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to publish imported avatar file {}", file.key(), e);
+                discard(List.of(file));
+            }
+        }
+    }
+
+    private void discard(List<StagedAvatar> staged) {
+        for (StagedAvatar file : staged) {
+            try {
+                avatarStorage.discard(file);
+            } catch (IOException e) {
+                logger.warn("Failed to discard staged avatar file {} of rolled back import", file.stagingKey(), e);
+            }
+        }
+    }
+
+    private static int tableIndex(String name) {
+        for (int i = 0; i < TABLES.size(); i++) {
+            if (TABLES.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown table in dataset archive: " + name);
+    }
+
+    static String extension(String key) {
+        int slash = key.lastIndexOf('/');
+        int dot = key.lastIndexOf('.');
+        return dot > slash && dot < key.length() - 1 ? key.substring(dot + 1) : "bin";
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static long elapsedMs(long started) {
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+}
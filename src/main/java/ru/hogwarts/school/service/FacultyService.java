@@ -1,14 +1,29 @@
 package ru.hogwarts.school.service;
 
+import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import ru.hogwarts.school.cluster.ClusterInvalidator;
+import ru.hogwarts.school.dto.EntityVersion;
+import ru.hogwarts.school.dto.FieldSelection;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.BulkDeleteRepository;
 import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.PartialUpdateRepository;
+import ru.hogwarts.school.repository.ProjectionRepository;
+import ru.hogwarts.school.web.TableVersions.Table;
 
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 @Service
@@ -17,16 +32,37 @@ public class FacultyService {
     private static final Logger logger = LoggerFactory.getLogger(FacultyService.class);
 
     private final FacultyRepository facultyRepository;
+    private final PartialUpdateRepository partialUpdateRepository;
+    private final ChangeOutbox changeOutbox;
+    private final ClusterInvalidator clusterInvalidator;
+    private final StudentService studentService;
+    private final BulkDeleteRepository bulkDeleteRepository;
+    private final ProjectionRepository projectionRepository;
 
-    public FacultyService(FacultyRepository facultyRepository) {
+    public FacultyService(FacultyRepository facultyRepository,
+                          PartialUpdateRepository partialUpdateRepository,
+                          ChangeOutbox changeOutbox,
+                          ClusterInvalidator clusterInvalidator,
+                          StudentService studentService,
+                          BulkDeleteRepository bulkDeleteRepository,
+                          ProjectionRepository projectionRepository) {
 
         this.facultyRepository = facultyRepository;
+        this.partialUpdateRepository = partialUpdateRepository;
+        this.changeOutbox = changeOutbox;
+        this.clusterInvalidator = clusterInvalidator;
+        this.studentService = studentService;
+        this.bulkDeleteRepository = bulkDeleteRepository;
+        this.projectionRepository = projectionRepository;
         logger.info("FacultyService initialized");
     }
 
+    @Transactional
     public Faculty createFaculty(Faculty faculty) {
         logger.debug("Creating new faculty: {}", faculty);
         Faculty savedFaculty = facultyRepository.save(faculty);
+        changeOutbox.recordFaculty(savedFaculty, Operation.CREATED);
+        clusterInvalidator.tablesChanged(Table.FACULTY);
         logger.info("Faculty created successfully with ID: {}", savedFaculty.getId());
         return savedFaculty;
     }
@@ -42,18 +78,87 @@ public class FacultyService {
         return faculty;
     }
 
+    public Optional<EntityVersion> getFacultyVersion(long id) {
+        return facultyRepository.findVersionById(id).map(version -> new EntityVersion(version, null));
+    }
+
+    public Optional<Map<String, Object>> getFacultyById(long id, FieldSelection fields) {
+        logger.debug("Getting fields {} of faculty ID: {}", fields.fields(), id);
+        return projectionRepository.find(Faculty.class, fields,
+                        (root, query, cb) -> cb.equal(root.get("id"), id), Sort.unsorted(), 1)
+                .stream()
+                .findFirst();
+    }
+
+    @Transactional
     public Faculty updateFaculty(Faculty faculty) {
         logger.debug("Updating faculty with ID: {}", faculty.getId());
+        if (faculty.getId() != null && faculty.getVersion() == null) {
+            // Клиенты, не передающие версию, по-прежнему перезаписывают запись целиком
+            facultyRepository.findVersionById(faculty.getId()).ifPresent(faculty::setVersion);
+        }
         Faculty updatedFaculty = facultyRepository.save(faculty);
+        changeOutbox.recordFaculty(updatedFaculty, Operation.UPDATED);
+        clusterInvalidator.tablesChanged(Table.FACULTY);
         logger.info("Faculty updated successfully: {}", updatedFaculty.getId());
         return updatedFaculty;
     }
 
+    /**
+     * Применяет JSON Merge Patch к факультету одним UPDATE только по переданным полям.
+     *
+     * @param expectedVersion версия из {@code If-Match}; если не задана, используется поле {@code version} патча
+     * @return {@code false}, если факультета с таким ID нет
+     * @throws ObjectOptimisticLockingFailureException если запись уже изменена другим запросом
+     */
+    @Transactional
+    public boolean patchFaculty(long id, Map<String, Object> patch, Long expectedVersion) {
+        logger.debug("Patching faculty with ID: {}, fields: {}", id, patch.keySet());
+        Long version = expectedVersion;
+        Map<String, Object> changes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            String field = entry.getKey();
+            Object value = entry.getValue();
+            switch (field) {
+                case "id" -> MergePatches.requireSameId(id, value);
+                case "version" -> {
+                    if (version == null && value != null) {
+                        version = MergePatches.longValue(field, value);
+                    }
+                }
+                case "name", "color" -> changes.put(field, MergePatches.stringValue(field, value));
+                default -> throw new IllegalArgumentException("Поле нельзя изменить: " + field);
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return facultyRepository.existsById(id);
+        }
+        if (partialUpdateRepository.update(Faculty.class, id, version, changes) == 0) {
+            if (!facultyRepository.existsById(id)) {
+                logger.warn("Faculty not found for patch with ID: {}", id);
+                return false;
+            }
+            logger.warn("Version conflict while patching faculty {}: expected version {}", id, version);
+            throw new ObjectOptimisticLockingFailureException(Faculty.class, id);
+        }
+        changeOutbox.recordPatch(Aggregate.FACULTY, id, changes);
+        clusterInvalidator.tablesChanged(Table.FACULTY);
+        logger.info("Faculty patched successfully: {}", id);
+        return true;
+    }
+
+    @Transactional
     public void deleteFaculty(long id) {
         logger.info("Deleting faculty with ID: {}", id);
         try {
-            facultyRepository.deleteById(id);
-            logger.info("Faculty deleted successfully");
+            // Студенты удаляются отдельным запросом, чтобы их удаление попало в ленту изменений,
+            // а файлы их аватаров - в очередь на удаление
+            List<Long> students = studentService.deleteStudentsByFaculty(id);
+            if (bulkDeleteRepository.deleteFaculty(id)) {
+                clusterInvalidator.tablesChanged(Table.FACULTY);
+            }
+            logger.info("Faculty deleted successfully with {} students", students.size());
         } catch (Exception e) {
             logger.error("Failed to delete faculty with ID: {}", id, e);
             throw e;
@@ -67,6 +172,12 @@ public class FacultyService {
         return faculties;
     }
 
+    public List<Map<String, Object>> getFacultiesByColor(String color, FieldSelection fields) {
+        logger.debug("Getting fields {} of faculties by color: {}", fields.fields(), color);
+        return projectionRepository.find(Faculty.class, fields,
+                (root, query, cb) -> cb.equal(root.get("color"), color), Sort.unsorted(), 0);
+    }
+
     public List<Faculty> searchFaculties(String searchTerm) {
         logger.debug("Searching faculties by term: {}", searchTerm);
         List<Faculty> faculties = facultyRepository.findByNameIgnoreCaseOrColorIgnoreCase(searchTerm, searchTerm);
@@ -74,6 +185,14 @@ public class FacultyService {
         return faculties;
     }
 
+    public List<Map<String, Object>> searchFaculties(String searchTerm, FieldSelection fields) {
+        logger.debug("Searching fields {} of faculties by term: {}", fields.fields(), searchTerm);
+        String term = searchTerm.toLowerCase();
+        return projectionRepository.find(Faculty.class, fields, (root, query, cb) -> cb.or(
+                cb.equal(cb.lower(root.<String>get("name")), term),
+                cb.equal(cb.lower(root.<String>get("color")), term)), Sort.unsorted(), 0);
+    }
+
     public List<Student> getFacultyStudents(Long facultyId) {
         logger.debug("Getting students for faculty ID: {}", facultyId);
         return facultyRepository.findById(facultyId)
@@ -84,10 +203,20 @@ public class FacultyService {
                 })
                 .orElseThrow(() -> {
                     logger.error("Faculty not found with ID: {}", facultyId);
-                    return new RuntimeException("Faculty not found");
+                    return new NoSuchElementException("Faculty not found");
                 });
     }
 
+    public List<Map<String, Object>> getFacultyStudents(Long facultyId, FieldSelection fields) {
+        logger.debug("Getting fields {} of students for faculty ID: {}", fields.fields(), facultyId);
+        if (!facultyRepository.existsById(facultyId)) {
+            logger.error("Faculty not found with ID: {}", facultyId);
+            throw new NoSuchElementException("Faculty not found");
+        }
+        return projectionRepository.find(Student.class, fields,
+                (root, query, cb) -> cb.equal(root.get("faculty").get("id"), facultyId), Sort.unsorted(), 0);
+    }
+
     public String getLongestFacultyName() {
         logger.debug("Finding faculty with the longest name");
         return facultyRepository.findAll().stream()
@@ -0,0 +1,145 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.profiling.AvatarUploadPhaseEvent;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Генерация превью без полного декодирования оригинала.
+ * Размеры читаются из заголовка, и до декодирования отсекаются слишком большие изображения.
+ * Сам декодер читает каждый N-й пиксель ({@link ImageReadParam#setSourceSubsampling}),
+ * поэтому в памяти оказывается картинка порядка размера превью, а не весь оригинал.
+ * Читатели и JPEG-писатель переиспользуются в пределах потока.
+ */
+@Component
+public class ImagePreviewGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(ImagePreviewGenerator.class);
+
+    /** Во сколько раз декодированная картинка может быть больше превью - запас для качественного масштабирования. */
+    private static final int OVERSAMPLING = 2;
+
+    private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<ImageWriter> JPEG_WRITER = ThreadLocal.withInitial(
+            () -> ImageIO.getImageWritersByFormatName("jpeg").next());
+
+    private final int targetWidth;
+    private final long maxPixels;
+    private final int maxAspectRatio;
+    private final float quality;
+
+    public ImagePreviewGenerator(@Value("${avatar.preview.width:100}") int targetWidth,
+                                 @Value("${avatar.preview.max-pixels:40000000}") long maxPixels,
+                                 @Value("${avatar.preview.max-aspect-ratio:4}") int maxAspectRatio,
+                                 @Value("${avatar.preview.quality:0.85}") float quality) {
+        this.targetWidth = targetWidth;
+        this.maxPixels = maxPixels;
+        this.maxAspectRatio = maxAspectRatio;
+        this.quality = quality;
+    }
+
+    public byte[] generate(InputStream is) throws IOException {
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
+            ImageReader reader = reader(iis);
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+                    logger.error("Rejected image of {}x{} pixels", width, height);
+                    throw new IOException("Изображение слишком большое");
+                }
+
+                // Очень вытянутые изображения обрезаются сверху, чтобы превью не было бесконечно высоким
+                int regionHeight = Math.min(height, width * maxAspectRatio);
+                int subsampling = Math.max(1, width / (targetWidth * OVERSAMPLING));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, 0, width, regionHeight));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                AvatarUploadPhaseEvent decodeEvent = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.DECODE, 0);
+                BufferedImage decoded = reader.read(0, param);
+                decodeEvent.finish((long) decoded.getWidth() * decoded.getHeight() * 4);
+                logger.trace("Original dimensions: {}x{}, decoded with subsampling {} to {}x{}",
+                        width, height, subsampling, decoded.getWidth(), decoded.getHeight());
+
+                AvatarUploadPhaseEvent scaleEvent = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.SCALE, 0);
+                BufferedImage preview = scale(decoded);
+                scaleEvent.finish((long) preview.getWidth() * preview.getHeight() * 4);
+
+                AvatarUploadPhaseEvent encodeEvent = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.ENCODE, 0);
+                byte[] encoded = encode(preview);
+                encodeEvent.finish(encoded.length);
+                return encoded;
+            } finally {
+                reader.reset();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source) {
+        int targetHeight = Math.max(1, (int) ((double) source.getHeight() / source.getWidth() * targetWidth));
+        BufferedImage preview = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        graphics.dispose();
+        return preview;
+    }
+
+    private byte[] encode(BufferedImage preview) throws IOException {
+        ImageWriter writer = JPEG_WRITER.get();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(preview, null, null), param);
+        } finally {
+            writer.reset();
+        }
+        return baos.toByteArray();
+    }
+
+    private static ImageReader reader(ImageInputStream iis) throws IOException {
+        Iterator<ImageReaderSpi> providers = IIORegistry.getDefaultInstance()
+                .getServiceProviders(ImageReaderSpi.class, true);
+        while (providers.hasNext()) {
+            ImageReaderSpi provider = providers.next();
+            if (provider.canDecodeInput(iis)) {
+                Map<ImageReaderSpi, ImageReader> readers = READERS.get();
+                ImageReader reader = readers.get(provider);
+                if (reader == null) {
+                    reader = provider.createReaderInstance();
+                    readers.put(provider, reader);
+                }
+                return reader;
+            }
+        }
+        logger.error("No image reader found for uploaded file");
+        throw new IOException("Не удалось прочитать изображение");
+    }
+}
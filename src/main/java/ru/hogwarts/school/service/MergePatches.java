@@ -0,0 +1,64 @@
+package ru.hogwarts.school.service;
+
+import java.util.Map;
+
+/**
+ * Разбор значений JSON Merge Patch (RFC 7396), пришедших от Jackson как {@code Map<String, Object>}.
+ * {@code null} по RFC удаляет значение: необязательное поле очищается, обязательное удалить нельзя.
+ * Ошибки формата - {@link IllegalArgumentException}, контроллеры отвечают на них 400.
+ */
+final class MergePatches {
+
+    private MergePatches() {
+    }
+
+    static void requireSameId(long id, Object value) {
+        if (value != null && longValue("id", value) != id) {
+            throw new IllegalArgumentException("Идентификатор в теле не совпадает с адресом");
+        }
+    }
+
+    /**
+     * @return строка или {@code null}, если поле нужно очистить
+     */
+    static String stringValue(String field, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof String string)) {
+            throw new IllegalArgumentException("Поле " + field + " должно быть строкой или null");
+        }
+        return string;
+    }
+
+    static int intValue(String field, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Поле " + field + " обязательно, его нельзя удалить");
+        }
+        long number = longValue(field, value);
+        if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Поле " + field + " вне допустимого диапазона");
+        }
+        return (int) number;
+    }
+
+    static long longValue(String field, Object value) {
+        if (!(value instanceof Integer || value instanceof Long)) {
+            throw new IllegalArgumentException("Поле " + field + " должно быть целым числом");
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Ссылка на связанную сущность в патче: {@code {"id": 1}} или {@code null}, чтобы отвязать.
+     */
+    static Long referenceId(String field, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof Map<?, ?> reference) || !reference.containsKey("id")) {
+            throw new IllegalArgumentException("Поле " + field + " должно быть объектом с id или null");
+        }
+        return longValue(field + ".id", reference.get("id"));
+    }
+}
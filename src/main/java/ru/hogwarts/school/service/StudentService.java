@@ -3,15 +3,32 @@ package ru.hogwarts.school.service;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import ru.hogwarts.school.cluster.ClusterInvalidator;
+import ru.hogwarts.school.dto.EntityVersion;
+import ru.hogwarts.school.dto.FieldSelection;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.BulkDeleteRepository;
+import ru.hogwarts.school.repository.BulkDeleteRepository.DeletedStudent;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.PartialUpdateRepository;
+import ru.hogwarts.school.repository.ProjectionRepository;
 import ru.hogwarts.school.repository.StudentRepository;
+import ru.hogwarts.school.web.TableVersions.Table;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 @Service
 @Transactional
@@ -20,9 +37,33 @@ public class StudentService {
     private static final Logger logger = LoggerFactory.getLogger(StudentService.class);
 
     private final StudentRepository studentRepository;
+    private final FacultyRepository facultyRepository;
+    private final PartialUpdateRepository partialUpdateRepository;
+    private final ChangeOutbox changeOutbox;
+    private final ClusterInvalidator clusterInvalidator;
+    private final BulkDeleteRepository bulkDeleteRepository;
+    private final AvatarFileCleaner avatarFileCleaner;
+    private final ProjectionRepository projectionRepository;
+    private final int maxBulkDeleteIds;
 
-    public StudentService(StudentRepository studentRepository) {
+    public StudentService(StudentRepository studentRepository,
+                          FacultyRepository facultyRepository,
+                          PartialUpdateRepository partialUpdateRepository,
+                          ChangeOutbox changeOutbox,
+                          ClusterInvalidator clusterInvalidator,
+                          BulkDeleteRepository bulkDeleteRepository,
+                          AvatarFileCleaner avatarFileCleaner,
+                          ProjectionRepository projectionRepository,
+                          @Value("${student.bulk-delete.max-ids:1000}") int maxBulkDeleteIds) {
         this.studentRepository = studentRepository;
+        this.facultyRepository = facultyRepository;
+        this.partialUpdateRepository = partialUpdateRepository;
+        this.changeOutbox = changeOutbox;
+        this.clusterInvalidator = clusterInvalidator;
+        this.bulkDeleteRepository = bulkDeleteRepository;
+        this.avatarFileCleaner = avatarFileCleaner;
+        this.projectionRepository = projectionRepository;
+        this.maxBulkDeleteIds = maxBulkDeleteIds;
         logger.debug("StudentService initialized with repository: {}", studentRepository);
     }
 
@@ -30,6 +71,9 @@ public class StudentService {
 
         logger.info("Creating new student: {}", student);
         Student createdStudent = studentRepository.save(student);
+        changeOutbox.recordStudent(createdStudent, Operation.CREATED);
+        clusterInvalidator.tablesChanged(Table.STUDENTS);
+        clusterInvalidator.studentSaved(createdStudent.getId());
         logger.debug("Created student with ID: {}", createdStudent.getId());
         return createdStudent;
     }
@@ -45,23 +89,132 @@ public class StudentService {
         return student;
     }
 
+    /**
+     * Версии студента и его факультета одним запросом - для ETag без загрузки записи.
+     */
+    public Optional<EntityVersion> getStudentVersion(long id) {
+        return studentRepository.findEntityVersionById(id);
+    }
+
+    public Optional<Map<String, Object>> getStudentById(long id, FieldSelection fields) {
+        logger.debug("Fetching fields {} of student ID: {}", fields.fields(), id);
+        return projectionRepository.find(Student.class, fields,
+                        (root, query, cb) -> cb.equal(root.get("id"), id), Sort.unsorted(), 1)
+                .stream()
+                .findFirst();
+    }
+
     public Student updateStudent(Student student) {
         logger.info("Updating student with ID: {}", student.getId());
+        if (student.getId() != null && student.getVersion() == null) {
+            // Клиенты, не передающие версию, по-прежнему перезаписывают запись целиком
+            studentRepository.findVersionById(student.getId()).ifPresent(student::setVersion);
+        }
         Student updatedStudent = studentRepository.save(student);
+        changeOutbox.recordStudent(updatedStudent, Operation.UPDATED);
+        clusterInvalidator.tablesChanged(Table.STUDENTS);
+        // PUT без существующего ID создаёт новую запись
+        clusterInvalidator.studentSaved(updatedStudent.getId());
         logger.debug("Updated student: {}", updatedStudent);
         return updatedStudent;
     }
 
+    /**
+     * Применяет JSON Merge Patch к студенту одним UPDATE только по переданным полям.
+     * Связь с факультетом задаётся как {@code "faculty": {"id": 1}} или {@code "faculty": null}.
+     *
+     * @param expectedVersion версия из {@code If-Match}; если не задана, используется поле {@code version} патча,
+     *                        а без него изменение применяется без проверки версии
+     * @return {@code false}, если студента с таким ID нет
+     * @throws ObjectOptimisticLockingFailureException если запись уже изменена другим запросом
+     */
+    public boolean patchStudent(long id, Map<String, Object> patch, Long expectedVersion) {
+        logger.info("Patching student with ID: {}, fields: {}", id, patch.keySet());
+        Long version = expectedVersion;
+        Map<String, Object> changes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            String field = entry.getKey();
+            Object value = entry.getValue();
+            switch (field) {
+                case "id" -> MergePatches.requireSameId(id, value);
+                case "version" -> {
+                    if (version == null && value != null) {
+                        version = MergePatches.longValue(field, value);
+                    }
+                }
+                case "name" -> changes.put(field, MergePatches.stringValue(field, value));
+                case "age" -> changes.put(field, MergePatches.intValue(field, value));
+                case "faculty" -> changes.put(field, facultyReference(MergePatches.referenceId(field, value)));
+                default -> throw new IllegalArgumentException("Поле нельзя изменить: " + field);
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return studentRepository.existsById(id);
+        }
+        if (partialUpdateRepository.update(Student.class, id, version, changes) == 0) {
+            if (!studentRepository.existsById(id)) {
+                logger.warn("Student with ID {} not found for patch", id);
+                return false;
+            }
+            logger.warn("Version conflict while patching student {}: expected version {}", id, version);
+            throw new ObjectOptimisticLockingFailureException(Student.class, id);
+        }
+        changeOutbox.recordPatch(Aggregate.STUDENT, id, changes);
+        clusterInvalidator.tablesChanged(Table.STUDENTS);
+        logger.debug("Student with ID {} patched", id);
+        return true;
+    }
+
     public void deleteStudent(long id) {
         logger.info("Deleting student with ID: {}", id);
-        if (!studentRepository.existsById(id)) {
+        List<DeletedStudent> deleted = bulkDeleteRepository.deleteStudents(List.of(id));
+        if (deleted.isEmpty()) {
             logger.error("Attempt to delete non-existent student with ID: {}", id);
-            throw new RuntimeException("Student not found with ID: " + id);
+            throw new NoSuchElementException("Student not found with ID: " + id);
         }
-        studentRepository.deleteById(id);
+        afterDelete(deleted);
         logger.debug("Student with ID {} deleted successfully", id);
     }
 
+    /**
+     * Удаляет студентов одним запросом. Отсутствующие ID пропускаются.
+     *
+     * @return ID удалённых студентов
+     */
+    public List<Long> deleteStudents(Collection<Long> ids) {
+        if (ids.size() > maxBulkDeleteIds) {
+            throw new IllegalArgumentException("Too many students requested: " + ids.size()
+                    + " (max " + maxBulkDeleteIds + ")");
+        }
+        logger.info("Deleting {} students by ID", ids.size());
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return afterDelete(bulkDeleteRepository.deleteStudents(ids));
+    }
+
+    public List<Long> deleteStudentsByFaculty(long facultyId) {
+        logger.info("Deleting students of faculty with ID: {}", facultyId);
+        return afterDelete(bulkDeleteRepository.deleteStudentsByFaculty(facultyId));
+    }
+
+    private List<Long> afterDelete(List<DeletedStudent> deleted) {
+        List<Long> ids = deleted.stream().map(DeletedStudent::id).toList();
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        List<Long> withAvatars = deleted.stream()
+                .filter(student -> student.avatarKey() != null)
+                .map(DeletedStudent::id)
+                .toList();
+        clusterInvalidator.tablesChanged(Table.STUDENTS);
+        clusterInvalidator.avatarsChanged(withAvatars);
+        avatarFileCleaner.deleteAfterCommit(deleted.stream().map(DeletedStudent::avatarKey).toList());
+        logger.debug("Deleted {} students, {} with avatars", ids.size(), withAvatars.size());
+        return ids;
+    }
+
     public List<Student> getStudentsByAge(int age) {
         logger.debug("Fetching students by age: {}", age);
         List<Student> students = studentRepository.findByAge(age);
@@ -69,13 +222,39 @@ public class StudentService {
         return students;
     }
 
+    public List<Map<String, Object>> getStudentsByAge(int age, FieldSelection fields) {
+        logger.debug("Fetching fields {} of students by age: {}", fields.fields(), age);
+        return projectionRepository.find(Student.class, fields,
+                (root, query, cb) -> cb.equal(root.get("age"), age), Sort.unsorted(), 0);
+    }
+
     public List<Student> findStudentsByAgeBetween(int minAge, int maxAge) {
-        logger.debug("Fetching students with age between {} and {}", minAge, maxAge);
-        List<Student> students = studentRepository.findByAgeBetween(minAge, maxAge);
+        return findStudentsByAgeBetween(minAge, maxAge, null);
+    }
+
+    /**
+     * @param facultyId если задан, читается только секция students этого факультета
+     */
+    public List<Student> findStudentsByAgeBetween(int minAge, int maxAge, Long facultyId) {
+        logger.debug("Fetching students with age between {} and {}, faculty {}", minAge, maxAge, facultyId);
+        List<Student> students = facultyId == null
+                ? studentRepository.findByAgeBetween(minAge, maxAge)
+                : studentRepository.findByFacultyIdAndAgeBetween(facultyId, minAge, maxAge);
         logger.debug("Found {} students in age range", students.size());
         return students;
     }
 
+    public List<Map<String, Object>> findStudentsByAgeBetween(int minAge, int maxAge, Long facultyId,
+                                                              FieldSelection fields) {
+        logger.debug("Fetching fields {} of students with age between {} and {}, faculty {}",
+                fields.fields(), minAge, maxAge, facultyId);
+        return projectionRepository.find(Student.class, fields, (root, query, cb) -> {
+            var ageBetween = cb.between(root.<Integer>get("age"), minAge, maxAge);
+            return facultyId == null ? ageBetween
+                    : cb.and(cb.equal(root.get("faculty").get("id"), facultyId), ageBetween);
+        }, Sort.unsorted(), 0);
+    }
+
     public Faculty getStudentFaculty(Long studentId) {
         logger.debug("Fetching faculty for student ID: {}", studentId);
         return studentRepository.findById(studentId)
@@ -86,7 +265,7 @@ public class StudentService {
                 })
                 .orElseThrow(() -> {
                     logger.error("Student not found with ID: {}", studentId);
-                    return new RuntimeException("Student not found");
+                    return new NoSuchElementException("Student not found");
                 });
     }
 
@@ -111,6 +290,11 @@ public class StudentService {
         return students;
     }
 
+    public List<Map<String, Object>> getLastStudents(FieldSelection fields) {
+        logger.debug("Fetching fields {} of last students", fields.fields());
+        return projectionRepository.find(Student.class, fields, null, Sort.by(Sort.Direction.DESC, "id"), 5);
+    }
+
     public List<String> getStudentsNamesStartingWithA() {
         logger.debug("Fetching students whose names start with 'A'");
         return studentRepository.findAll().stream()
@@ -121,13 +305,13 @@ public class StudentService {
                 .collect(Collectors.toList());
     }
 
-    // Самый быстрый - Формула Гаусса: n(n+1)/2
-    //return 1_000_000L * (1_000_000L + 1L) / 2L;
-
-    public long calculateParallelSum() {
-        return IntStream.rangeClosed(1, 1_000_000)
-                .parallel()
-                .asLongStream()
-                .sum();
+    private Faculty facultyReference(Long facultyId) {
+        if (facultyId == null) {
+            return null;
+        }
+        if (!facultyRepository.existsById(facultyId)) {
+            throw new IllegalArgumentException("Факультет не найден: " + facultyId);
+        }
+        return facultyRepository.getReferenceById(facultyId);
     }
 }
@@ -0,0 +1,56 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.dto.AgeStatistics;
+import ru.hogwarts.school.repository.StudentAgeRepository;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+@Service
+public class StudentStatisticsService {
+    private static final Logger logger = LoggerFactory.getLogger(StudentStatisticsService.class);
+
+    private final StudentAgeRepository studentAgeRepository;
+    private final ForkJoinPool aggregationPool;
+    private final AgeAggregator ageAggregator;
+
+    public StudentStatisticsService(StudentAgeRepository studentAgeRepository,
+                                    ForkJoinPool aggregationPool,
+                                    @Value("${student.aggregation.sequential-threshold:10000}") int sequentialThreshold) {
+        this.studentAgeRepository = studentAgeRepository;
+        this.aggregationPool = aggregationPool;
+        this.ageAggregator = new AgeAggregator(aggregationPool, sequentialThreshold);
+        logger.info("StudentStatisticsService initialized with parallelism {} and sequential threshold {}",
+                aggregationPool.getParallelism(), sequentialThreshold);
+    }
+
+    public AgeStatistics getAgeStatistics(int[] percentiles) {
+        logger.debug("Calculating age statistics");
+        AgeStatistics statistics = ageAggregator.aggregate(studentAgeRepository.findAllAges(), percentiles);
+        logger.debug("Calculated age statistics over {} students", statistics.count());
+        return statistics;
+    }
+
+    public Map<Long, AgeStatistics> getAgeStatisticsByFaculty(int[] percentiles) {
+        logger.debug("Calculating age statistics grouped by faculty");
+        StudentAgeRepository.FacultyAges rows = studentAgeRepository.findFacultyAges();
+        Map<Long, AgeStatistics> statistics = ageAggregator.aggregateGrouped(rows.facultyIds(), rows.ages(), percentiles);
+        logger.debug("Calculated age statistics for {} faculties", statistics.size());
+        return statistics;
+    }
+
+    // Самый быстрый - Формула Гаусса: n(n+1)/2
+    //return 1_000_000L * (1_000_000L + 1L) / 2L;
+
+    public long calculateParallelSum() {
+        return aggregationPool.submit(() -> LongStream.rangeClosed(1, 1_000_000)
+                        .parallel()
+                        .sum())
+                .join();
+    }
+}
@@ -0,0 +1,350 @@
+package ru.hogwarts.school.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.dto.WarmupReport;
+import ru.hogwarts.school.dto.WarmupReport.RequestLatency;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import javax.imageio.ImageIO;
+import javax.sql.DataSource;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Прогрев перед тем, как узел начнёт принимать трафик.
+ * Раннеры выполняются до публикации {@link ReadinessState#ACCEPTING_TRAFFIC}, поэтому
+ * пока идёт прогрев, {@code /actuator/health/readiness} отвечает 503 и балансировщик не шлёт запросы.
+ * <ol>
+ *     <li>открываются соединения пула;</li>
+ *     <li>через настоящий HTTP-стек повторяются типичные GET-запросы - прогреваются
+ *     метаданные Hibernate, JIT для Jackson, фильтров и контроллеров;</li>
+ *     <li>генерируются превью из синтетических JPEG и PNG - прогревается ImageIO;</li>
+ *     <li>строятся фильтры существования и заполняется кеш превью.</li>
+ * </ol>
+ * Ошибка прогрева не мешает запуску: узел просто начнёт работу холодным.
+ * Включается свойством {@code warmup.enabled}, по умолчанию только в профиле {@code prod}.
+ */
+@Component
+public class WarmupRunner implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(WarmupRunner.class);
+
+    private final DataSource dataSource;
+    private final StudentRepository studentRepository;
+    private final AvatarRepository avatarRepository;
+    private final AvatarService avatarService;
+    private final ImagePreviewGenerator previewGenerator;
+    private final ExistenceFilters existenceFilters;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Environment environment;
+    private final boolean enabled;
+    private final List<String> requests;
+    private final int iterations;
+    private final int thumbnailIterations;
+    private final int preloadPreviews;
+    private final int poolConnections;
+    private final long maxDurationMs;
+    private final int previewBatchSize;
+
+    private volatile WarmupReport report;
+
+    public WarmupRunner(DataSource dataSource,
+                        StudentRepository studentRepository,
+                        AvatarRepository avatarRepository,
+                        AvatarService avatarService,
+                        ImagePreviewGenerator previewGenerator,
+                        ExistenceFilters existenceFilters,
+                        ApplicationEventPublisher eventPublisher,
+                        Environment environment,
+                        @Value("${warmup.enabled:false}") boolean enabled,
+                        @Value("${warmup.requests:/student/{studentId},/student/age/{age}}") List<String> requests,
+                        @Value("${warmup.iterations:100}") int iterations,
+                        @Value("${warmup.thumbnail-iterations:50}") int thumbnailIterations,
+                        @Value("${warmup.preload-previews:1000}") int preloadPreviews,
+                        @Value("${warmup.pool-connections:10}") int poolConnections,
+                        @Value("${warmup.max-duration-ms:60000}") long maxDurationMs,
+                        @Value("${avatar.preview.batch.max-size:200}") int previewBatchSize) {
+        this.dataSource = dataSource;
+        this.studentRepository = studentRepository;
+        this.avatarRepository = avatarRepository;
+        this.avatarService = avatarService;
+        this.previewGenerator = previewGenerator;
+        this.existenceFilters = existenceFilters;
+        this.eventPublisher = eventPublisher;
+        this.environment = environment;
+        this.enabled = enabled;
+        this.requests = requests;
+        this.iterations = Math.max(1, iterations);
+        this.thumbnailIterations = thumbnailIterations;
+        this.preloadPreviews = preloadPreviews;
+        this.poolConnections = poolConnections;
+        this.maxDurationMs = maxDurationMs;
+        this.previewBatchSize = Math.max(1, previewBatchSize);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            logger.info("Warm-up is disabled");
+            return;
+        }
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        long started = System.nanoTime();
+        long deadline = started + Duration.ofMillis(maxDurationMs).toNanos();
+        logger.info("Warm-up started, traffic is refused until it completes");
+
+        long stageStarted = System.nanoTime();
+        int connections = openPool();
+        long poolMs = millisSince(stageStarted);
+
+        stageStarted = System.nanoTime();
+        List<RequestLatency> latencies = replayRequests(deadline);
+        long requestsMs = millisSince(stageStarted);
+
+        stageStarted = System.nanoTime();
+        warmThumbnails(deadline);
+        long thumbnailsMs = millisSince(stageStarted);
+
+        stageStarted = System.nanoTime();
+        int previews = preloadCaches();
+        long cachesMs = millisSince(stageStarted);
+
+        boolean completed = System.nanoTime() < deadline;
+        report = new WarmupReport(completed, millisSince(started), poolMs, connections, requestsMs,
+                thumbnailsMs, cachesMs, previews, latencies);
+        logger.info("Warm-up {} in {} ms (pool {} ms, requests {} ms, thumbnails {} ms, caches {} ms)",
+                completed ? "completed" : "stopped by time limit", report.durationMs(), poolMs, requestsMs,
+                thumbnailsMs, cachesMs);
+        for (RequestLatency latency : latencies) {
+            logger.info("Warm-up {} -> {}: first {} us, warmed {} us ({}x)", latency.path(), latency.status(),
+                    latency.firstMicros(), latency.warmedMicros(), String.format("%.1f", latency.speedup()));
+        }
+    }
+
+    /**
+     * Последний отчёт о прогреве или {@code null}, если прогрев не выполнялся.
+     */
+    public WarmupReport getReport() {
+        return report;
+    }
+
+    /**
+     * Держит несколько соединений одновременно, чтобы пул создал их сразу, а не на первых запросах.
+     */
+    private int openPool() {
+        int target = poolConnections;
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                target = Math.min(target, dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize());
+            }
+        } catch (SQLException e) {
+            logger.debug("Failed to read pool size", e);
+        }
+
+        List<Connection> opened = new ArrayList<>(target);
+        try {
+            for (int i = 0; i < target; i++) {
+                Connection connection = dataSource.getConnection();
+                opened.add(connection);
+                connection.isValid(1);
+            }
+        } catch (SQLException e) {
+            logger.warn("Warm-up opened only {} of {} connections", opened.size(), target, e);
+        } finally {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.debug("Failed to return connection to the pool", e);
+                }
+            }
+        }
+        return opened.size();
+    }
+
+    private List<RequestLatency> replayRequests(long deadline) {
+        String port = environment.getProperty("local.server.port");
+        if (port == null || requests.isEmpty()) {
+            logger.info("Skipping request replay: no local server port");
+            return List.of();
+        }
+        Map<String, String> variables;
+        try {
+            variables = sampleVariables();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to pick sample data for warm-up requests", e);
+            return List.of();
+        }
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        List<RequestLatency> latencies = new ArrayList<>(requests.size());
+        for (String template : requests) {
+            String path = expand(template.trim(), variables);
+            if (path == null) {
+                logger.debug("Skipping warm-up request {}: no sample data", template);
+                continue;
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                    .timeout(Duration.ofSeconds(10))
+                    .GET()
+                    .build();
+            long[] nanos = new long[iterations];
+            int calls = 0;
+            int status = 0;
+            try {
+                while (calls < iterations && System.nanoTime() < deadline) {
+                    long callStarted = System.nanoTime();
+                    status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    nanos[calls++] = System.nanoTime() - callStarted;
+                }
+            } catch (IOException e) {
+                logger.warn("Warm-up request {} failed", path, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            latencies.add(RequestLatency.of(path, status, Arrays.copyOf(nanos, calls)));
+        }
+        return latencies;
+    }
+
+    /**
+     * Реальные значения для шаблонов запросов, чтобы прогревались пути с данными, а не ответы 404.
+     */
+    private Map<String, String> sampleVariables() {
+        Map<String, String> variables = new HashMap<>();
+        List<Long> studentIds = studentRepository.findIdsAfter(0L, Limit.of(3));
+        if (!studentIds.isEmpty()) {
+            variables.put("studentIds", studentIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            Student student = studentRepository.findById(studentIds.get(0)).orElse(null);
+            if (student != null) {
+                variables.put("studentId", String.valueOf(student.getId()));
+                variables.put("age", String.valueOf(student.getAge()));
+                if (student.getFaculty() != null) {
+                    variables.put("facultyId", String.valueOf(student.getFaculty().getId()));
+                    variables.put("color", student.getFaculty().getColor());
+                }
+            }
+        }
+        avatarRepository.findStudentIdsAfter(0L, Limit.of(1)).stream().findFirst()
+                .ifPresent(id -> variables.put("avatarStudentId", String.valueOf(id)));
+        return variables;
+    }
+
+    static String expand(String template, Map<String, String> variables) {
+        StringBuilder path = new StringBuilder();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf('{', position);
+            if (open < 0) {
+                path.append(template, position, template.length());
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                return null;
+            }
+            String value = variables.get(template.substring(open + 1, close));
+            if (value == null) {
+                return null;
+            }
+            path.append(template, position, open).append(value);
+            position = close + 1;
+        }
+        return path.toString();
+    }
+
+    private void warmThumbnails(long deadline) {
+        List<byte[]> samples = new ArrayList<>();
+        try {
+            samples.add(sampleImage("jpg"));
+            samples.add(sampleImage("png"));
+        } catch (IOException e) {
+            logger.warn("Failed to create sample images for warm-up", e);
+            return;
+        }
+        for (int i = 0; i < thumbnailIterations && System.nanoTime() < deadline; i++) {
+            for (byte[] sample : samples) {
+                try {
+                    previewGenerator.generate(new ByteArrayInputStream(sample));
+                } catch (IOException e) {
+                    logger.warn("Warm-up thumbnail generation failed", e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static byte[] sampleImage(String format) throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, image.getWidth(), image.getHeight(), Color.BLUE));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Строит фильтры существования и загружает превью первых студентов с аватарами.
+     */
+    private int preloadCaches() {
+        try {
+            existenceFilters.maintain();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to build existence filters during warm-up", e);
+        }
+
+        int loaded = 0;
+        long afterId = 0;
+        try {
+            while (loaded < preloadPreviews) {
+                List<Long> ids = avatarRepository.findStudentIdsAfter(afterId,
+                        Limit.of(Math.min(previewBatchSize, preloadPreviews - loaded)));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                avatarService.findPreviews(ids);
+                loaded += ids.size();
+                afterId = ids.get(ids.size() - 1);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to preload avatar previews", e);
+        }
+        return loaded;
+    }
+
+    private static long millisSince(long started) {
+        return Duration.ofNanos(System.nanoTime() - started).toMillis();
+    }
+}
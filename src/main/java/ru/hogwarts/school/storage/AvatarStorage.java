@@ -0,0 +1,119 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Хранилище оригиналов аватаров.
+ * Реализация сама выбирает раскладку данных и возвращает ключ,
+ * который сохраняется в {@code Avatar.storageKey} и затем используется для чтения и удаления.
+ */
+public interface AvatarStorage {
+
+    /**
+     * Сохраняет содержимое и возвращает ключ. Запись атомарна:
+     * читатели видят либо старую версию, либо полностью записанную новую.
+     */
+    String save(Long studentId, String extension, InputStream content) throws IOException;
+
+    /**
+     * Записывает содержимое, не трогая существующие ключи: до {@link #publish(StagedAvatar)} оно лежит
+     * во временном месте, и {@link #discard(StagedAvatar)} удаляет только его. Ключ публикации известен
+     * сразу, чтобы его можно было сохранить в той же транзакции, после коммита которой вызывается publish.
+     * <p>
+     * Реализация по умолчанию годится для хранилищ, где каждое сохранение получает новый ключ.
+     */
+    default StagedAvatar stage(Long studentId, String extension, InputStream content) throws IOException {
+        String key = save(studentId, extension, content);
+        return new StagedAvatar(key, key);
+    }
+
+    /**
+     * Делает подготовленное содержимое доступным под {@link StagedAvatar#key()}.
+     */
+    default void publish(StagedAvatar staged) throws IOException {
+    }
+
+    /**
+     * Удаляет содержимое, которое не будет опубликовано. Вызывается вместо {@link #publish(StagedAvatar)}.
+     */
+    default void discard(StagedAvatar staged) throws IOException {
+        delete(staged.stagingKey());
+    }
+
+    /**
+     * Открывает содержимое по ключу.
+     *
+     * @throws java.nio.file.NoSuchFileException если ключ отсутствует
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * Возвращает содержимое как read-only буфер без копирования, если хранилище это поддерживает.
+     * Пустой результат означает, что данные нужно читать через {@link #open(String)}.
+     */
+    default Optional<ByteBuffer> map(String key) throws IOException {
+        return Optional.empty();
+    }
+
+    /**
+     * Путь к файлу с содержимым, если данные лежат на локальной файловой системе отдельным файлом.
+     */
+    default Optional<Path> path(String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * Открывает часть содержимого: {@code length} байт начиная с {@code offset}.
+     * Границы должны быть уже проверены вызывающим по {@link #size(String)}.
+     * Диапазон не буферизуется целиком: поток читает из хранилища по мере отдачи.
+     */
+    default InputStream openRange(String key, long offset, long length) throws IOException {
+        InputStream is = open(key);
+        try {
+            is.skipNBytes(offset);
+        } catch (IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+        return new BoundedInputStream(is, length);
+    }
+
+    /**
+     * Приводит ключ из внешних данных, например из импортированного архива, к виду, в котором его хранит
+     * это хранилище.
+     *
+     * @return ключ или {@code null}, если такой ключ не может принадлежать хранилищу
+     */
+    default String normalizeKey(String key) {
+        return key;
+    }
+
+    /**
+     * Может ли один ключ принадлежать нескольким аватарам (дедупликация по содержимому).
+     * Такие ключи нельзя удалять сразу после удаления записи: параллельная загрузка того же
+     * содержимого могла уже сослаться на файл, но ещё не закоммитить запись. Их удаляет сверка
+     * с хранилищем, когда файл долго не менялся и на него нет ссылок.
+     */
+    default boolean sharesKeys() {
+        return false;
+    }
+
+    /**
+     * Временная ссылка, по которой клиент может скачать содержимое напрямую из хранилища,
+     * минуя приложение. Пустой результат означает, что данные отдаёт само приложение.
+     */
+    default Optional<URI> downloadUrl(String key) {
+        return Optional.empty();
+    }
+
+    boolean exists(String key);
+
+    long size(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+}
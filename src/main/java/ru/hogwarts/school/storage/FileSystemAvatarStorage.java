@@ -0,0 +1,263 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Хранилище аватаров на файловой системе.
+ * Файлы раскладываются по подкаталогам по хешу ключа ({@code ab/cd/12.jpg}),
+ * чтобы ни один каталог не разрастался до сотен тысяч записей.
+ * Запись идёт во временный файл, который затем атомарно переименовывается в целевой.
+ * При включённой дедупликации файл называется по SHA-256 содержимого,
+ * и одинаковые изображения хранятся один раз; такие файлы удаляет только сверка {@code AvatarReconciler}.
+ */
+public class FileSystemAvatarStorage implements AvatarStorage {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemAvatarStorage.class);
+
+    private static final String TEMP_DIR = ".tmp";
+
+    private final Path root;
+    private final Path tempDir;
+    private final int shardDepth;
+    private final boolean deduplicate;
+    private final FsyncPolicy fsyncPolicy;
+
+    public FileSystemAvatarStorage(Path root, int shardDepth, boolean deduplicate, FsyncPolicy fsyncPolicy) {
+        this.root = root.normalize();
+        this.tempDir = this.root.resolve(TEMP_DIR);
+        this.shardDepth = Math.max(0, Math.min(shardDepth, 4));
+        this.deduplicate = deduplicate;
+        this.fsyncPolicy = fsyncPolicy;
+        logger.info("FileSystemAvatarStorage initialized at {} (shard depth {}, deduplicate {}, fsync {})",
+                this.root, this.shardDepth, deduplicate, fsyncPolicy);
+    }
+
+    @Override
+    public String save(Long studentId, String extension, InputStream content) throws IOException {
+        StagedAvatar staged = stage(studentId, extension, content);
+        try {
+            publish(staged);
+        } finally {
+            // После переноса временного файла уже нет
+            discard(staged);
+        }
+        return staged.key();
+    }
+
+    /**
+     * Пишет во временный файл и сразу считает ключ: по хешу содержимого или по ID студента.
+     */
+    @Override
+    public StagedAvatar stage(Long studentId, String extension, InputStream content) throws IOException {
+        Files.createDirectories(tempDir);
+        Path temp = Files.createTempFile(tempDir, studentId + "-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream is = new DigestInputStream(new BufferedInputStream(content), digest);
+                 OutputStream os = Files.newOutputStream(temp, StandardOpenOption.WRITE)) {
+                is.transferTo(os);
+            }
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+
+            String key = deduplicate
+                    ? shard(contentHash) + contentHash + "." + extension
+                    : shard(spread(studentId)) + studentId + "." + extension;
+            return new StagedAvatar(key, keyOf(temp));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    @Override
+    public void publish(StagedAvatar staged) throws IOException {
+        Path temp = resolve(staged.stagingKey());
+        Path target = resolve(staged.key());
+        if (deduplicate && Files.exists(target)) {
+            try {
+                // Свежее время изменения защищает файл от сверки, пока ссылка на него не закоммичена
+                Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+                logger.debug("Content {} already stored, skipping write", staged.key());
+                Files.deleteIfExists(temp);
+                return;
+            } catch (NoSuchFileException e) {
+                logger.debug("Content {} was removed concurrently, writing it again", staged.key());
+            }
+        }
+
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        Files.createDirectories(target.getParent());
+        move(temp, target);
+        if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+            forceDirectory(target.getParent());
+        }
+        logger.debug("Stored avatar as {}", staged.key());
+    }
+
+    @Override
+    public void discard(StagedAvatar staged) throws IOException {
+        Files.deleteIfExists(resolve(staged.stagingKey()));
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    /**
+     * Читает с позиции {@code offset} напрямую из файла, ничего не пропуская через память.
+     */
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public Optional<Path> path(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public boolean sharesKeys() {
+        return deduplicate;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Приводит ключ к пути относительно корня хранилища с разделителем {@code /}:
+     * так одинаково выглядят и новые ключи, и старые записи с полным путём.
+     * Для ключей вне корня возвращает {@code null}.
+     */
+    @Override
+    public String normalizeKey(String key) {
+        try {
+            return keyOf(resolve(key));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ключ файла, лежащего внутри корня хранилища.
+     */
+    public String keyOf(Path file) {
+        Path base = file.isAbsolute() ? root.toAbsolutePath() : root;
+        return base.relativize(file.normalize()).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Переводит ключ в путь. Старые записи хранят путь целиком ({@code ./avatars/1.jpg}),
+     * поэтому такие значения используются как есть, но только если путь ведёт внутрь корня:
+     * ключ из чужих данных, например из импортированного архива, не должен указывать на произвольный файл.
+     *
+     * @throws IllegalArgumentException если ключ указывает за пределы корня
+     */
+    Path resolve(String key) {
+        Path path = Path.of(key).normalize();
+        if (path.isAbsolute()) {
+            if (!path.startsWith(root.toAbsolutePath())) {
+                throw new IllegalArgumentException("Key points outside of storage root: " + key);
+            }
+            return path;
+        }
+        if (path.startsWith(root)) {
+            return path;
+        }
+        Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new IllegalArgumentException("Key points outside of storage root: " + key);
+        }
+        return resolved;
+    }
+
+    private String shard(String hex) {
+        StringBuilder prefix = new StringBuilder();
+        for (int level = 0; level < shardDepth; level++) {
+            prefix.append(hex, level * 2, level * 2 + 2).append('/');
+        }
+        return prefix.toString();
+    }
+
+    private static String spread(Long studentId) {
+        long h = studentId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return HexFormat.of().toHexDigits(h);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.warn("Atomic move is not supported for {}, falling back to plain replace", target);
+            Files.move(source, target, REPLACE_EXISTING);
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // На некоторых ОС каталог нельзя открыть как канал - это не ошибка записи
+            logger.debug("Failed to fsync directory {}", directory, e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
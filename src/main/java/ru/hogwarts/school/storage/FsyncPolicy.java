@@ -0,0 +1,13 @@
+package ru.hogwarts.school.storage;
+
+/**
+ * Насколько строго запись сбрасывается на диск перед переименованием.
+ */
+public enum FsyncPolicy {
+    /** Полагаться на page cache ОС. */
+    NONE,
+    /** fsync временного файла перед переименованием. */
+    FILE,
+    /** fsync файла и каталога, в котором выполнено переименование. */
+    FILE_AND_DIRECTORY
+}
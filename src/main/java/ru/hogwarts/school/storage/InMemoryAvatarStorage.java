@@ -0,0 +1,72 @@
+package ru.hogwarts.school.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранилище в памяти для тестов и локального запуска без диска.
+ */
+public class InMemoryAvatarStorage implements AvatarStorage {
+
+    private static final String STAGING_PREFIX = "staging/";
+
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    @Override
+    public String save(Long studentId, String extension, InputStream content) throws IOException {
+        String key = studentId + "." + extension;
+        contents.put(key, content.readAllBytes());
+        return key;
+    }
+
+    @Override
+    public StagedAvatar stage(Long studentId, String extension, InputStream content) throws IOException {
+        String stagingKey = STAGING_PREFIX + UUID.randomUUID();
+        contents.put(stagingKey, content.readAllBytes());
+        return new StagedAvatar(studentId + "." + extension, stagingKey);
+    }
+
+    @Override
+    public void publish(StagedAvatar staged) throws IOException {
+        contents.put(staged.key(), get(staged.stagingKey()));
+        contents.remove(staged.stagingKey());
+    }
+
+    @Override
+    public void discard(StagedAvatar staged) {
+        contents.remove(staged.stagingKey());
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new ByteArrayInputStream(get(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return contents.containsKey(key);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return get(key).length;
+    }
+
+    @Override
+    public void delete(String key) {
+        contents.remove(key);
+    }
+
+    private byte[] get(String key) throws NoSuchFileException {
+        byte[] content = contents.get(key);
+        if (content == null) {
+            throw new NoSuchFileException(key);
+        }
+        return content;
+    }
+}
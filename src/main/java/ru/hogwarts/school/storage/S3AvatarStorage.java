@@ -0,0 +1,320 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Хранилище аватаров в S3-совместимом объектном хранилище (AWS S3, MinIO).
+ * Каждая загрузка получает новый неизменяемый ключ ({@code avatars/ab/12-<uuid>.jpg}),
+ * поэтому метаданные и выданные ссылки не устаревают, пока объект не удалён.
+ * <ul>
+ *     <li>большие файлы загружаются multipart-ом, части отправляются параллельно;</li>
+ *     <li>диапазоны читаются ranged GET-ом, без скачивания объекта целиком;</li>
+ *     <li>для скачивания выдаются pre-signed URL, и байты идут клиенту мимо приложения;</li>
+ *     <li>результаты HEAD кешируются локально, чтобы проверки существования и размера не ходили в сеть.</li>
+ * </ul>
+ */
+public class S3AvatarStorage implements AvatarStorage, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(S3AvatarStorage.class);
+
+    /**
+     * Минимальный размер части multipart-загрузки, кроме последней, по требованиям S3.
+     */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client client;
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final String prefix;
+    private final int partSize;
+    private final int uploadParallelism;
+    private final Duration presignTtl;
+    private final long metadataTtlNanos;
+    private final Map<String, ObjectMeta> metadata;
+    private final ExecutorService uploadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param presigner   {@code null}, если скачивание должно идти через приложение
+     * @param metadataTtl сколько держать результат HEAD: ограничивает время, в течение которого
+     *                    узел может не заметить удаление объекта другим узлом
+     */
+    public S3AvatarStorage(S3Client client, S3Presigner presigner, String bucket, String prefix,
+                           int partSize, int uploadParallelism, Duration presignTtl,
+                           int metadataCacheSize, Duration metadataTtl) {
+        this.client = client;
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.prefix = prefix == null || prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.uploadParallelism = Math.max(1, uploadParallelism);
+        this.presignTtl = presignTtl;
+        this.metadataTtlNanos = metadataTtl.toNanos();
+        this.metadata = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ObjectMeta> eldest) {
+                return size() > metadataCacheSize;
+            }
+        };
+        logger.info("S3AvatarStorage initialized for bucket {} (prefix '{}', part size {}, parallelism {}, presign {})",
+                bucket, this.prefix, this.partSize, this.uploadParallelism, presigner != null);
+    }
+
+    @Override
+    public String save(Long studentId, String extension, InputStream content) throws IOException {
+        String key = prefix + spread(studentId) + "/" + studentId + "-" + UUID.randomUUID() + "." + extension;
+        String contentType = contentType(extension);
+
+        byte[] first = content.readNBytes(partSize);
+        long size;
+        if (first.length < partSize) {
+            try {
+                client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).contentType(contentType).build(),
+                        RequestBody.fromBytes(first));
+            } catch (S3Exception e) {
+                throw new IOException("Failed to upload " + key, e);
+            }
+            size = first.length;
+        } else {
+            size = uploadMultipart(key, contentType, first, content);
+        }
+
+        remember(key, size);
+        logger.debug("Stored avatar for student {} as {} ({} bytes)", studentId, key, size);
+        return key;
+    }
+
+    /**
+     * Читает поток частями и отправляет их параллельно. В памяти одновременно не больше
+     * {@code uploadParallelism} частей: чтение следующей ждёт, пока освободится слот.
+     */
+    private long uploadMultipart(String key, String contentType, byte[] first, InputStream content) throws IOException {
+        String uploadId;
+        try {
+            uploadId = client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).contentType(contentType).build()).uploadId();
+        } catch (S3Exception e) {
+            throw new IOException("Failed to start multipart upload of " + key, e);
+        }
+
+        Semaphore slots = new Semaphore(uploadParallelism);
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        long size = 0;
+        try {
+            byte[] chunk = first;
+            int partNumber = 1;
+            while (chunk.length > 0) {
+                slots.acquire();
+                byte[] data = chunk;
+                int number = partNumber++;
+                parts.add(uploadExecutor.submit(() -> {
+                    try {
+                        String eTag = client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket).key(key).uploadId(uploadId)
+                                .partNumber(number).contentLength((long) data.length)
+                                .build(), RequestBody.fromBytes(data)).eTag();
+                        return CompletedPart.builder().partNumber(number).eTag(eTag).build();
+                    } finally {
+                        slots.release();
+                    }
+                }));
+                size += data.length;
+                chunk = data.length < partSize ? new byte[0] : content.readNBytes(partSize);
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> part : parts) {
+                completed.add(part.get());
+            }
+            client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+            logger.debug("Multipart upload of {} completed in {} parts", key, completed.size());
+            return size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new IOException("Interrupted while uploading " + key, e);
+        } catch (ExecutionException | S3Exception | IOException e) {
+            abort(key, uploadId, parts);
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new IOException("Failed multipart upload of " + key, cause);
+        }
+    }
+
+    private void abort(String key, String uploadId, List<Future<CompletedPart>> parts) {
+        // Незавершённые части иначе продолжат занимать место в бакете
+        parts.forEach(part -> part.cancel(true));
+        try {
+            client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId).build());
+        } catch (S3Exception e) {
+            logger.warn("Failed to abort multipart upload {} of {}", uploadId, key, e);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return get(key, GetObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        return get(key, GetObjectRequest.builder().bucket(bucket).key(key)
+                .range("bytes=" + offset + "-" + (offset + length - 1)).build());
+    }
+
+    private InputStream get(String key, GetObjectRequest request) throws IOException {
+        try {
+            return client.getObject(request);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                forget(key);
+                throw new NoSuchFileException(key);
+            }
+            throw new IOException("Failed to read " + key, e);
+        }
+    }
+
+    @Override
+    public Optional<URI> downloadUrl(String key) {
+        if (presigner == null) {
+            return Optional.empty();
+        }
+        return Optional.of(URI.create(presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(presignTtl)
+                .getObjectRequest(GetObjectRequest.builder().bucket(bucket).key(key).build())
+                .build()).url().toString()));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        try {
+            return head(key) != null;
+        } catch (IOException e) {
+            logger.warn("Failed to check existence of {}", key, e);
+            return false;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        ObjectMeta meta = head(key);
+        if (meta == null) {
+            throw new NoSuchFileException(key);
+        }
+        return meta.size();
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        forget(key);
+        try {
+            client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        } catch (S3Exception e) {
+            throw new IOException("Failed to delete " + key, e);
+        }
+    }
+
+    /**
+     * Метаданные объекта из локального кеша или запросом HEAD.
+     * Отсутствие объекта не кешируется: ключ может появиться сразу после загрузки на другом узле.
+     */
+    private ObjectMeta head(String key) throws IOException {
+        long now = System.nanoTime();
+        synchronized (metadata) {
+            ObjectMeta cached = metadata.get(key);
+            if (cached != null && now - cached.loadedAt() < metadataTtlNanos) {
+                return cached;
+            }
+        }
+        HeadObjectResponse response;
+        try {
+            response = client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                forget(key);
+                return null;
+            }
+            throw new IOException("Failed to read metadata of " + key, e);
+        }
+        return remember(key, response.contentLength());
+    }
+
+    private ObjectMeta remember(String key, long size) {
+        ObjectMeta meta = new ObjectMeta(size, System.nanoTime());
+        synchronized (metadata) {
+            metadata.put(key, meta);
+        }
+        return meta;
+    }
+
+    private void forget(String key) {
+        synchronized (metadata) {
+            metadata.remove(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        uploadExecutor.shutdownNow();
+        if (presigner != null) {
+            presigner.close();
+        }
+        client.close();
+    }
+
+    private static String contentType(String extension) {
+        String type = URLConnection.guessContentTypeFromName("avatar." + extension);
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * Первые два hex-символа перемешанного ID: соседние студенты попадают в разные префиксы,
+     * и нагрузка распределяется по разделам бакета.
+     */
+    private static String spread(Long studentId) {
+        long h = studentId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return HexFormat.of().toHexDigits((byte) h);
+    }
+
+    private record ObjectMeta(long size, long loadedAt) {
+    }
+}
@@ -0,0 +1,476 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Хранилище аватаров в больших append-only сегментах.
+ * Каждый сегмент - файл фиксированной ёмкости, целиком отображённый в память,
+ * поэтому чтение не требует ни открытия файла, ни системных вызовов:
+ * {@link #map(String)} возвращает срез отображённого буфера.
+ * Индекс {@code studentId -> (сегмент, смещение)} хранится в {@link LongLongIndex}
+ * и при старте восстанавливается сканированием сегментов. Ключ {@code seg:<studentId>.<ext>}
+ * действителен, пока у студента индексирована запись с тем же расширением: после загрузки
+ * аватара в другом формате старый ключ перестаёт существовать, и его удаление новую запись не трогает.
+ * Перезаписанные и удалённые записи освобождаются фоновым уплотнением.
+ *
+ * <p>Формат записи:
+ * {@code magic:int | type:byte | studentId:long | extLength:short | ext | dataLength:int | data}.
+ * Magic пишется последним, поэтому недописанная запись при сканировании не видна.
+ */
+public class SegmentAvatarStorage implements AvatarStorage, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentAvatarStorage.class);
+
+    static final String KEY_PREFIX = "seg:";
+
+    private static final int MAGIC = 0x41565452;
+    private static final byte TYPE_DATA = 0;
+    private static final byte TYPE_TOMBSTONE = 1;
+    private static final int FIXED_HEADER = 4 + 1 + 8 + 2 + 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String STAGING_DIR = "staging";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final double compactionThreshold;
+    private final FsyncPolicy fsyncPolicy;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final LongLongIndex index = new LongLongIndex(1024);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService compactor;
+    private volatile Segment active;
+
+    public SegmentAvatarStorage(Path directory, int segmentSize, double compactionThreshold,
+                                FsyncPolicy fsyncPolicy, long compactionIntervalSeconds) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.fsyncPolicy = fsyncPolicy;
+
+        Files.createDirectories(directory);
+        load();
+
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "avatar-segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (compactionIntervalSeconds > 0) {
+            compactor.scheduleWithFixedDelay(this::compactQuietly,
+                    compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("SegmentAvatarStorage initialized at {}: {} segments, {} avatars",
+                directory, segments.size(), index.size());
+    }
+
+    @Override
+    public String save(Long studentId, String extension, InputStream content) throws IOException {
+        byte[] data = content.readAllBytes();
+        lock.writeLock().lock();
+        try {
+            long location = append(TYPE_DATA, studentId, extension, ByteBuffer.wrap(data));
+            release(index.put(studentId, location));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.debug("Appended {} bytes for student {}", data.length, studentId);
+        return KEY_PREFIX + studentId + "." + extension;
+    }
+
+    /**
+     * Записи в сегмент нельзя спрятать до публикации, поэтому содержимое ждёт во временном файле
+     * рядом с сегментами и дописывается в сегмент в {@link #publish(StagedAvatar)}.
+     */
+    @Override
+    public StagedAvatar stage(Long studentId, String extension, InputStream content) throws IOException {
+        Path stagingDir = directory.resolve(STAGING_DIR);
+        Files.createDirectories(stagingDir);
+        Path temp = Files.createTempFile(stagingDir, studentId + "-", "." + extension);
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return new StagedAvatar(KEY_PREFIX + studentId + "." + extension, temp.toString());
+    }
+
+    @Override
+    public void publish(StagedAvatar staged) throws IOException {
+        String key = staged.key();
+        Path temp = Path.of(staged.stagingKey());
+        try (InputStream content = Files.newInputStream(temp)) {
+            save(studentId(key), key.substring(key.lastIndexOf('.') + 1), content);
+        }
+        Files.delete(temp);
+    }
+
+    @Override
+    public void discard(StagedAvatar staged) throws IOException {
+        Files.deleteIfExists(Path.of(staged.stagingKey()));
+    }
+
+    @Override
+    public Optional<ByteBuffer> map(String key) throws IOException {
+        long studentId = studentId(key);
+        lock.readLock().lock();
+        try {
+            long location = locate(studentId, key);
+            if (location == LongLongIndex.MISSING) {
+                throw new NoSuchFileException(key);
+            }
+            return Optional.of(segment(location).data(offset(location)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new ByteBufferInputStream(map(key).orElseThrow());
+    }
+
+    /**
+     * Диапазон отдаётся срезом отображённого сегмента, без копирования в кучу.
+     */
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        ByteBuffer buffer = map(key).orElseThrow();
+        return new ByteBufferInputStream(buffer.slice(Math.toIntExact(offset), Math.toIntExact(length)));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        if (!key.startsWith(KEY_PREFIX)) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return locate(studentId(key), key) != LongLongIndex.MISSING;
+        } catch (NoSuchFileException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return map(key).orElseThrow().remaining();
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (!key.startsWith(KEY_PREFIX)) {
+            return;
+        }
+        long studentId = studentId(key);
+        lock.writeLock().lock();
+        try {
+            if (locate(studentId, key) != LongLongIndex.MISSING) {
+                release(index.remove(studentId));
+                // Tombstone нужен, чтобы запись не "воскресла" при пересканировании сегментов
+                segment(append(TYPE_TOMBSTONE, studentId, "", ByteBuffer.allocate(0)))
+                        .liveBytes.addAndGet(-recordSize(0, 0));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Переписывает живые записи из сегментов, где доля живых данных ниже порога,
+     * в активный сегмент и удаляет освободившиеся файлы.
+     */
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.liveRatio() < compactionThreshold) {
+                candidates.add(segment);
+            }
+        }
+
+        for (Segment segment : candidates) {
+            lock.writeLock().lock();
+            try {
+                IOException[] failure = new IOException[1];
+                index.replaceAll((studentId, location) -> {
+                    if (failure[0] != null || segmentId(location) != segment.id) {
+                        return location;
+                    }
+                    try {
+                        int offset = offset(location);
+                        long moved = append(TYPE_DATA, studentId, segment.extension(offset), segment.data(offset));
+                        segment.liveBytes.addAndGet(-segment.recordSize(offset));
+                        return moved;
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        return location;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                carryTombstones(segment);
+                segments.remove(segment.id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            // Отображение остаётся валидным до сборки мусора, поэтому читатели со старыми срезами не пострадают
+            Files.deleteIfExists(segment.path);
+            logger.info("Compacted avatar segment {}", segment.path.getFileName());
+        }
+    }
+
+    /**
+     * Tombstone из удаляемого сегмента переносится вперёд, пока существуют более старые сегменты,
+     * где может лежать удалённая им запись. Если у студента уже есть более новые данные, tombstone не нужен.
+     */
+    private void carryTombstones(Segment segment) throws IOException {
+        if (segments.firstKey() >= segment.id) {
+            return;
+        }
+        for (int position = 0; position < segment.writePosition; position += segment.recordSize(position)) {
+            long studentId = segment.studentId(position);
+            if (segment.type(position) == TYPE_TOMBSTONE && index.get(studentId) == LongLongIndex.MISSING) {
+                segment(append(TYPE_TOMBSTONE, studentId, "", ByteBuffer.allocate(0)))
+                        .liveBytes.addAndGet(-recordSize(0, 0));
+            }
+        }
+    }
+
+    public Map<Integer, Double> getSegmentLiveRatios() {
+        Map<Integer, Double> ratios = new ConcurrentSkipListMap<>();
+        segments.forEach((id, segment) -> ratios.put(id, segment.liveRatio()));
+        return ratios;
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            logger.error("Avatar segment compaction failed", e);
+        }
+    }
+
+    private void load() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        ids.sort(null);
+
+        for (int id : ids) {
+            Segment segment = Segment.open(segmentPath(id), id, segmentSize);
+            segments.put(id, segment);
+            int position = 0;
+            while (segment.hasRecord(position)) {
+                int size = segment.recordSize(position);
+                long studentId = segment.studentId(position);
+                long location = location(id, position);
+                segment.liveBytes.addAndGet(size);
+                if (segment.type(position) == TYPE_TOMBSTONE) {
+                    release(index.remove(studentId));
+                    segment.liveBytes.addAndGet(-size);
+                } else {
+                    release(index.put(studentId, location));
+                }
+                position += size;
+            }
+            segment.writePosition = position;
+            active = segment;
+        }
+        if (active == null) {
+            roll();
+        }
+    }
+
+    private long append(byte type, long studentId, String extension, ByteBuffer data) throws IOException {
+        byte[] ext = extension.getBytes(StandardCharsets.US_ASCII);
+        int size = recordSize(ext.length, data.remaining());
+        if (size > segmentSize) {
+            throw new IOException("Avatar of " + data.remaining() + " bytes does not fit into a segment");
+        }
+        if (active.writePosition + size > segmentSize) {
+            roll();
+        }
+
+        Segment segment = active;
+        int offset = segment.writePosition;
+        MappedByteBuffer buffer = segment.buffer;
+        int position = offset + 4;
+        buffer.put(position, type);
+        buffer.putLong(position + 1, studentId);
+        buffer.putShort(position + 9, (short) ext.length);
+        buffer.put(position + 11, ext);
+        buffer.putInt(position + 11 + ext.length, data.remaining());
+        buffer.put(position + 15 + ext.length, data, data.position(), data.remaining());
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            buffer.force(offset, size);
+        }
+        buffer.putInt(offset, MAGIC);
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            buffer.force(offset, 4);
+        }
+
+        segment.writePosition = offset + size;
+        segment.liveBytes.addAndGet(size);
+        return location(segment.id, offset);
+    }
+
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = Segment.open(segmentPath(id), id, segmentSize);
+        segments.put(id, segment);
+        active = segment;
+        logger.info("Opened new avatar segment {}", segment.path.getFileName());
+    }
+
+    private void release(long location) {
+        if (location == LongLongIndex.MISSING) {
+            return;
+        }
+        Segment segment = segment(location);
+        segment.liveBytes.addAndGet(-segment.recordSize(offset(location)));
+    }
+
+    private Segment segment(long location) {
+        Segment segment = segments.get(segmentId(location));
+        if (segment == null) {
+            throw new IllegalStateException("Segment " + segmentId(location) + " is missing");
+        }
+        return segment;
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Положение записи по ключу или {@link LongLongIndex#MISSING}, если у студента нет записи
+     * или она сохранена с другим расширением. Вызывается под блокировкой.
+     */
+    private long locate(long studentId, String key) {
+        long location = index.get(studentId);
+        if (location == LongLongIndex.MISSING) {
+            return location;
+        }
+        int dot = key.indexOf('.', KEY_PREFIX.length());
+        String extension = dot < 0 ? "" : key.substring(dot + 1);
+        return segment(location).extension(offset(location)).equals(extension) ? location : LongLongIndex.MISSING;
+    }
+
+    private static long studentId(String key) throws NoSuchFileException {
+        if (!key.startsWith(KEY_PREFIX)) {
+            throw new NoSuchFileException(key, null, "Not a segment storage key");
+        }
+        int dot = key.indexOf('.', KEY_PREFIX.length());
+        return Long.parseLong(key.substring(KEY_PREFIX.length(), dot < 0 ? key.length() : dot));
+    }
+
+    private static int recordSize(int extLength, int dataLength) {
+        return FIXED_HEADER + extLength + dataLength;
+    }
+
+    private static long location(int segmentId, int offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static int segmentId(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile int writePosition;
+
+        private Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, int id, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Файл растягивается до полной ёмкости (разреженно), отображение переживает закрытие канала
+                return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        boolean hasRecord(int offset) {
+            return offset + FIXED_HEADER <= buffer.capacity() && buffer.getInt(offset) == MAGIC;
+        }
+
+        byte type(int offset) {
+            return buffer.get(offset + 4);
+        }
+
+        long studentId(int offset) {
+            return buffer.getLong(offset + 5);
+        }
+
+        String extension(int offset) {
+            byte[] ext = new byte[buffer.getShort(offset + 13)];
+            buffer.get(offset + 15, ext);
+            return new String(ext, StandardCharsets.US_ASCII);
+        }
+
+        int recordSize(int offset) {
+            short extLength = buffer.getShort(offset + 13);
+            return SegmentAvatarStorage.recordSize(extLength, buffer.getInt(offset + 15 + extLength));
+        }
+
+        ByteBuffer data(int offset) {
+            short extLength = buffer.getShort(offset + 13);
+            int length = buffer.getInt(offset + 15 + extLength);
+            return buffer.slice(offset + FIXED_HEADER + extLength, length).asReadOnlyBuffer();
+        }
+
+        double liveRatio() {
+            int written = writePosition;
+            return written == 0 ? 1.0 : (double) liveBytes.get() / written;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.hogwarts.school.storage;
+
+/**
+ * Содержимое, записанное через {@link AvatarStorage#stage}, но ещё не опубликованное.
+ *
+ * @param key        ключ, под которым содержимое станет доступно после {@link AvatarStorage#publish}
+ * @param stagingKey временное место содержимого, не совпадающее ни с одним ключом хранилища
+ */
+public record StagedAvatar(String key, String stagingKey) {
+}
@@ -0,0 +1,128 @@
+package ru.hogwarts.school.web;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Адаптивный лимит одновременных запросов по градиенту задержки.
+ * Долгая скользящая средняя задержки - оценка времени ответа без очереди; если текущая
+ * задержка растёт относительно неё, лимит пропорционально снижается, а при стабильной
+ * задержке и высокой загрузке растёт примерно на корень из лимита.
+ * Ошибки и таймауты снижают лимит мультипликативно, как в AIMD.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double limit;
+    private double longRtt;
+
+    /**
+     * @param tolerance во сколько раз задержка может превысить долгую среднюю, прежде чем лимит начнёт снижаться
+     * @param smoothing доля нового значения при пересчёте лимита, от 0 до 1
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits: initial=" + initialLimit
+                    + ", min=" + minLimit + ", max=" + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * @return разрешение, которое нужно вернуть ровно один раз, или {@code null}, если лимит исчерпан
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(current + 1, System.nanoTime());
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    synchronized void onSample(long rttNanos, int inFlightAtStart) {
+        double rtt = Math.max(1, rttNanos);
+        longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) / LONG_WINDOW;
+        // После перегрузки долгая средняя завышена - даём ей быстрее вернуться к норме
+        if (longRtt / rtt > 2) {
+            longRtt *= 0.95;
+        }
+        // Если лимит почти не используется, задержка ничего не говорит о его достаточности
+        if (inFlightAtStart < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longRtt / rtt));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        update(limit * (1 - smoothing) + estimate * smoothing);
+    }
+
+    synchronized void onDropped() {
+        update(limit * BACKOFF_RATIO);
+    }
+
+    private void update(double newLimit) {
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public final class Permit {
+        private final int inFlightAtStart;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart, long startNanos) {
+            this.inFlightAtStart = inFlightAtStart;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Запрос обработан - его задержка участвует в пересчёте лимита.
+         */
+        public void success() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                onSample(System.nanoTime() - startNanos, inFlightAtStart);
+            }
+        }
+
+        /**
+         * Запрос завершился ошибкой или таймаутом - признак перегрузки.
+         */
+        public void dropped() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                onDropped();
+            }
+        }
+    }
+}
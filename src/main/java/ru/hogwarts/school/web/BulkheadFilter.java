@@ -0,0 +1,149 @@
+package ru.hogwarts.school.web;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Раздельные бюджеты одновременных запросов для загрузки аватаров, отдачи аватаров и JSON API,
+ * чтобы медленный диск или поток больших загрузок не занял все потоки контейнера.
+ * Сверх лимита группы запрос сразу получает 503 с {@code Retry-After}, не попадая в очередь.
+ * Для асинхронных запросов разрешение возвращается по завершении асинхронной обработки.
+ * Признаки перегрузки, снижающие лимит, - исключение из цепочки, таймаут асинхронного запроса
+ * и ответ 503. Прочие ответы 5xx, например ошибки в данных, на лимит не влияют.
+ */
+public class BulkheadFilter extends OncePerRequestFilter implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(BulkheadFilter.class);
+
+    public enum Group {
+        AVATAR_UPLOAD, AVATAR_DOWNLOAD, API
+    }
+
+    private final Map<Group, AdaptiveConcurrencyLimit> limits;
+
+    public BulkheadFilter(Map<Group, AdaptiveConcurrencyLimit> limits) {
+        this.limits = new EnumMap<>(limits);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Group group = classify(request);
+        AdaptiveConcurrencyLimit limit = group == null ? null : limits.get(group);
+        if (limit == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+        if (permit == null) {
+            logger.debug("Rejected {} {}: {} limit {} reached", request.getMethod(), request.getRequestURI(),
+                    group, limit.getLimit());
+            reject(response);
+            return;
+        }
+
+        boolean completed = false;
+        try {
+            chain.doFilter(request, response);
+            completed = true;
+        } finally {
+            if (!completed) {
+                permit.dropped();
+            } else if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new PermitReleasingListener(permit));
+            } else {
+                release(permit, response.getStatus());
+            }
+        }
+    }
+
+    static Group classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/avatar")) {
+            String method = request.getMethod();
+            return "POST".equals(method) || "PUT".equals(method) ? Group.AVATAR_UPLOAD : Group.AVATAR_DOWNLOAD;
+        }
+        if (path.startsWith("/student") || path.startsWith("/faculty")) {
+            return Group.API;
+        }
+        return null;
+    }
+
+    private static void release(AdaptiveConcurrencyLimit.Permit permit, int status) {
+        if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+            permit.dropped();
+        } else {
+            permit.success();
+        }
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write("Сервис перегружен, повторите запрос позже");
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        limits.forEach((group, limit) -> {
+            String tag = group.name().toLowerCase();
+            Gauge.builder("http.bulkhead.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                    .tag("group", tag)
+                    .register(registry);
+            Gauge.builder("http.bulkhead.in.flight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                    .tag("group", tag)
+                    .register(registry);
+            FunctionCounter.builder("http.bulkhead.rejected", limit, AdaptiveConcurrencyLimit::getRejected)
+                    .tag("group", tag)
+                    .register(registry);
+        });
+    }
+
+    private static final class PermitReleasingListener implements AsyncListener {
+        private final AdaptiveConcurrencyLimit.Permit permit;
+
+        PermitReleasingListener(AdaptiveConcurrencyLimit.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release(permit, ((HttpServletResponse) event.getSuppliedResponse()).getStatus());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            permit.dropped();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            permit.dropped();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package ru.hogwarts.school.web;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.hogwarts.school.dto.ChangeEventDto;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Раздача событий изменений потребителям: long-polling через {@link DeferredResult}
+ * и поток через {@link SseEmitter}. Ожидающие запросы не держат потоки контейнера и
+ * не опрашивают БД - их будит ретранслятор, и новые события читаются один раз на всех.
+ */
+@Component
+public class ChangeEventBroker {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeEventBroker.class);
+
+    private static final long UNKNOWN = -1L;
+
+    private final ChangeEventRepository changeEventRepository;
+    private final int maxBatchSize;
+    private final long streamTimeoutMillis;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-event-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long published = UNKNOWN;
+
+    public ChangeEventBroker(ChangeEventRepository changeEventRepository,
+                             @Value("${outbox.poll.max-batch-size:500}") int maxBatchSize,
+                             @Value("${outbox.stream.timeout-ms:1800000}") long streamTimeoutMillis) {
+        this.changeEventRepository = changeEventRepository;
+        this.maxBatchSize = maxBatchSize;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+
+    public List<ChangeEventDto> read(long after, int limit) {
+        return changeEventRepository.findBySequenceGreaterThanOrderBySequence(after, Limit.of(limit)).stream()
+                .map(ChangeEventDto::from)
+                .toList();
+    }
+
+    /**
+     * Отдаёт события с номером больше {@code after}. Если их нет, ответ ждёт до {@code timeoutMillis}
+     * и по таймауту завершается пустым списком.
+     */
+    public DeferredResult<List<ChangeEventDto>> poll(long after, int limit, long timeoutMillis) {
+        int size = Math.min(Math.max(1, limit), maxBatchSize);
+        DeferredResult<List<ChangeEventDto>> result = new DeferredResult<>(timeoutMillis, List.of());
+        Waiter waiter = new Waiter(after, size, result);
+        // Регистрируемся до чтения, чтобы не пропустить события, опубликованные между чтением и ожиданием
+        waiters.add(waiter);
+        result.onCompletion(() -> waiters.remove(waiter));
+
+        List<ChangeEventDto> available = read(after, size);
+        if (!available.isEmpty()) {
+            result.setResult(available);
+        }
+        return result;
+    }
+
+    /**
+     * Поток событий начиная с номера больше {@code after}. Идентификатор SSE-события равен номеру,
+     * поэтому после обрыва клиент продолжит с места остановки через {@code Last-Event-ID}.
+     */
+    public SseEmitter subscribe(long after) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, after);
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        dispatcher.execute(() -> catchUp(subscriber, Long.MAX_VALUE));
+        logger.debug("Change event subscriber registered after sequence {}", after);
+        return emitter;
+    }
+
+    /**
+     * Вызывается ретранслятором после каждого прохода с максимальным опубликованным номером.
+     */
+    public void onPublished(Long maxSequence) {
+        if (maxSequence == null) {
+            return;
+        }
+        long previous;
+        synchronized (this) {
+            if (maxSequence <= published) {
+                return;
+            }
+            previous = published;
+            published = maxSequence;
+        }
+        if (waiters.isEmpty() && subscribers.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> dispatch(previous, maxSequence));
+    }
+
+    private void dispatch(long previous, long maxSequence) {
+        List<ChangeEventDto> fresh = previous == UNKNOWN ? List.of() : readRange(previous, maxSequence);
+        logger.debug("Dispatching {} change events up to {} to {} waiters and {} subscribers",
+                fresh.size(), maxSequence, waiters.size(), subscribers.size());
+
+        for (Waiter waiter : waiters) {
+            if (waiter.after >= maxSequence) {
+                continue;
+            }
+            List<ChangeEventDto> events = waiter.after >= previous && previous != UNKNOWN
+                    ? after(fresh, waiter.after, waiter.limit)
+                    : read(waiter.after, waiter.limit);
+            if (!events.isEmpty()) {
+                waiter.result.setResult(events);
+            }
+        }
+
+        for (Subscriber subscriber : subscribers) {
+            synchronized (subscriber) {
+                if (subscriber.lastSent >= previous && previous != UNKNOWN) {
+                    send(subscriber, after(fresh, subscriber.lastSent, Integer.MAX_VALUE));
+                } else {
+                    catchUp(subscriber, maxSequence);
+                }
+            }
+        }
+    }
+
+    private void catchUp(Subscriber subscriber, long upTo) {
+        synchronized (subscriber) {
+            List<ChangeEventDto> page;
+            do {
+                page = read(subscriber.lastSent, maxBatchSize);
+                if (!send(subscriber, page)) {
+                    return;
+                }
+            } while (page.size() == maxBatchSize && subscriber.lastSent < upTo);
+        }
+    }
+
+    private boolean send(Subscriber subscriber, List<ChangeEventDto> events) {
+        try {
+            for (ChangeEventDto event : events) {
+                subscriber.emitter.send(SseEmitter.event()
+                        .id(Long.toString(event.sequence()))
+                        .name(event.aggregate().name())
+                        .data(event, MediaType.APPLICATION_JSON));
+                subscriber.lastSent = event.sequence();
+            }
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Change event subscriber disconnected", e);
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private List<ChangeEventDto> readRange(long after, long upTo) {
+        List<ChangeEventDto> events = new ArrayList<>();
+        List<ChangeEventDto> page;
+        long from = after;
+        do {
+            page = read(from, maxBatchSize);
+            events.addAll(page);
+            if (!page.isEmpty()) {
+                from = page.get(page.size() - 1).sequence();
+            }
+        } while (page.size() == maxBatchSize && from < upTo);
+        return events;
+    }
+
+    private static List<ChangeEventDto> after(List<ChangeEventDto> events, long after, int limit) {
+        return events.stream()
+                .filter(event -> event.sequence() > after)
+                .limit(limit)
+                .toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    private record Waiter(long after, int limit, DeferredResult<List<ChangeEventDto>> result) {
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private long lastSent;
+
+        Subscriber(SseEmitter emitter, long lastSent) {
+            this.emitter = emitter;
+            this.lastSent = lastSent;
+        }
+    }
+}
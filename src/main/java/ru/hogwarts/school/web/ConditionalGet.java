@@ -0,0 +1,18 @@
+package ru.hogwarts.school.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Помечает GET-эндпоинт, ответ которого зависит только от перечисленных таблиц.
+ * Для таких эндпоинтов {@link ConditionalGetInterceptor} выставляет слабый ETag
+ * и отвечает 304 на совпадающий {@code If-None-Match}, не вызывая контроллер.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConditionalGet {
+
+    TableVersions.Table[] value();
+}
@@ -0,0 +1,68 @@
+package ru.hogwarts.school.web;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики изменений по таблицам - дешёвый источник валидаторов для ETag.
+ * Счётчик увеличивается после коммита каждой записи в таблицу, поэтому ETag,
+ * вычисленный до запроса в БД, никогда не окажется новее отданных данных.
+ * Эпоха узла входит в ETag, чтобы после рестарта или на другом узле
+ * совпадение значений счётчиков не давало ложного 304.
+ */
+@Component
+public class TableVersions {
+
+    public enum Table {
+        STUDENTS, FACULTY
+    }
+
+    private final long epoch = ThreadLocalRandom.current().nextLong() >>> 1;
+    private final Map<Table, AtomicLong> versions = new EnumMap<>(Table.class);
+
+    public TableVersions() {
+        for (Table table : Table.values()) {
+            versions.put(table, new AtomicLong());
+        }
+    }
+
+    public long version(Table table) {
+        return versions.get(table).get();
+    }
+
+    public void bump(Table... tables) {
+        for (Table table : tables) {
+            versions.get(table).incrementAndGet();
+        }
+    }
+
+    /**
+     * Увеличивает счётчики после коммита текущей транзакции или сразу, если транзакции нет.
+     */
+    public void bumpAfterCommit(Table... tables) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump(tables);
+                }
+            });
+        } else {
+            bump(tables);
+        }
+    }
+
+    public String etag(Table... tables) {
+        StringBuilder etag = new StringBuilder("W/\"").append(Long.toHexString(epoch));
+        for (Table table : tables) {
+            etag.append('-').append(Long.toHexString(version(table)));
+        }
+        return etag.append('"').toString();
+    }
+}
@@ -0,0 +1,13 @@
+--liquibase formatted sql
+
+--changeset musatovam:rename-avatars-file-path-to-storage-key
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:1 SELECT count(*) FROM information_schema.columns WHERE table_name = 'avatars' AND column_name = 'file_path'
+-- В столбце хранится ключ хранилища, а не путь: им пользуются и файловое хранилище, и S3
+ALTER TABLE avatars RENAME COLUMN file_path TO storage_key;
+ALTER INDEX IF EXISTS idx_avatars_file_path RENAME TO idx_avatars_storage_key;
+
+--changeset musatovam:strip-legacy-avatar-path-prefix
+-- Старые записи содержат путь вместе с каталогом по умолчанию (./avatars/1.jpg), приводим их к ключу относительно корня
+UPDATE avatars SET storage_key = regexp_replace(storage_key, '^(\./)?avatars/', '')
+WHERE storage_key ~ '^(\./)?avatars/';
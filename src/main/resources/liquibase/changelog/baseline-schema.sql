@@ -0,0 +1,26 @@
+--liquibase formatted sql
+
+--changeset musatovam:create-faculty-table
+CREATE TABLE IF NOT EXISTS faculty (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(255),
+    color VARCHAR(255)
+);
+
+--changeset musatovam:create-students-table
+CREATE TABLE IF NOT EXISTS students (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(255),
+    age INTEGER NOT NULL,
+    faculty_id BIGINT REFERENCES faculty(id)
+);
+
+--changeset musatovam:create-avatars-table
+CREATE TABLE IF NOT EXISTS avatars (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    file_path VARCHAR(255),
+    file_size BIGINT NOT NULL,
+    media_type VARCHAR(255),
+    data BYTEA,
+    student_id BIGINT UNIQUE REFERENCES students(id)
+);
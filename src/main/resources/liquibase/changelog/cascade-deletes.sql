@@ -0,0 +1,40 @@
+--liquibase formatted sql
+
+--changeset musatovam:students-faculty-on-delete-cascade splitStatements:false
+-- Имя ограничения зависит от того, кто создал таблицу (Liquibase или Hibernate), поэтому ищем его по столбцу
+DO $$
+DECLARE
+    fk_name TEXT;
+BEGIN
+    FOR fk_name IN
+        SELECT con.conname FROM pg_constraint con
+        JOIN pg_attribute att ON att.attrelid = con.conrelid AND att.attnum = ANY (con.conkey)
+        WHERE con.contype = 'f' AND con.conrelid = 'students'::regclass AND att.attname = 'faculty_id'
+    LOOP
+        EXECUTE format('ALTER TABLE students DROP CONSTRAINT %I', fk_name);
+    END LOOP;
+    ALTER TABLE students ADD CONSTRAINT fk_students_faculty
+        FOREIGN KEY (faculty_id) REFERENCES faculty(id) ON DELETE CASCADE;
+END $$;
+
+--changeset musatovam:avatars-student-on-delete-cascade splitStatements:false
+DO $$
+DECLARE
+    fk_name TEXT;
+BEGIN
+    FOR fk_name IN
+        SELECT con.conname FROM pg_constraint con
+        JOIN pg_attribute att ON att.attrelid = con.conrelid AND att.attnum = ANY (con.conkey)
+        WHERE con.contype = 'f' AND con.conrelid = 'avatars'::regclass AND att.attname = 'student_id'
+    LOOP
+        EXECUTE format('ALTER TABLE avatars DROP CONSTRAINT %I', fk_name);
+    END LOOP;
+    ALTER TABLE avatars ADD CONSTRAINT fk_avatars_student
+        FOREIGN KEY (student_id) REFERENCES students(id) ON DELETE CASCADE;
+END $$;
+
+--changeset musatovam:create-students-faculty-index
+CREATE INDEX IF NOT EXISTS idx_students_faculty_id ON students(faculty_id);
+
+--changeset musatovam:create-avatars-file-path-index
+CREATE INDEX IF NOT EXISTS idx_avatars_file_path ON avatars(file_path);
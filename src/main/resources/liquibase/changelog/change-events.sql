@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset musatovam:create-change-events-table
+CREATE TABLE IF NOT EXISTS change_events (
+    id BIGSERIAL PRIMARY KEY,
+    sequence BIGINT UNIQUE,
+    aggregate VARCHAR(16) NOT NULL,
+    aggregate_id BIGINT NOT NULL,
+    operation VARCHAR(16) NOT NULL,
+    payload TEXT,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
+
+--changeset musatovam:create-change-events-unpublished-index
+CREATE INDEX IF NOT EXISTS idx_change_events_unpublished ON change_events(id) WHERE sequence IS NULL;
+
+--changeset musatovam:create-change-event-sequence
+CREATE SEQUENCE IF NOT EXISTS change_event_sequence;
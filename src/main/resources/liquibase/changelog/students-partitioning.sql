@@ -0,0 +1,101 @@
+--liquibase formatted sql
+
+--changeset musatovam:partition-students-by-faculty splitStatements:false
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:0 SELECT count(*) FROM pg_partitioned_table WHERE partrelid = 'students'::regclass
+-- Таблица пересоздаётся как секционированная по хешу faculty_id, данные копируются в той же транзакции.
+-- У секционированной таблицы первичный и уникальные ключи должны включать ключ секционирования,
+-- а faculty_id может быть NULL, поэтому id уникален в каждой секции, а глобально - за счёт последовательности.
+DO $$
+DECLARE
+    had_name_unique BOOLEAN;
+    fk RECORD;
+    part INT;
+BEGIN
+    LOCK TABLE students IN ACCESS EXCLUSIVE MODE;
+    SELECT EXISTS (SELECT 1 FROM pg_constraint WHERE conrelid = 'students'::regclass AND conname = 'name_unique')
+    INTO had_name_unique;
+
+    -- Столбцы, NOT NULL, значения по умолчанию и CHECK (например, age_check) переносятся как есть, identity - нет
+    CREATE TABLE students_partitioned (LIKE students INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+        PARTITION BY HASH (faculty_id);
+    FOR part IN 0..7 LOOP
+        EXECUTE format('CREATE TABLE students_p%s PARTITION OF students_partitioned '
+                       'FOR VALUES WITH (MODULUS 8, REMAINDER %s)', part, part);
+        EXECUTE format('ALTER TABLE students_p%s ADD CONSTRAINT students_p%s_pkey PRIMARY KEY (id)', part, part);
+    END LOOP;
+
+    INSERT INTO students_partitioned SELECT * FROM students;
+
+    -- Ссылки на старую таблицу (аватары) заменяются триггерами в следующем наборе изменений
+    FOR fk IN
+        SELECT conname, conrelid::regclass AS table_name FROM pg_constraint
+        WHERE contype = 'f' AND confrelid = 'students'::regclass AND conrelid <> 'students'::regclass
+    LOOP
+        EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', fk.table_name, fk.conname);
+    END LOOP;
+    DROP TABLE students;
+    ALTER TABLE students_partitioned RENAME TO students;
+
+    CREATE SEQUENCE students_id_seq OWNED BY students.id;
+    ALTER TABLE students ALTER COLUMN id SET DEFAULT nextval('students_id_seq');
+    PERFORM setval('students_id_seq', COALESCE(max(id), 0) + 1, false) FROM students;
+
+    ALTER TABLE students ADD CONSTRAINT fk_students_faculty
+        FOREIGN KEY (faculty_id) REFERENCES faculty(id) ON DELETE CASCADE;
+
+    -- Индексы создаются на родителе и становятся локальными индексами каждой секции
+    CREATE INDEX idx_students_faculty_id_age ON students(faculty_id, age);
+    CREATE INDEX idx_students_age ON students(age);
+    CREATE INDEX idx_student_name ON students(name);
+
+    IF had_name_unique THEN
+        -- UNIQUE (name) без faculty_id на секционированной таблице невозможен, уникальность проверяет триггер.
+        -- Блокировка по имени упорядочивает конкурентные вставки одного имени,
+        -- а повторная проверка после неё видит уже закоммиченную строку (READ COMMITTED)
+        CREATE FUNCTION students_check_name_unique() RETURNS trigger LANGUAGE plpgsql AS $fn$
+        BEGIN
+            IF NEW.name IS NOT NULL THEN
+                PERFORM pg_advisory_xact_lock(hashtext('students.name'), hashtext(NEW.name));
+                IF EXISTS (SELECT 1 FROM students WHERE name = NEW.name AND id <> NEW.id) THEN
+                    RAISE unique_violation USING CONSTRAINT = 'name_unique',
+                        MESSAGE = 'duplicate key value violates unique constraint "name_unique"',
+                        DETAIL = format('Key (name)=(%s) already exists.', NEW.name);
+                END IF;
+            END IF;
+            RETURN NEW;
+        END $fn$;
+        CREATE TRIGGER name_unique BEFORE INSERT OR UPDATE OF name ON students
+            FOR EACH ROW EXECUTE FUNCTION students_check_name_unique();
+    END IF;
+END $$;
+
+--changeset musatovam:avatars-student-reference-triggers splitStatements:false
+-- Внешний ключ на секционированную таблицу требует уникального ключа на родителе, которого нет.
+-- Те же гарантии дают триггеры: проверка студента с блокировкой FOR KEY SHARE, как у внешнего ключа,
+-- и удаление аватаров вместе со студентами (бывшее ON DELETE CASCADE), одним запросом на оператор
+CREATE OR REPLACE FUNCTION avatars_check_student() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    IF NEW.student_id IS NOT NULL THEN
+        PERFORM 1 FROM students WHERE id = NEW.student_id FOR KEY SHARE;
+        IF NOT FOUND THEN
+            RAISE foreign_key_violation USING CONSTRAINT = 'fk_avatars_student',
+                MESSAGE = 'insert or update on table "avatars" violates foreign key constraint "fk_avatars_student"',
+                DETAIL = format('Key (student_id)=(%s) is not present in table "students".', NEW.student_id);
+        END IF;
+    END IF;
+    RETURN NEW;
+END $$;
+
+CREATE TRIGGER fk_avatars_student BEFORE INSERT OR UPDATE OF student_id ON avatars
+    FOR EACH ROW EXECUTE FUNCTION avatars_check_student();
+
+CREATE OR REPLACE FUNCTION students_delete_avatars() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM avatars a USING deleted d WHERE a.student_id = d.id;
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER students_delete_avatars AFTER DELETE ON students
+    REFERENCING OLD TABLE AS deleted
+    FOR EACH STATEMENT EXECUTE FUNCTION students_delete_avatars();
@@ -0,0 +1,7 @@
+--liquibase formatted sql
+
+--changeset musatovam:add-student-version-column
+ALTER TABLE students ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+--changeset musatovam:add-faculty-version-column
+ALTER TABLE faculty ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,84 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.hogwarts.school.dto.AgeStatistics;
+import ru.hogwarts.school.service.AgeAggregator;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение последовательной и параллельной агрегации на разных объёмах.
+ * Запускается через {@link #main} из test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgeAggregatorBenchmark {
+
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int size;
+
+    private int[] ages;
+    private long[] facultyIds;
+    private ForkJoinPool pool;
+    private AgeAggregator sequential;
+    private AgeAggregator parallel;
+    private AgeAggregator adaptive;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ages = new int[size];
+        facultyIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            ages[i] = 16 + random.nextInt(10);
+            facultyIds[i] = i * 4L / size + 1;
+        }
+        pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        sequential = new AgeAggregator(pool, Integer.MAX_VALUE);
+        parallel = new AgeAggregator(pool, 1);
+        adaptive = new AgeAggregator(pool, 10_000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public AgeStatistics sequential() {
+        return sequential.aggregate(ages, PERCENTILES);
+    }
+
+    @Benchmark
+    public AgeStatistics parallel() {
+        return parallel.aggregate(ages, PERCENTILES);
+    }
+
+    @Benchmark
+    public AgeStatistics adaptive() {
+        return adaptive.aggregate(ages, PERCENTILES);
+    }
+
+    @Benchmark
+    public Map<Long, AgeStatistics> adaptiveGrouped() {
+        return adaptive.aggregateGrouped(facultyIds, ages, PERCENTILES);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AgeAggregatorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.hogwarts.school.service.ImagePreviewGenerator;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение полного декодирования через {@link ImageIO#read} с декодированием с прореживанием.
+ * Пиковую нагрузку на кучу показывает {@code gc.alloc.rate.norm} из {@link GCProfiler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx512m")
+public class ImagePreviewBenchmark {
+
+    @Param({"640x480", "4000x3000", "8000x6000"})
+    private String dimensions;
+
+    private byte[] original;
+    private ImagePreviewGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] parts = dimensions.split("x");
+        BufferedImage image = new BufferedImage(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, image.getWidth(), image.getHeight(), Color.BLUE));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", baos);
+        original = baos.toByteArray();
+        generator = new ImagePreviewGenerator(100, 100_000_000L, 4, 0.85f);
+    }
+
+    @Benchmark
+    public byte[] fullDecode() throws IOException {
+        BufferedImage originalImage = ImageIO.read(new ByteArrayInputStream(original));
+        int targetWidth = 100;
+        int targetHeight = (int) ((double) originalImage.getHeight() / originalImage.getWidth() * targetWidth);
+        BufferedImage preview = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(originalImage, 0, 0, targetWidth, targetHeight, null);
+        graphics.dispose();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(preview, "jpg", baos);
+        return baos.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] subsampledDecode() throws IOException {
+        return generator.generate(new ByteArrayInputStream(original));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ImagePreviewBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,88 @@
+package ru.hogwarts.school.benchmark;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.hogwarts.school.profiling.AvatarUploadPhaseEvent;
+import ru.hogwarts.school.profiling.RepositoryQueryEvent;
+import ru.hogwarts.school.profiling.RequestHandlingEvent;
+import ru.hogwarts.school.service.ImagePreviewGenerator;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы JFR-записи с настройками {@code default} и нашими событиями.
+ * {@code generatePreview} - реальная работа с тремя событиями на вызов: разница между
+ * {@code recording=false} и {@code recording=true} должна оставаться в пределах 1%.
+ * {@code phaseEvent} показывает цену одного события в абсолютных величинах.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JfrOverheadBenchmark {
+
+    @Param({"false", "true"})
+    private boolean recording;
+
+    private byte[] original;
+    private ImagePreviewGenerator generator;
+    private Recording jfr;
+
+    @Setup
+    public void setUp() throws Exception {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, image.getWidth(), image.getHeight(), Color.BLUE));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", baos);
+        original = baos.toByteArray();
+        generator = new ImagePreviewGenerator(100, 100_000_000L, 4, 0.85f);
+
+        if (recording) {
+            jfr = new Recording(Configuration.getConfiguration("default"));
+            jfr.enable(AvatarUploadPhaseEvent.class);
+            jfr.enable(RepositoryQueryEvent.class);
+            jfr.enable(RequestHandlingEvent.class);
+            jfr.setToDisk(true);
+            jfr.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (jfr != null) {
+            jfr.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] generatePreview() throws Exception {
+        return generator.generate(new ByteArrayInputStream(original));
+    }
+
+    @Benchmark
+    public AvatarUploadPhaseEvent phaseEvent() {
+        AvatarUploadPhaseEvent event = AvatarUploadPhaseEvent.start(AvatarUploadPhaseEvent.WRITE, 1);
+        event.finish(1024);
+        return event;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JfrOverheadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,211 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Выборки по факультету из обычной таблицы и из таблицы, секционированной по хешу faculty_id,
+ * как students после миграции {@code students-partitioning.sql}. Перед замерами для каждого запроса печатается
+ * число прочитанных секций и страниц из {@code EXPLAIN (ANALYZE, BUFFERS)} - именно это сокращает отсечение секций.
+ * <p>
+ * Нужна PostgreSQL: параметры подключения - {@code -Dbenchmark.db.url}, {@code -Dbenchmark.db.user},
+ * {@code -Dbenchmark.db.password}, по умолчанию как в application.properties. Таблицы создаются
+ * во временной схеме {@code partition_benchmark} и удаляются после замеров. Запускается через {@link #main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionPruningBenchmark {
+
+    private static final String SCHEMA = "partition_benchmark";
+    private static final int FACULTIES = 16;
+    private static final int PARTITIONS = 8;
+    private static final Pattern PARTITION_SCAN = Pattern.compile(" on students_partitioned_p\\d+(\\s|$)");
+    private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+
+    private static final String FACULTY_AGES = "SELECT count(*), avg(age) FROM %s WHERE faculty_id = ?";
+    private static final String FACULTY_AGE_RANGE = "SELECT id, name, age FROM %s WHERE faculty_id = ? AND age BETWEEN ? AND ?";
+    private static final String AGE_RANGE = "SELECT count(*) FROM %s WHERE age BETWEEN ? AND ?";
+
+    @Param({"100000", "1000000"})
+    private int rows;
+
+    private Connection connection;
+    private PreparedStatement facultyAgesPlain;
+    private PreparedStatement facultyAgesPartitioned;
+    private PreparedStatement facultyAgeRangePlain;
+    private PreparedStatement facultyAgeRangePartitioned;
+    private PreparedStatement ageRangePlain;
+    private PreparedStatement ageRangePartitioned;
+    private long faculty;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("benchmark.db.url", "jdbc:postgresql://localhost:5432/hogwarts"),
+                System.getProperty("benchmark.db.user", "student"),
+                System.getProperty("benchmark.db.password", "chocolatefrog"));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            statement.execute("CREATE SCHEMA " + SCHEMA);
+            statement.execute("SET search_path TO " + SCHEMA);
+
+            statement.execute("CREATE TABLE students_plain (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                    + "age INTEGER NOT NULL, faculty_id BIGINT)");
+            statement.execute("CREATE TABLE students_partitioned (LIKE students_plain INCLUDING DEFAULTS) "
+                    + "PARTITION BY HASH (faculty_id)");
+            for (int i = 0; i < PARTITIONS; i++) {
+                statement.execute("CREATE TABLE students_partitioned_p" + i + " PARTITION OF students_partitioned "
+                        + "FOR VALUES WITH (MODULUS " + PARTITIONS + ", REMAINDER " + i + ")");
+                statement.execute("ALTER TABLE students_partitioned_p" + i + " ADD PRIMARY KEY (id)");
+            }
+            for (String table : new String[]{"students_plain", "students_partitioned"}) {
+                // Студенты факультетов перемешаны по страницам, как после многих лет вставок
+                statement.execute("INSERT INTO " + table + " SELECT g, 'student-' || g, 16 + g % 10, 1 + g % "
+                        + FACULTIES + " FROM generate_series(1, " + rows + ") g");
+                statement.execute("CREATE INDEX ON " + table + " (faculty_id, age)");
+                statement.execute("CREATE INDEX ON " + table + " (age)");
+                statement.execute("VACUUM ANALYZE " + table);
+            }
+        }
+
+        facultyAgesPlain = prepare(FACULTY_AGES, "students_plain");
+        facultyAgesPartitioned = prepare(FACULTY_AGES, "students_partitioned");
+        facultyAgeRangePlain = prepare(FACULTY_AGE_RANGE, "students_plain");
+        facultyAgeRangePartitioned = prepare(FACULTY_AGE_RANGE, "students_partitioned");
+        ageRangePlain = prepare(AGE_RANGE, "students_plain");
+        ageRangePartitioned = prepare(AGE_RANGE, "students_partitioned");
+
+        for (String table : new String[]{"students_plain", "students_partitioned"}) {
+            printPlan(FACULTY_AGES.formatted(table).replace("?", "3"));
+            printPlan(FACULTY_AGE_RANGE.formatted(table).replaceFirst("\\?", "3")
+                    .replaceFirst("\\?", "17").replaceFirst("\\?", "19"));
+            printPlan(AGE_RANGE.formatted(table).replaceFirst("\\?", "17").replaceFirst("\\?", "19"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public void facultyAgesPlain(Blackhole blackhole) throws SQLException {
+        facultyAges(facultyAgesPlain, blackhole);
+    }
+
+    @Benchmark
+    public void facultyAgesPartitioned(Blackhole blackhole) throws SQLException {
+        facultyAges(facultyAgesPartitioned, blackhole);
+    }
+
+    @Benchmark
+    public void facultyAgeRangePlain(Blackhole blackhole) throws SQLException {
+        facultyAgeRange(facultyAgeRangePlain, blackhole);
+    }
+
+    @Benchmark
+    public void facultyAgeRangePartitioned(Blackhole blackhole) throws SQLException {
+        facultyAgeRange(facultyAgeRangePartitioned, blackhole);
+    }
+
+    /**
+     * Без условия по faculty_id отсекать нечего: показывает цену секционирования для таких запросов.
+     */
+    @Benchmark
+    public void ageRangePlain(Blackhole blackhole) throws SQLException {
+        ageRange(ageRangePlain, blackhole);
+    }
+
+    @Benchmark
+    public void ageRangePartitioned(Blackhole blackhole) throws SQLException {
+        ageRange(ageRangePartitioned, blackhole);
+    }
+
+    private void facultyAges(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        statement.setLong(1, nextFaculty());
+        consume(statement, blackhole);
+    }
+
+    private void facultyAgeRange(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        statement.setLong(1, nextFaculty());
+        statement.setInt(2, 17);
+        statement.setInt(3, 19);
+        consume(statement, blackhole);
+    }
+
+    private void ageRange(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        statement.setInt(1, 17);
+        statement.setInt(2, 19);
+        consume(statement, blackhole);
+    }
+
+    private long nextFaculty() {
+        faculty = faculty % FACULTIES + 1;
+        return faculty;
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    blackhole.consume(resultSet.getObject(i));
+                }
+            }
+        }
+    }
+
+    private PreparedStatement prepare(String sql, String table) throws SQLException {
+        return connection.prepareStatement(sql.formatted(table));
+    }
+
+    private void printPlan(String sql) throws SQLException {
+        int partitions = 0;
+        long pages = -1;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            while (resultSet.next()) {
+                String line = resultSet.getString(1);
+                if (PARTITION_SCAN.matcher(line).find()) {
+                    partitions++;
+                }
+                Matcher matcher = BUFFERS.matcher(line);
+                // Первая строка Buffers относится к корневому узлу плана и содержит итог по запросу
+                if (pages < 0 && matcher.find()) {
+                    pages = parse(matcher.group(1)) + parse(matcher.group(2));
+                }
+            }
+        }
+        System.out.printf("%n%-100s partitions scanned: %d, pages: %d%n", sql, partitions, Math.max(pages, 0));
+    }
+
+    private static long parse(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PartitionPruningBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package ru.hogwarts.school.benchmark;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Время от запуска процесса до первого успешного ответа {@code GET /student/count} -
+ * то, чего ждёт балансировщик при выкатке и автомасштабировании. JMH здесь не подходит:
+ * каждое измерение - отдельный процесс JVM, поэтому печатаются медиана и минимум по нескольким запускам.
+ * <p>
+ * Сначала собрать приложение: {@code mvn -Pstartup -DskipTests package}, затем запустить {@link #main}
+ * из корня проекта; аргумент - число запусков на режим. Нужна доступная БД, как и для обычного запуска.
+ */
+public class StartupBenchmark {
+
+    private static final Path TARGET = Path.of("target");
+    private static final int PORT = 18080;
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private record Mode(String name, Path jar, List<String> jvmArgs) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path jar = findJar();
+        Path extracted = TARGET.resolve("app").resolve(jar.getFileName());
+        Path archive = TARGET.resolve("app").resolve("application.jsa");
+
+        List<Mode> modes = new ArrayList<>();
+        modes.add(new Mode("default", jar, List.of()));
+        modes.add(new Mode("prod", jar, List.of("-Dspring.profiles.active=prod")));
+        if (Files.exists(extracted)) {
+            modes.add(new Mode("prod+aot", extracted, List.of(
+                    "-Dspring.profiles.active=prod", "-Dspring.aot.enabled=true")));
+        }
+        if (Files.exists(archive)) {
+            modes.add(new Mode("prod+aot+cds", extracted, List.of(
+                    "-Dspring.profiles.active=prod", "-Dspring.aot.enabled=true",
+                    "-XX:SharedArchiveFile=" + archive)));
+        }
+
+        for (Mode mode : modes) {
+            List<Long> timings = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                timings.add(timeToFirstRequest(mode));
+            }
+            timings.sort(null);
+            System.out.printf("%-14s median %6d ms, min %6d ms (%d runs)%n",
+                    mode.name(), timings.get(timings.size() / 2), timings.get(0), runs);
+        }
+    }
+
+    private static long timeToFirstRequest(Mode mode) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(mode.jvmArgs());
+        command.add("-jar");
+        command.add(mode.jar().toString());
+        command.add("--server.port=" + PORT);
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/student/count")).build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            while (System.nanoTime() - start < STARTUP_TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(mode.name() + ": application exited with code " + process.exitValue());
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return Duration.ofNanos(System.nanoTime() - start).toMillis();
+                    }
+                } catch (ConnectException e) {
+                    // Порт ещё не открыт
+                }
+                Thread.sleep(20);
+            }
+            throw new IllegalStateException(mode.name() + ": no successful response within " + STARTUP_TIMEOUT);
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private static Path findJar() throws IOException {
+        try (Stream<Path> files = Files.list(TARGET)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Build the application first: mvn -Pstartup -DskipTests package"));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ru.hogwarts.school.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.hogwarts.school.dto.FacultyView;
+import ru.hogwarts.school.dto.StudentView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение JSON, Smile и CBOR на списках {@link StudentView}: время сериализации и разбора.
+ * Размеры ответов для каждого размера списка печатаются перед запуском.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class WireFormatBenchmark {
+
+    private static final TypeReference<List<StudentView>> ROSTER = new TypeReference<>() {
+    };
+
+    @Param({"1000", "10000", "100000"})
+    private int students;
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    private ObjectMapper mapper;
+    private List<StudentView> roster;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = mapper(format);
+        roster = roster(students);
+        encoded = mapper.writeValueAsBytes(roster);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return mapper.writeValueAsBytes(roster);
+    }
+
+    @Benchmark
+    public List<StudentView> deserialize() throws IOException {
+        return mapper.readValue(encoded, ROSTER);
+    }
+
+    private static ObjectMapper mapper(String format) {
+        return switch (format) {
+            case "json" -> new ObjectMapper();
+            case "smile" -> new SmileMapper();
+            case "cbor" -> new CBORMapper();
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+    }
+
+    private static List<StudentView> roster(int size) {
+        Random random = new Random(42);
+        List<FacultyView> faculties = List.of(
+                new FacultyView(1L, "Gryffindor", "Red", 3L),
+                new FacultyView(2L, "Slytherin", "Green", 1L),
+                new FacultyView(3L, "Ravenclaw", "Blue", 0L),
+                new FacultyView(4L, "Hufflepuff", "Yellow", 2L));
+        List<StudentView> roster = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            roster.add(new StudentView((long) i, "Student " + Integer.toHexString(random.nextInt()),
+                    11 + random.nextInt(8), (long) random.nextInt(5), faculties.get(random.nextInt(faculties.size()))));
+        }
+        return roster;
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        for (int size : new int[]{1_000, 10_000, 100_000}) {
+            List<StudentView> roster = roster(size);
+            StringBuilder line = new StringBuilder(String.format("%7d students:", size));
+            for (String format : new String[]{"json", "smile", "cbor"}) {
+                line.append(String.format(" %s %,d bytes;", format, mapper(format).writeValueAsBytes(roster).length));
+            }
+            System.out.println(line);
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
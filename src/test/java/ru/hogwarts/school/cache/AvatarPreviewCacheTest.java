@@ -0,0 +1,74 @@
+package ru.hogwarts.school.cache;
+
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.AvatarPreview;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AvatarPreviewCacheTest {
+
+    @Test
+    void get_shouldLoadOnceAndServeHitsFromMemory() {
+        AvatarPreviewCache cache = new AvatarPreviewCache(10_000, 1);
+        int[] loads = new int[1];
+
+        for (int i = 0; i < 3; i++) {
+            cache.get(1L, () -> {
+                loads[0]++;
+                return Optional.of(preview(100));
+            });
+        }
+
+        assertThat(loads[0]).isEqualTo(1);
+        assertThat(cache.getHitRatio()).isEqualTo(2.0 / 3);
+    }
+
+    @Test
+    void put_shouldEvictLeastRecentlyUsedWhenBudgetExceeded() {
+        AvatarPreviewCache cache = new AvatarPreviewCache(1_000, 1);
+
+        cache.get(1L, () -> Optional.of(preview(400)));
+        cache.get(2L, () -> Optional.of(preview(400)));
+        cache.get(1L);
+        cache.get(3L, () -> Optional.of(preview(400)));
+
+        assertThat(cache.get(1L)).isPresent();
+        assertThat(cache.get(2L)).isEmpty();
+        assertThat(cache.getSizeInBytes()).isLessThanOrEqualTo(1_000);
+    }
+
+    @Test
+    void get_shouldNotCacheValueLoadedConcurrentlyWithInvalidation() {
+        AvatarPreviewCache cache = new AvatarPreviewCache(10_000, 1);
+
+        cache.get(1L, () -> {
+            cache.invalidate(1L);
+            return Optional.of(preview(10));
+        });
+
+        assertThat(cache.get(1L)).isEmpty();
+    }
+
+    @Test
+    void loadAll_shouldCachePageExceptInvalidatedDuringLoad() {
+        AvatarPreviewCache cache = new AvatarPreviewCache(10_000, 1);
+
+        Map<Long, AvatarPreview> loaded = cache.loadAll(() -> Map.of(1L, preview(10), 2L, preview(10)));
+        cache.loadAll(() -> {
+            cache.invalidate(3L);
+            return Map.of(3L, preview(10));
+        });
+
+        assertThat(loaded).containsOnlyKeys(1L, 2L);
+        assertThat(cache.get(1L)).isPresent();
+        assertThat(cache.get(2L)).isPresent();
+        assertThat(cache.get(3L)).isEmpty();
+    }
+
+    private static AvatarPreview preview(int size) {
+        return new AvatarPreview(new byte[size], "image/jpeg");
+    }
+}
@@ -0,0 +1,54 @@
+package ru.hogwarts.school.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExistenceFilterTest {
+
+    @Test
+    void definitelyMissing_shouldNeverRejectKnownIdsAndRejectMostUnknownOnes() {
+        ExistenceFilter filter = new ExistenceFilter(0.01);
+        List<Long> ids = LongStream.rangeClosed(1, 20_000).filter(id -> id % 2 == 0).boxed().toList();
+
+        filter.rebuild(ids.size(), afterId -> ids.stream().filter(id -> id > afterId).limit(1000).toList());
+
+        assertThat(ids).noneMatch(filter::definitelyMissing);
+        long rejected = LongStream.rangeClosed(1, 20_000).filter(id -> id % 2 == 1)
+                .filter(filter::definitelyMissing).count();
+        assertThat(rejected).isGreaterThan(9_700);
+        assertThat(filter.getSize()).isEqualTo(10_000);
+    }
+
+    @Test
+    void definitelyMissing_shouldPassIdsNewerThanBuildAndBeforeFirstBuild() {
+        ExistenceFilter filter = new ExistenceFilter(0.01);
+        assertThat(filter.definitelyMissing(1)).isFalse();
+
+        filter.rebuild(3, afterId -> afterId < 30 ? List.of(10L, 20L, 30L) : List.of());
+
+        assertThat(filter.definitelyMissing(31)).isFalse();
+        filter.invalidate();
+        assertThat(filter.definitelyMissing(15)).isFalse();
+    }
+
+    @Test
+    void add_shouldReachFilterBeingBuilt() {
+        ExistenceFilter filter = new ExistenceFilter(0.01);
+
+        filter.rebuild(100, afterId -> {
+            if (afterId == 0) {
+                // Запись закоммичена во время построения, но не попала в прочитанные страницы
+                filter.add(5);
+                return List.of(10L);
+            }
+            return List.of();
+        });
+
+        assertThat(filter.definitelyMissing(5)).isFalse();
+        assertThat(filter.definitelyMissing(10)).isFalse();
+    }
+}
@@ -0,0 +1,110 @@
+package ru.hogwarts.school.cluster;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.dto.AvatarPreview;
+import ru.hogwarts.school.web.TableVersions;
+import ru.hogwarts.school.web.TableVersions.Table;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class InvalidationBatchTest {
+
+    private TableVersions tableVersions;
+    private AvatarPreviewCache previewCache;
+    private ExistenceFilters existenceFilters;
+    private InvalidationBatch batch;
+
+    @BeforeEach
+    void setUp() {
+        tableVersions = new TableVersions();
+        previewCache = new AvatarPreviewCache(1024 * 1024, 4);
+        existenceFilters = mock(ExistenceFilters.class);
+        batch = new InvalidationBatch("local", 2);
+        for (long studentId = 1; studentId <= 4; studentId++) {
+            cache(studentId);
+        }
+    }
+
+    @Test
+    void applyTo_shouldCoalesceRepeatedTableNotifications() {
+        batch.add(InvalidationMessage.tables("remote", Table.STUDENTS));
+        batch.add(InvalidationMessage.tables("remote", Table.STUDENTS, Table.FACULTY));
+        batch.add(InvalidationMessage.tables("other", Table.STUDENTS));
+
+        batch.applyTo(tableVersions, previewCache, existenceFilters);
+
+        assertThat(tableVersions.version(Table.STUDENTS)).isEqualTo(1);
+        assertThat(tableVersions.version(Table.FACULTY)).isEqualTo(1);
+        assertThat(batch.isEmpty()).isTrue();
+    }
+
+    @Test
+    void add_shouldIgnoreOwnAndMalformedMessages() {
+        batch.add(InvalidationMessage.tables("local", Table.STUDENTS));
+        batch.add("garbage");
+        batch.add("remote|T|UNKNOWN");
+        batch.add("remote|A|not-a-number");
+
+        assertThat(batch.isEmpty()).isTrue();
+    }
+
+    @Test
+    void applyTo_shouldInvalidateOnlyNotifiedAvatars() {
+        batch.add(InvalidationMessage.avatar("remote", 1L));
+        batch.add(InvalidationMessage.avatar("remote", 1L));
+        batch.add(InvalidationMessage.avatar("remote", 2L));
+
+        batch.applyTo(tableVersions, previewCache, existenceFilters);
+
+        assertThat(previewCache.get(1L)).isEmpty();
+        assertThat(previewCache.get(2L)).isEmpty();
+        assertThat(previewCache.get(3L)).isPresent();
+        assertThat(tableVersions.version(Table.STUDENTS)).isZero();
+    }
+
+    @Test
+    void applyTo_shouldClearCacheWhenTooManyAvatarsChanged() {
+        batch.add(InvalidationMessage.avatar("remote", 1L));
+        batch.add(InvalidationMessage.avatar("remote", 2L));
+        batch.add(InvalidationMessage.avatar("remote", 3L));
+
+        batch.applyTo(tableVersions, previewCache, existenceFilters);
+
+        assertThat(previewCache.getEntryCount()).isZero();
+    }
+
+    @Test
+    void applyTo_shouldAddSavedStudentsAndAvatarsToExistenceFilters() {
+        batch.add(InvalidationMessage.students("remote", 5L));
+        batch.add(InvalidationMessage.avatar("remote", 1L));
+
+        batch.applyTo(tableVersions, previewCache, existenceFilters);
+
+        verify(existenceFilters).studentAdded(5L);
+        verify(existenceFilters).avatarAdded(1L);
+        assertThat(batch.isEmpty()).isTrue();
+    }
+
+    @Test
+    void invalidateAll_shouldResetEverything() {
+        batch.invalidateAll();
+
+        batch.applyTo(tableVersions, previewCache, existenceFilters);
+
+        assertThat(previewCache.getEntryCount()).isZero();
+        assertThat(tableVersions.version(Table.STUDENTS)).isEqualTo(1);
+        assertThat(tableVersions.version(Table.FACULTY)).isEqualTo(1);
+        verify(existenceFilters).invalidate();
+    }
+
+    private void cache(long studentId) {
+        previewCache.get(studentId, () -> Optional.of(new AvatarPreview(new byte[16], "image/jpeg")));
+    }
+}
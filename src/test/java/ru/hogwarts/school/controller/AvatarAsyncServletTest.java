@@ -0,0 +1,275 @@
+package ru.hogwarts.school.controller;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.InputStreamSource;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Сервлет проверяется во встроенном Tomcat: MockMvc не поддерживает ReadListener и WriteListener.
+ */
+@ExtendWith(MockitoExtension.class)
+class AvatarAsyncServletTest {
+
+    private static final int MAX_UPLOAD_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    private AvatarService avatarService;
+
+    @Mock
+    private ExistenceFilters existenceFilters;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Tomcat tomcat;
+    private int port;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (tomcat != null) {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+        pool.shutdownNow();
+    }
+
+    @Test
+    void upload_shouldStoreBody() throws Exception {
+        start(pool, 10_000);
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        doAnswer(invocation -> {
+            try (InputStream is = invocation.<InputStreamSource>getArgument(1).getInputStream()) {
+                stored.set(is.readAllBytes());
+            }
+            return null;
+        }).when(avatarService).uploadAvatar(eq(1L), any(), eq("image/png"), eq("png"), eq(5L));
+
+        assertThat(put(1, "image/png", new byte[]{1, 2, 3, 4, 5}).statusCode()).isEqualTo(200);
+        assertThat(stored.get()).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void upload_shouldReturnBadRequestWhenServiceRejectsFile() throws Exception {
+        start(pool, 10_000);
+        doThrow(new IllegalArgumentException("Файл должен быть изображением"))
+                .when(avatarService).uploadAvatar(eq(1L), any(), any(), any(), anyLong());
+
+        assertThat(put(1, "image/png", new byte[]{1}).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void upload_shouldReturnNotFoundForMissingStudent() throws Exception {
+        start(pool, 10_000);
+        when(existenceFilters.studentMissing(2L)).thenReturn(true);
+        doThrow(new NoSuchElementException("Студент не найден"))
+                .when(avatarService).uploadAvatar(eq(3L), any(), any(), any(), anyLong());
+
+        assertThat(put(2, "image/png", new byte[]{1}).statusCode()).isEqualTo(404);
+        assertThat(put(3, "image/png", new byte[]{1}).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void upload_shouldRejectTooLargeBody() throws Exception {
+        start(pool, 10_000);
+        byte[] body = new byte[MAX_UPLOAD_SIZE + 1];
+
+        assertThat(put(1, "image/png", body).statusCode()).isEqualTo(413);
+        // Без Content-Length предел проверяется по мере чтения
+        HttpResponse<String> chunked = client.send(request(1)
+                        .header("Content-Type", "image/png")
+                        .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body)))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(chunked.statusCode()).isEqualTo(413);
+        verify(avatarService, never()).uploadAvatar(anyLong(), any(), any(), any(), anyLong());
+    }
+
+    @Test
+    void upload_shouldReturnServiceUnavailableWhenPoolIsSaturated() throws Exception {
+        start(command -> {
+            throw new RejectedExecutionException();
+        }, 10_000);
+
+        assertThat(put(1, "image/png", new byte[]{1}).statusCode()).isEqualTo(503);
+        verify(avatarService, never()).uploadAvatar(anyLong(), any(), any(), any(), anyLong());
+    }
+
+    @Test
+    void upload_shouldKeepTemporaryFileWhenTimingOutDuringStore() throws Exception {
+        start(pool, 100);
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        doAnswer(invocation -> {
+            // Таймаут контейнера срабатывает, пока сервис ещё сохраняет файл
+            Thread.sleep(2500);
+            try (InputStream is = invocation.<InputStreamSource>getArgument(1).getInputStream()) {
+                stored.set(is.readAllBytes());
+            }
+            return null;
+        }).when(avatarService).uploadAvatar(eq(1L), any(), any(), any(), anyLong());
+
+        int status = put(1, "image/png", new byte[]{7, 8, 9}).statusCode();
+
+        assertThat(status).isNotEqualTo(408);
+        verify(avatarService).uploadAvatar(eq(1L), any(), any(), any(), anyLong());
+        Thread.sleep(3000);
+        assertThat(stored.get()).containsExactly(7, 8, 9);
+    }
+
+    @Test
+    void download_shouldStreamFileInChunks() throws Exception {
+        start(pool, 10_000);
+        byte[] data = randomBytes(200_000);
+        Path file = Files.write(dir.resolve("1.png"), data);
+        Avatar avatar = avatar(data.length);
+        when(avatarService.findAvatar(1L)).thenReturn(avatar);
+        when(avatarService.avatarDataExists(avatar)).thenReturn(true);
+        when(avatarService.getAvatarDataPath(avatar)).thenReturn(Optional.of(file));
+
+        HttpResponse<byte[]> response = get(1);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Type")).hasValue("image/png");
+        assertThat(response.body()).isEqualTo(data);
+    }
+
+    @Test
+    void download_shouldWriteMappedData() throws Exception {
+        start(pool, 10_000);
+        byte[] data = randomBytes(100_000);
+        Avatar avatar = avatar(data.length);
+        when(avatarService.findAvatar(1L)).thenReturn(avatar);
+        when(avatarService.avatarDataExists(avatar)).thenReturn(true);
+        when(avatarService.mapAvatarData(avatar)).thenReturn(Optional.of(ByteBuffer.wrap(data)));
+
+        HttpResponse<byte[]> response = get(1);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo(data);
+    }
+
+    @Test
+    void download_shouldCopyStreamWithoutFile() throws Exception {
+        start(pool, 10_000);
+        byte[] data = randomBytes(150_000);
+        Avatar avatar = avatar(data.length);
+        when(avatarService.findAvatar(1L)).thenReturn(avatar);
+        when(avatarService.avatarDataExists(avatar)).thenReturn(true);
+        when(avatarService.openAvatarData(avatar)).thenReturn(new ByteArrayInputStream(data));
+
+        HttpResponse<byte[]> response = get(1);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo(data);
+    }
+
+    @Test
+    void download_shouldRedirectToDirectUrl() throws Exception {
+        start(pool, 10_000);
+        Avatar avatar = avatar(1);
+        when(avatarService.findAvatar(1L)).thenReturn(avatar);
+        when(avatarService.getAvatarDownloadUrl(avatar)).thenReturn(Optional.of(URI.create("https://cdn.example/1.png")));
+
+        HttpResponse<byte[]> response = get(1);
+
+        assertThat(response.statusCode()).isEqualTo(302);
+        assertThat(response.headers().firstValue("Location")).hasValue("https://cdn.example/1.png");
+    }
+
+    @Test
+    void download_shouldReturnNotFoundForMissingAvatar() throws Exception {
+        start(pool, 10_000);
+        when(existenceFilters.avatarMissing(2L)).thenReturn(true);
+        when(avatarService.findAvatar(3L)).thenThrow(new NoSuchElementException("Аватар не найден"));
+        Avatar withoutData = avatar(1);
+        when(avatarService.findAvatar(4L)).thenReturn(withoutData);
+
+        assertThat(get(2).statusCode()).isEqualTo(404);
+        assertThat(get(3).statusCode()).isEqualTo(404);
+        assertThat(get(4).statusCode()).isEqualTo(404);
+        verify(avatarService, never()).findAvatar(2L);
+    }
+
+    private void start(Executor executor, long timeoutMillis) throws Exception {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(dir.resolve("tomcat").toString());
+        Connector connector = new Connector();
+        connector.setPort(0);
+        tomcat.setConnector(connector);
+        Context context = tomcat.addContext("", null);
+        Wrapper wrapper = Tomcat.addServlet(context, "avatarAsyncServlet",
+                new AvatarAsyncServlet(avatarService, existenceFilters, executor, MAX_UPLOAD_SIZE, timeoutMillis));
+        wrapper.setAsyncSupported(true);
+        context.addServletMappingDecoded("/avatar/async/*", "avatarAsyncServlet");
+        tomcat.start();
+        port = connector.getLocalPort();
+    }
+
+    private HttpRequest.Builder request(long studentId) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/avatar/async/" + studentId));
+    }
+
+    private HttpResponse<String> put(long studentId, String contentType, byte[] body) throws Exception {
+        return client.send(request(studentId)
+                        .header("Content-Type", contentType)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<byte[]> get(long studentId) throws Exception {
+        return client.send(request(studentId).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static Avatar avatar(long size) {
+        Avatar avatar = new Avatar();
+        avatar.setStorageKey("1.png");
+        avatar.setFileSize(size);
+        avatar.setMediaType("image/png");
+        return avatar;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,164 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.hogwarts.school.cache.AvatarPreviewCache;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.dto.StudentAvatarPreview;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarControllerMockTest {
+
+    private static final int MAX_BATCH_SIZE = 3;
+
+    private MockMvc mockMvc;
+
+    @Mock
+    private AvatarRepository avatarRepository;
+
+    @Mock
+    private ExistenceFilters existenceFilters;
+
+    @BeforeEach
+    void setUp() {
+        // Настоящий сервис: границы страницы и порядок превью проверяются вместе с форматом ответа
+        AvatarService avatarService = new AvatarService(null, avatarRepository, null,
+                new AvatarPreviewCache(1 << 20, 1), null, null, null, null, MAX_BATCH_SIZE);
+        mockMvc = MockMvcBuilders.standaloneSetup(new AvatarController(avatarService, existenceFilters))
+                .setControllerAdvice(new RestExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldWriteBinaryBatch() throws Exception {
+        when(avatarRepository.findPreviewsByStudentIdIn(anyCollection())).thenReturn(List.of(
+                new StudentAvatarPreview(1L, new byte[]{1, 2, 3}, "image/png"),
+                new StudentAvatarPreview(2L, new byte[]{4}, "image/jpeg")));
+
+        MvcResult result = mockMvc.perform(get("/avatar/previews").param("studentIds", "1,2,3"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(AvatarController.PREVIEW_BATCH_MEDIA_TYPE))
+                .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        assertThat(result.getResponse().getHeader("Content-Length")).isEqualTo(String.valueOf(body.length));
+        Map<Long, Decoded> previews = decode(body);
+        assertThat(previews).containsOnlyKeys(1L, 2L);
+        assertThat(previews.get(1L).mediaType()).isEqualTo("image/png");
+        assertThat(previews.get(1L).data()).containsExactly(1, 2, 3);
+        assertThat(previews.get(2L).mediaType()).isEqualTo("image/jpeg");
+        assertThat(previews.get(2L).data()).containsExactly(4);
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldWriteEmptyBatch() throws Exception {
+        when(avatarRepository.findPreviewsByFacultyId(eq(1L), eq(0L), any(Limit.class))).thenReturn(List.of());
+
+        byte[] body = mockMvc.perform(get("/avatar/previews").param("facultyId", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Length", "4"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(decode(body)).isEmpty();
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldPageFacultyAfterStudent() throws Exception {
+        when(avatarRepository.findPreviewsByFacultyId(1L, 5L, Limit.of(2))).thenReturn(List.of(
+                new StudentAvatarPreview(6L, new byte[]{6}, "image/png"),
+                new StudentAvatarPreview(9L, new byte[]{9}, "image/png")));
+
+        byte[] body = mockMvc.perform(get("/avatar/previews")
+                        .param("facultyId", "1")
+                        .param("afterStudentId", "5")
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(decode(body).keySet()).containsExactly(6L, 9L);
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldUseLargestPageByDefault() throws Exception {
+        when(avatarRepository.findPreviewsByFacultyId(1L, 0L, Limit.of(MAX_BATCH_SIZE))).thenReturn(List.of());
+
+        mockMvc.perform(get("/avatar/previews").param("facultyId", "1"))
+                .andExpect(status().isOk());
+
+        verify(avatarRepository).findPreviewsByFacultyId(1L, 0L, Limit.of(MAX_BATCH_SIZE));
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldRejectLimitOutOfBounds() throws Exception {
+        mockMvc.perform(get("/avatar/previews").param("facultyId", "1").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/avatar/previews").param("facultyId", "1")
+                        .param("limit", String.valueOf(MAX_BATCH_SIZE + 1)))
+                .andExpect(status().isBadRequest());
+
+        verify(avatarRepository, never()).findPreviewsByFacultyId(anyLong(), anyLong(), any(Limit.class));
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldRejectTooManyStudents() throws Exception {
+        mockMvc.perform(get("/avatar/previews").param("studentIds", "1,2,3,4"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(avatarRepository);
+    }
+
+    @Test
+    void downloadAvatarPreviews_shouldRequireExactlyOneSource() throws Exception {
+        mockMvc.perform(get("/avatar/previews"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/avatar/previews").param("studentIds", "1").param("facultyId", "1"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(avatarRepository);
+    }
+
+    private record Decoded(String mediaType, byte[] data) {
+    }
+
+    private static Map<Long, Decoded> decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        int count = in.readInt();
+        Map<Long, Decoded> previews = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            long studentId = in.readLong();
+            String mediaType = in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            previews.put(studentId, new Decoded(mediaType, data));
+        }
+        assertThat(in.read()).isEqualTo(-1);
+        return previews;
+    }
+}
@@ -0,0 +1,133 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+import ru.hogwarts.school.web.ChangeEventBroker;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeEventControllerMockTest {
+
+    private MockMvc mockMvc;
+
+    @Mock
+    private ChangeEventRepository changeEventRepository;
+
+    private ChangeEventBroker broker;
+
+    @BeforeEach
+    void setUp() {
+        broker = new ChangeEventBroker(changeEventRepository, 100, 60_000);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ChangeEventController(broker, 60)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.shutdown();
+    }
+
+    @Test
+    void getChanges_shouldAnswerAvailableEventsAfterSequence() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(5L), any(Limit.class)))
+                .thenReturn(List.of(event(6L, 1L), event(7L, 2L)));
+
+        MvcResult result = mockMvc.perform(get("/changes").param("after", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].sequence").value(6))
+                .andExpect(jsonPath("$[0].payload.id").value(1))
+                .andExpect(jsonPath("$[1].sequence").value(7));
+    }
+
+    @Test
+    void getChanges_shouldWaitForRelayWhenNothingNew() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(7L), any(Limit.class)))
+                .thenReturn(List.of())
+                .thenReturn(List.of(event(8L, 3L)));
+        broker.onPublished(7L);
+
+        MvcResult result = mockMvc.perform(get("/changes").param("after", "7").param("wait", "30"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertThat(result.getResponse().getContentAsString()).isEmpty();
+
+        broker.onPublished(8L);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].sequence").value(8))
+                .andExpect(jsonPath("$[0].payload.id").value(3));
+    }
+
+    @Test
+    void streamChanges_shouldResumeFromLastEventId() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(7L), any(Limit.class)))
+                .thenReturn(List.of(event(8L, 3L), event(9L, 4L)));
+
+        MvcResult result = mockMvc.perform(get("/changes/stream")
+                        .param("after", "0")
+                        .header("Last-Event-ID", "7"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = awaitContent(result, "id:9");
+        assertThat(body).contains("id:8\nevent:STUDENT\n").doesNotContain("id:7\n");
+        verify(changeEventRepository, never()).findBySequenceGreaterThanOrderBySequence(eq(0L), any(Limit.class));
+    }
+
+    @Test
+    void streamChanges_shouldStartAfterParameterWithoutLastEventId() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(3L), any(Limit.class)))
+                .thenReturn(List.of(event(4L, 1L)));
+
+        MvcResult result = mockMvc.perform(get("/changes/stream").param("after", "3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat(awaitContent(result, "id:4")).contains("\"aggregateId\":1");
+    }
+
+    private static ChangeEvent event(long sequence, long studentId) {
+        ChangeEvent event = new ChangeEvent(Aggregate.STUDENT, studentId, Operation.UPDATED, "{\"id\":" + studentId + "}");
+        event.setSequence(sequence);
+        return event;
+    }
+
+    private static String awaitContent(MvcResult result, String expected) throws Exception {
+        String body = result.getResponse().getContentAsString();
+        for (int i = 0; i < 200 && !body.contains(expected); i++) {
+            Thread.sleep(10);
+            body = result.getResponse().getContentAsString();
+        }
+        assertThat(body).contains(expected);
+        return body;
+    }
+}
@@ -5,18 +5,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.hogwarts.school.cache.SingleFlight;
+import ru.hogwarts.school.dto.FieldSelection;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.web.TableVersions;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -30,6 +36,12 @@ class FacultyControllerMockTest {
     @Mock
     private FacultyService facultyService;
 
+    @Spy
+    private SingleFlight singleFlight = new SingleFlight(1000);
+
+    @Spy
+    private TableVersions tableVersions = new TableVersions();
+
     @InjectMocks
     private FacultyController facultyController;
 
@@ -69,6 +81,27 @@ class FacultyControllerMockTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void getFacultyById_shouldReturnOnlyRequestedFields() throws Exception {
+        when(facultyService.getFacultyById(eq(1L), any(FieldSelection.class)))
+                .thenReturn(Optional.of(Map.of("id", 1L, "name", "Gryffindor")));
+
+        mockMvc.perform(get("/faculty/1").param("fields", "name,id"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Gryffindor"))
+                .andExpect(jsonPath("$.color").doesNotExist());
+
+        verify(facultyService).getFacultyById(1L, new FieldSelection(List.of("name", "id")));
+    }
+
+    @Test
+    void getFacultyById_shouldRejectUnknownFieldForCborClient() throws Exception {
+        mockMvc.perform(get("/faculty/1")
+                        .param("fields", "motto")
+                        .accept("application/cbor"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void updateFaculty_shouldReturnUpdatedFaculty() throws Exception {
         Faculty updated = new Faculty(1L, "Gryffindor Updated", "Scarlet");
@@ -96,6 +129,19 @@ class FacultyControllerMockTest {
                 .andExpect(jsonPath("$[0].name").value("Gryffindor"));
     }
 
+    @Test
+    void getFacultiesByColor_shouldNotJoinFlightStartedBeforeWrite() throws Exception {
+        when(facultyService.getFacultiesByColor("Red")).thenReturn(List.of(testFaculty));
+        String before = "faculty:color:Red:" + tableVersions.etag(TableVersions.Table.FACULTY);
+
+        mockMvc.perform(get("/faculty/color/Red")).andExpect(status().isOk());
+        tableVersions.bump(TableVersions.Table.FACULTY);
+        mockMvc.perform(get("/faculty/color/Red")).andExpect(status().isOk());
+
+        verify(singleFlight).execute(eq(before), any());
+        verify(singleFlight).execute(eq("faculty:color:Red:" + tableVersions.etag(TableVersions.Table.FACULTY)), any());
+    }
+
     @Test
     void searchFaculties_shouldReturnMatchingFaculties() throws Exception {
         when(facultyService.searchFaculties(anyString())).thenReturn(List.of(testFaculty));
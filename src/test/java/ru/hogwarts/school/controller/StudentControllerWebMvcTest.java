@@ -1,24 +1,43 @@
 package ru.hogwarts.school.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.hogwarts.school.cache.ExistenceFilters;
+import ru.hogwarts.school.cache.SingleFlight;
+import ru.hogwarts.school.dto.EntityVersion;
+import ru.hogwarts.school.dto.FieldSelection;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.web.TableVersions;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -30,6 +49,15 @@ class StudentControllerMockTest {
     @Mock
     private StudentService studentService;
 
+    @Spy
+    private SingleFlight singleFlight = new SingleFlight(1000);
+
+    @Mock
+    private ExistenceFilters existenceFilters;
+
+    @Spy
+    private TableVersions tableVersions = new TableVersions();
+
     @InjectMocks
     private StudentController studentController;
 
@@ -38,7 +66,17 @@ class StudentControllerMockTest {
 
     @BeforeEach
     void setUp() {
-        mockMvc = MockMvcBuilders.standaloneSetup(studentController).build();
+        mockMvc = MockMvcBuilders.standaloneSetup(studentController)
+                .setControllerAdvice(new RestExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void getAgeStatistics_shouldRejectPercentileOutOfRange() throws Exception {
+        mockMvc.perform(get("/student/statistics/age").param("percentiles", "50,101"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/student/statistics/age/by-faculty").param("percentiles", "-1"))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -62,6 +100,40 @@ class StudentControllerMockTest {
                 .andExpect(jsonPath("$.name").value("Harry Potter"));
     }
 
+    @Test
+    void getStudentById_shouldTagResponseWithStudentAndFacultyVersions() throws Exception {
+        Student student = new Student(1L, "Harry Potter", 12);
+        student.setVersion(3L);
+        testFaculty.setVersion(7L);
+        student.setFaculty(testFaculty);
+        when(studentService.getStudentById(1L)).thenReturn(Optional.of(student));
+
+        mockMvc.perform(get("/student/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"v3-f7\""));
+    }
+
+    @Test
+    void getStudentById_shouldAnswerNotModifiedFromVersionsOnly() throws Exception {
+        when(studentService.getStudentVersion(1L)).thenReturn(Optional.of(new EntityVersion(3L, 7L)));
+
+        mockMvc.perform(get("/student/1").header("If-None-Match", "W/\"v3-f7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "W/\"v3-f7\""));
+
+        verify(studentService, never()).getStudentById(anyLong());
+    }
+
+    @Test
+    void getStudentById_shouldAnswerDefiniteMissWithoutService() throws Exception {
+        when(existenceFilters.studentMissing(999L)).thenReturn(true);
+
+        mockMvc.perform(get("/student/999"))
+                .andExpect(status().isNotFound());
+
+        verify(studentService, never()).getStudentById(anyLong());
+    }
+
     @Test
     void getStudentById_shouldReturnNotFoundWhenNotExists() throws Exception {
         when(studentService.getStudentById(anyLong())).thenReturn(Optional.empty());
@@ -88,6 +160,24 @@ class StudentControllerMockTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void deleteStudents_shouldReturnDeletedIds() throws Exception {
+        when(studentService.deleteStudents(anyList())).thenReturn(List.of(1L, 3L));
+
+        mockMvc.perform(delete("/student").param("ids", "1,2,3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value(1))
+                .andExpect(jsonPath("$[1]").value(3));
+    }
+
+    @Test
+    void deleteStudents_shouldReturnBadRequestWhenTooManyIds() throws Exception {
+        when(studentService.deleteStudents(anyList())).thenThrow(new IllegalArgumentException("Too many students"));
+
+        mockMvc.perform(delete("/student").param("ids", "1,2,3"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getStudentsByAge_shouldReturnStudentsList() throws Exception {
         when(studentService.getStudentsByAge(anyInt())).thenReturn(Collections.singletonList(testStudent));
@@ -97,6 +187,46 @@ class StudentControllerMockTest {
                 .andExpect(jsonPath("$[0].name").value("Harry Potter"));
     }
 
+    @Test
+    void getStudentsByAge_shouldReturnCborWhenRequested() throws Exception {
+        testStudent.setFaculty(testFaculty);
+        when(studentService.getStudentsByAge(anyInt())).thenReturn(Collections.singletonList(testStudent));
+
+        byte[] body = mockMvc.perform(get("/student/age/12").accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode students = new CBORMapper().readTree(body);
+        assertThat(students.get(0).get("name").asText()).isEqualTo("Harry Potter");
+        assertThat(students.get(0).get("faculty").get("name").asText()).isEqualTo("Gryffindor");
+    }
+
+    @Test
+    void getStudentsByAge_shouldReturnOnlyRequestedFields() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 1L);
+        row.put("faculty", Map.of("name", "Gryffindor"));
+        when(studentService.getStudentsByAge(eq(12), any(FieldSelection.class))).thenReturn(List.of(row));
+
+        mockMvc.perform(get("/student/age/12").param("fields", "id, faculty.name"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[0].faculty.name").value("Gryffindor"))
+                .andExpect(jsonPath("$[0].name").doesNotExist());
+
+        verify(studentService).getStudentsByAge(12, new FieldSelection(List.of("id", "faculty.name")));
+        verify(studentService, never()).getStudentsByAge(anyInt());
+    }
+
+    @Test
+    void getStudent_shouldRejectUnknownField() throws Exception {
+        mockMvc.perform(get("/student/1").param("fields", "id,house"))
+                .andExpect(status().isBadRequest());
+
+        verify(studentService, never()).getStudentById(anyLong(), any(FieldSelection.class));
+    }
+
     @Test
     void getStudentFaculty_shouldReturnFaculty() throws Exception {
         when(studentService.getStudentFaculty(anyLong())).thenReturn(testFaculty);
@@ -105,4 +235,90 @@ class StudentControllerMockTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.name").value("Gryffindor"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void getStudentFaculty_shouldReturnNotFoundWhenStudentMissing() throws Exception {
+        when(studentService.getStudentFaculty(999L)).thenThrow(new NoSuchElementException("Student not found"));
+
+        mockMvc.perform(get("/student/999/faculty"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void deleteStudent_shouldReturnNotFoundWhenNotExists() throws Exception {
+        doThrow(new NoSuchElementException("Student not found with ID: 999")).when(studentService).deleteStudent(999L);
+
+        mockMvc.perform(delete("/student/999"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void patchStudent_shouldPassVersionFromIfMatch() throws Exception {
+        when(studentService.patchStudent(eq(1L), anyMap(), eq(3L))).thenReturn(true);
+
+        mockMvc.perform(patch("/student/1")
+                        .contentType("application/merge-patch+json")
+                        .header("If-Match", "W/\"3\"")
+                        .content("{\"age\":13}"))
+                .andExpect(status().isNoContent());
+
+        verify(studentService).patchStudent(1L, Map.of("age", 13), 3L);
+    }
+
+    @Test
+    void patchStudent_shouldAcceptEtagFromGet() throws Exception {
+        when(studentService.patchStudent(eq(1L), anyMap(), eq(3L))).thenReturn(true);
+
+        mockMvc.perform(patch("/student/1")
+                        .contentType("application/merge-patch+json")
+                        .header("If-Match", "W/\"v3-f7\"")
+                        .content("{\"name\":null}"))
+                .andExpect(status().isNoContent());
+
+        Map<String, Object> clearName = new LinkedHashMap<>();
+        clearName.put("name", null);
+        verify(studentService).patchStudent(1L, clearName, 3L);
+    }
+
+    @Test
+    void patchStudent_shouldReturnConflictForListEtag() throws Exception {
+        mockMvc.perform(patch("/student/1")
+                        .contentType("application/merge-patch+json")
+                        .header("If-Match", "W/\"5f3a9c-2-1\"")
+                        .content("{\"age\":13}"))
+                .andExpect(status().isConflict());
+
+        verify(studentService, never()).patchStudent(anyLong(), anyMap(), any());
+    }
+
+    @Test
+    void patchStudent_shouldReturnNotFoundWhenNotExists() throws Exception {
+        when(studentService.patchStudent(eq(999L), anyMap(), isNull())).thenReturn(false);
+
+        mockMvc.perform(patch("/student/999")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"name\":\"Ron\"}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void patchStudent_shouldReturnConflictOnStaleVersion() throws Exception {
+        when(studentService.patchStudent(eq(1L), anyMap(), eq(2L)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Student.class, 1L));
+
+        mockMvc.perform(patch("/student/1")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"name\":\"Ron\",\"version\":2}")
+                        .header("If-Match", "\"2\""))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void patchStudent_shouldRejectMalformedIfMatch() throws Exception {
+        mockMvc.perform(patch("/student/1")
+                        .contentType("application/merge-patch+json")
+                        .header("If-Match", "\"abc\"")
+                        .content("{\"age\":13}"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,70 @@
+package ru.hogwarts.school.profiling;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlStatisticsTest {
+
+    @Test
+    void normalize_shouldCollapseLiteralsAndInLists() {
+        assertThat(SqlShapes.normalize("SELECT * FROM students  WHERE name = 'O''Brien'\n AND id IN (1, 2,3) AND age > 11"))
+                .isEqualTo("SELECT * FROM students WHERE name = ? AND id in (?...) AND age > ?");
+        assertThat(SqlShapes.normalize("select s1_0.id from students s1_0 where s1_0.id in (?,?)"))
+                .isEqualTo(SqlShapes.normalize("select s1_0.id from students s1_0 where s1_0.id in (?,?,?,?)"));
+    }
+
+    @Test
+    void isExplainable_shouldAllowOnlyReadOnlyQueries() {
+        assertThat(SqlShapes.isExplainable("select * from students where age between ? and ?")).isTrue();
+        assertThat(SqlShapes.isExplainable("with deleted as (delete from students returning id) select * from deleted"))
+                .isFalse();
+        assertThat(SqlShapes.isExplainable("select * from students where id = ? for update")).isFalse();
+        assertThat(SqlShapes.isExplainable("update students set age = ? where id = ?")).isFalse();
+    }
+
+    @Test
+    void record_shouldAggregateByShapeAndRequestPlanForSlowSelect() {
+        SqlStatistics statistics = new SqlStatistics(100, 10, true, 1.0, 60_000, 3);
+        long fast = Duration.ofMillis(5).toNanos();
+        long slow = Duration.ofMillis(250).toNanos();
+
+        assertThat(statistics.record("select * from students where id in (?, ?)", "StudentRepository.findAllById",
+                fast, 2, false)).isFalse();
+        assertThat(statistics.record("select * from students where id in (?)", null, slow, 1, false)).isTrue();
+        // Следующий план для той же формы - только после min-interval
+        assertThat(statistics.record("select * from students where id in (?, ?, ?)", null, slow, 3, false)).isFalse();
+        assertThat(statistics.record("delete from students where id = ?", null, slow, 1, false)).isFalse();
+        statistics.addExplain("select * from students where id in (?)", slow, "Seq Scan on students");
+
+        List<SqlStatistics.ShapeSnapshot> top = statistics.top("calls", 10);
+
+        assertThat(top).hasSize(2);
+        SqlStatistics.ShapeSnapshot select = top.get(0);
+        assertThat(select.shape()).isEqualTo("select * from students where id in (?...)");
+        assertThat(select.origin()).isEqualTo("StudentRepository.findAllById");
+        assertThat(select.calls()).isEqualTo(3);
+        assertThat(select.rows()).isEqualTo(6);
+        assertThat(select.slow()).isEqualTo(2);
+        assertThat(select.maxMs()).isEqualTo(250.0);
+        assertThat(select.explains()).extracting(SqlStatistics.ExplainSample::plan)
+                .containsExactly("Seq Scan on students");
+    }
+
+    @Test
+    void record_shouldFoldShapesBeyondLimit() {
+        SqlStatistics statistics = new SqlStatistics(100, 2, false, 1.0, 60_000, 3);
+
+        statistics.record("select a from t", null, 1, 1, false);
+        statistics.record("select b from t", null, 1, 1, false);
+        statistics.record("select c from t", null, 1, 1, false);
+        statistics.record("select d from t", null, 1, 1, true);
+
+        assertThat(statistics.top("total", 10)).extracting(SqlStatistics.ShapeSnapshot::shape)
+                .contains(SqlStatistics.OVERFLOW_SHAPE)
+                .hasSize(3);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.hogwarts.school.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.ChangeOutbox;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Transactional
+@SpringBootTest
+@ActiveProfiles("test")
+class BulkDeleteRepositoryTest {
+
+    @Autowired
+    private BulkDeleteRepository bulkDeleteRepository;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private FacultyRepository facultyRepository;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    @Autowired
+    private ChangeOutbox changeOutbox;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void deleteStudents_shouldWriteDeletedEventsInOutboxFormat() throws Exception {
+        Student student = studentRepository.save(new Student(null, "Harry", 11));
+
+        List<BulkDeleteRepository.DeletedStudent> deleted = bulkDeleteRepository.deleteStudents(List.of(student.getId()));
+
+        assertThat(deleted).extracting(BulkDeleteRepository.DeletedStudent::id).containsExactly(student.getId());
+        ChangeEvent event = lastEvent(Aggregate.STUDENT, student.getId());
+        assertThat(event.getOperation()).isEqualTo(Operation.DELETED);
+        assertThat(payload(event)).isEqualTo(outboxPayload(Aggregate.STUDENT, student.getId()));
+    }
+
+    @Test
+    void deleteFaculty_shouldWriteDeletedEventInSameShapeAsStudents() throws Exception {
+        Faculty faculty = facultyRepository.save(new Faculty(null, "Hufflepuff", "Yellow"));
+        Student student = new Student(null, "Cedric", 17);
+        student.setFaculty(faculty);
+        student = studentRepository.save(student);
+
+        bulkDeleteRepository.deleteStudentsByFaculty(faculty.getId());
+        assertThat(bulkDeleteRepository.deleteFaculty(faculty.getId())).isTrue();
+
+        JsonNode facultyPayload = payload(lastEvent(Aggregate.FACULTY, faculty.getId()));
+        JsonNode studentPayload = payload(lastEvent(Aggregate.STUDENT, student.getId()));
+        assertThat(facultyPayload).isEqualTo(outboxPayload(Aggregate.FACULTY, faculty.getId()));
+        assertThat(studentPayload).isEqualTo(objectMapper.createObjectNode().put("id", student.getId()));
+    }
+
+    /**
+     * Полезная нагрузка, которую для того же идентификатора без изменённых полей пишет {@link ChangeOutbox}.
+     */
+    private JsonNode outboxPayload(Aggregate aggregate, Long id) throws Exception {
+        changeOutbox.recordPatch(aggregate, id, Map.of());
+        return payload(lastEvent(aggregate, id));
+    }
+
+    private ChangeEvent lastEvent(Aggregate aggregate, Long id) {
+        return changeEventRepository.findAll().stream()
+                .filter(event -> event.getAggregate() == aggregate && event.getAggregateId().equals(id))
+                .max(Comparator.comparing(ChangeEvent::getId))
+                .orElseThrow();
+    }
+
+    private JsonNode payload(ChangeEvent event) throws Exception {
+        return objectMapper.readTree(event.getPayload());
+    }
+}
@@ -0,0 +1,108 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import ru.hogwarts.school.dto.FieldSelection;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.profiling.SqlStatistics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Transactional
+@SpringBootTest
+@ActiveProfiles("test")
+class ProjectionRepositoryTest {
+
+    // Выборка по id одного студента; фоновые задачи в это время читают другие формы запросов
+    private static final Pattern SELECT_BY_ID =
+            Pattern.compile("(?i)select .* from students \\w+( left join .*)? where \\w+\\.id=\\?");
+
+    @Autowired
+    private ProjectionRepository projectionRepository;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private FacultyRepository facultyRepository;
+
+    @Autowired
+    private SqlStatistics sqlStatistics;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Faculty faculty;
+    private Student harry;
+    private Student luna;
+
+    @BeforeEach
+    void setUp() {
+        faculty = facultyRepository.save(new Faculty(null, "Gryffindor", "Red"));
+        harry = new Student(null, "Harry", 11);
+        harry.setFaculty(faculty);
+        harry = studentRepository.save(harry);
+        luna = studentRepository.save(new Student(null, "Luna", 12));
+        entityManager.flush();
+        entityManager.clear();
+        sqlStatistics.reset();
+    }
+
+    @Test
+    void find_shouldSelectOnlyRequestedColumns() {
+        List<Map<String, Object>> rows = find(harry.getId(), "name");
+
+        assertThat(rows).containsExactly(Map.of("name", "Harry"));
+        assertThat(selectShape())
+                .containsIgnoringCase(".name from students")
+                .doesNotContainIgnoringCase(".age")
+                .doesNotContainIgnoringCase(".version")
+                .doesNotContainIgnoringCase("join");
+    }
+
+    @Test
+    void find_shouldTakeAssociationIdFromForeignKeyWithoutJoin() {
+        List<Map<String, Object>> rows = find(harry.getId(), "id,faculty.id");
+
+        assertThat(rows).containsExactly(Map.of("id", harry.getId(), "faculty", Map.of("id", faculty.getId())));
+        assertThat(selectShape()).doesNotContainIgnoringCase("join");
+    }
+
+    @Test
+    void find_shouldReturnNullForMissingAssociation() {
+        List<Map<String, Object>> rows = find(luna.getId(), "name,faculty.name");
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("name", "Luna");
+        expected.put("faculty", null);
+        assertThat(rows).containsExactly(expected);
+        assertThat(selectShape()).containsIgnoringCase("left join");
+    }
+
+    private List<Map<String, Object>> find(long id, String fields) {
+        return projectionRepository.find(Student.class,
+                FieldSelection.parse(fields, FieldSelection.STUDENT_FIELDS),
+                (root, query, cb) -> cb.equal(root.get("id"), id), Sort.unsorted(), 0);
+    }
+
+    private String selectShape() {
+        List<String> shapes = sqlStatistics.top("calls", 500).stream()
+                .map(SqlStatistics.ShapeSnapshot::shape)
+                .filter(shape -> SELECT_BY_ID.matcher(shape).matches())
+                .toList();
+        assertThat(shapes).hasSize(1);
+        return shapes.get(0);
+    }
+}
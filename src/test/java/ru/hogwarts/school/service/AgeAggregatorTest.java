@@ -0,0 +1,74 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.AgeStatistics;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AgeAggregatorTest {
+
+    private static final int[] PERCENTILES = {50, 90, 100};
+
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void aggregate_shouldReturnSameResultSequentiallyAndInParallel() {
+        int[] ages = new int[100_000];
+        for (int i = 0; i < ages.length; i++) {
+            ages[i] = 16 + i % 10;
+        }
+
+        AgeStatistics sequential = new AgeAggregator(pool, Integer.MAX_VALUE).aggregate(ages, PERCENTILES);
+        AgeStatistics parallel = new AgeAggregator(pool, 100).aggregate(ages, PERCENTILES);
+
+        assertThat(parallel).isEqualTo(sequential);
+        assertThat(parallel.count()).isEqualTo(100_000);
+        assertThat(parallel.min()).isEqualTo(16);
+        assertThat(parallel.max()).isEqualTo(25);
+        assertThat(parallel.average()).isEqualTo(20.5);
+        assertThat(parallel.percentiles()).containsEntry(50, 20).containsEntry(90, 24).containsEntry(100, 25);
+    }
+
+    @Test
+    void aggregate_shouldSortWhenRangeIsTooWideForHistogram() {
+        int[] ages = {1, 1_000_000, 3, 2};
+
+        AgeStatistics statistics = new AgeAggregator(pool, 1).aggregate(ages, PERCENTILES);
+
+        assertThat(statistics.percentiles()).containsEntry(50, 2).containsEntry(100, 1_000_000);
+    }
+
+    @Test
+    void aggregate_shouldReturnEmptyStatisticsForEmptyInput() {
+        assertThat(new AgeAggregator(pool, 1).aggregate(new int[0], PERCENTILES))
+                .isEqualTo(AgeStatistics.empty());
+    }
+
+    @Test
+    void aggregateGrouped_shouldSplitBySortedKeys() {
+        long[] facultyIds = {1, 1, 1, 2, 2, 3};
+        int[] ages = {16, 17, 18, 20, 22, 30};
+
+        Map<Long, AgeStatistics> statistics = new AgeAggregator(pool, 1).aggregateGrouped(facultyIds, ages, PERCENTILES);
+
+        assertThat(statistics).containsOnlyKeys(1L, 2L, 3L);
+        assertThat(statistics.get(1L).average()).isEqualTo(17.0);
+        assertThat(statistics.get(2L).max()).isEqualTo(22);
+        assertThat(statistics.get(3L).count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,101 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Limit;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.service.AvatarReconciler.ScannedFile;
+import ru.hogwarts.school.storage.FileSystemAvatarStorage;
+import ru.hogwarts.school.storage.FsyncPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AvatarReconcilerTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void join_shouldFindOrphansAndDanglingRowsSkippingFreshFiles() {
+        Instant old = Instant.parse("2024-01-01T00:00:00Z");
+        Instant fresh = Instant.parse("2024-01-02T00:00:00Z");
+        AvatarFileRef shared1 = new AvatarFileRef(1L, 1L, "aa/1.jpg");
+        AvatarFileRef shared2 = new AvatarFileRef(2L, 2L, "aa/1.jpg");
+        AvatarFileRef missing = new AvatarFileRef(3L, 3L, "bb/3.jpg");
+
+        AvatarReconciler.Join join = new AvatarReconciler.Join(
+                List.of(new ScannedFile("aa/1.jpg", 10, old),
+                        new ScannedFile("aa/1.png", 20, old),
+                        new ScannedFile("cc/4.jpg", 30, fresh)));
+        join.accept("aa/1.jpg", shared2);
+        join.accept("bb/3.jpg", missing);
+        join.accept("aa/1.jpg", shared1);
+
+        AvatarReconciler.JoinResult result = join.result(Instant.parse("2024-01-01T12:00:00Z"));
+
+        assertThat(result.orphans()).extracting(ScannedFile::key).containsExactly("aa/1.png");
+        assertThat(result.dangling()).containsExactly(missing);
+    }
+
+    @Test
+    void reconcile_shouldReportOrphansLeftByExtensionChangeInReportMode() throws Exception {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.NONE);
+        String jpg = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        String png = storage.save(1L, "png", new ByteArrayInputStream(new byte[]{4, 5}));
+        age(storage, jpg);
+        age(storage, png);
+
+        AvatarRepository repository = mock(AvatarRepository.class);
+        when(repository.findFileRefsAfter(anyLong(), any(Limit.class))).thenReturn(List.of(
+                new AvatarFileRef(1L, 1L, png),
+                new AvatarFileRef(2L, 2L, "ab/cd/2.jpg")));
+        AvatarReconciler reconciler = new AvatarReconciler(storage, repository, null, null, false, 0, 2, 0);
+
+        AvatarReconciler.Report report = reconciler.reconcile();
+
+        assertThat(report.filesScanned()).isEqualTo(2);
+        assertThat(report.orphanSample()).containsExactly(jpg);
+        assertThat(report.orphanBytes()).isEqualTo(3);
+        assertThat(report.danglingSample()).containsExactly(2L);
+        assertThat(report.deletedFiles()).isZero();
+        assertThat(storage.exists(jpg)).isTrue();
+    }
+
+    @Test
+    void reconcile_shouldKeepOrphanRewrittenAfterScan() throws Exception {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.NONE);
+        String jpg = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        age(storage, jpg);
+
+        AvatarRepository repository = mock(AvatarRepository.class);
+        // Пока сверка читает таблицу, новая загрузка перезаписывает файл, но ещё не закоммитила запись
+        when(repository.findFileRefsAfter(anyLong(), any(Limit.class))).thenAnswer(invocation -> {
+            storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{4}));
+            return List.of();
+        });
+        AvatarReconciler reconciler = new AvatarReconciler(storage, repository, null, null, true, 60, 2, 0);
+
+        AvatarReconciler.Report report = reconciler.reconcile();
+
+        assertThat(report.orphanSample()).containsExactly(jpg);
+        assertThat(report.deletedFiles()).isZero();
+        assertThat(storage.exists(jpg)).isTrue();
+    }
+
+    private static void age(FileSystemAvatarStorage storage, String key) throws IOException {
+        Files.setLastModifiedTime(storage.path(key).orElseThrow(), FileTime.from(Instant.now().minusSeconds(7200)));
+    }
+}
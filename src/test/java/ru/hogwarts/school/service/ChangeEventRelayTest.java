@@ -0,0 +1,96 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+import ru.hogwarts.school.web.ChangeEventBroker;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeEventRelayTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    @Mock
+    private ChangeEventRepository changeEventRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private ChangeEventBroker broker;
+
+    private ChangeEventRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        relay = new ChangeEventRelay(changeEventRepository, transactionTemplate, broker, BATCH_SIZE, 168);
+    }
+
+    @Test
+    void relay_shouldAssignSequencesInBatchesInInsertOrder() {
+        ChangeEvent first = event(1L);
+        ChangeEvent second = event(2L);
+        ChangeEvent third = event(3L);
+        when(changeEventRepository.tryRelayLock(anyLong())).thenReturn(true);
+        when(changeEventRepository.findUnpublished(BATCH_SIZE))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of(third));
+        // Последовательность может вернуть номера пачки в любом порядке
+        when(changeEventRepository.nextSequences(2)).thenReturn(List.of(11L, 10L));
+        when(changeEventRepository.nextSequences(1)).thenReturn(List.of(12L));
+        when(changeEventRepository.findMaxSequence()).thenReturn(12L);
+
+        relay.relay();
+
+        assertThat(List.of(first.getSequence(), second.getSequence(), third.getSequence()))
+                .containsExactly(10L, 11L, 12L);
+        verify(transactionTemplate, times(2)).execute(any());
+        verify(broker).onPublished(12L);
+    }
+
+    @Test
+    void relay_shouldStopAfterEmptyBatch() {
+        when(changeEventRepository.tryRelayLock(anyLong())).thenReturn(true);
+        when(changeEventRepository.findUnpublished(BATCH_SIZE)).thenReturn(List.of());
+        when(changeEventRepository.findMaxSequence()).thenReturn(9L);
+
+        relay.relay();
+
+        verify(changeEventRepository, never()).nextSequences(anyInt());
+        verify(broker).onPublished(9L);
+    }
+
+    @Test
+    void relay_shouldSkipAssignmentWhenAnotherNodeHoldsLock() {
+        when(changeEventRepository.tryRelayLock(anyLong())).thenReturn(false);
+        when(changeEventRepository.findMaxSequence()).thenReturn(7L);
+
+        relay.relay();
+
+        verify(changeEventRepository, never()).findUnpublished(anyInt());
+        verify(changeEventRepository, never()).nextSequences(anyInt());
+        // Номера назначил другой узел, но ожидающих на этом узле всё равно нужно разбудить
+        verify(broker).onPublished(7L);
+    }
+
+    private static ChangeEvent event(long studentId) {
+        return new ChangeEvent(Aggregate.STUDENT, studentId, Operation.UPDATED, "{\"id\":" + studentId + "}");
+    }
+}
@@ -0,0 +1,125 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeOutboxTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private ChangeEventRepository changeEventRepository;
+
+    private ChangeOutbox changeOutbox;
+
+    @BeforeEach
+    void setUp() {
+        when(changeEventRepository.save(any(ChangeEvent.class))).then(returnsFirstArg());
+        changeOutbox = new ChangeOutbox(changeEventRepository, objectMapper);
+    }
+
+    @Test
+    void recordStudent_shouldWriteAllFieldsWithFacultyId() throws Exception {
+        Student student = new Student(1L, "Harry", 11);
+        student.setFaculty(new Faculty(2L, "Gryffindor", "Red"));
+
+        changeOutbox.recordStudent(student, Operation.CREATED);
+
+        ChangeEvent event = saved();
+        assertThat(event.getAggregate()).isEqualTo(Aggregate.STUDENT);
+        assertThat(event.getAggregateId()).isEqualTo(1L);
+        assertThat(event.getOperation()).isEqualTo(Operation.CREATED);
+        assertThat(payload(event)).isEqualTo(objectMapper.readTree(
+                "{\"id\":1,\"name\":\"Harry\",\"age\":11,\"facultyId\":2}"));
+    }
+
+    @Test
+    void recordStudent_shouldWriteNullFacultyId() throws Exception {
+        changeOutbox.recordStudent(new Student(1L, "Luna", 12), Operation.UPDATED);
+
+        JsonNode payload = payload(saved());
+        assertThat(payload.has("facultyId")).isTrue();
+        assertThat(payload.get("facultyId").isNull()).isTrue();
+    }
+
+    @Test
+    void recordFaculty_shouldWriteAllFields() throws Exception {
+        changeOutbox.recordFaculty(new Faculty(2L, "Gryffindor", "Red"), Operation.UPDATED);
+
+        ChangeEvent event = saved();
+        assertThat(event.getAggregate()).isEqualTo(Aggregate.FACULTY);
+        assertThat(payload(event)).isEqualTo(objectMapper.readTree(
+                "{\"id\":2,\"name\":\"Gryffindor\",\"color\":\"Red\"}"));
+    }
+
+    @Test
+    void recordAvatar_shouldWriteMetadataWithoutData() throws Exception {
+        Avatar avatar = new Avatar();
+        avatar.setMediaType("image/png");
+        avatar.setFileSize(1024);
+        avatar.setData(new byte[]{1, 2, 3});
+
+        changeOutbox.recordAvatar(1L, avatar);
+
+        ChangeEvent event = saved();
+        assertThat(event.getAggregate()).isEqualTo(Aggregate.AVATAR);
+        assertThat(event.getAggregateId()).isEqualTo(1L);
+        assertThat(event.getOperation()).isEqualTo(Operation.UPDATED);
+        assertThat(payload(event)).isEqualTo(objectMapper.readTree(
+                "{\"studentId\":1,\"mediaType\":\"image/png\",\"fileSize\":1024}"));
+    }
+
+    @Test
+    void recordPatch_shouldWriteOnlyChangedFieldsAndReplaceFacultyWithId() throws Exception {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        changes.put("age", 13);
+        changes.put("faculty", new Faculty(3L, "Ravenclaw", "Blue"));
+
+        changeOutbox.recordPatch(Aggregate.STUDENT, 1L, changes);
+
+        assertThat(payload(saved())).isEqualTo(objectMapper.readTree("{\"id\":1,\"age\":13,\"facultyId\":3}"));
+    }
+
+    @Test
+    void recordPatch_shouldWriteNullWhenFacultyCleared() throws Exception {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        changes.put("faculty", null);
+
+        changeOutbox.recordPatch(Aggregate.STUDENT, 1L, changes);
+
+        assertThat(payload(saved())).isEqualTo(objectMapper.readTree("{\"id\":1,\"facultyId\":null}"));
+    }
+
+    private ChangeEvent saved() {
+        ArgumentCaptor<ChangeEvent> captor = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeEventRepository).save(captor.capture());
+        return captor.getValue();
+    }
+
+    private JsonNode payload(ChangeEvent event) throws Exception {
+        return objectMapper.readTree(event.getPayload());
+    }
+}
@@ -0,0 +1,79 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DatasetArchiveTest {
+
+    @Test
+    void reader_shouldReturnSectionsInWrittenOrder() throws IOException {
+        byte[] students = new byte[200_000];
+        new Random(42).nextBytes(students);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (DatasetArchive.Writer writer = new DatasetArchive.Writer(archive)) {
+            try (OutputStream section = writer.table("faculty", "csv")) {
+                section.write("id,name\n1,Gryffindor\n".getBytes(StandardCharsets.UTF_8));
+            }
+            try (OutputStream section = writer.table("students", "binary")) {
+                section.write(students);
+            }
+            try (OutputStream section = writer.file("ab/1-cover.jpg", 1)) {
+                section.write(new byte[]{1, 2, 3});
+            }
+        }
+
+        DatasetArchive.Reader reader = new DatasetArchive.Reader(new ByteArrayInputStream(archive.toByteArray()));
+
+        DatasetArchive.Section faculty = reader.next();
+        assertThat(faculty.kind()).isEqualTo(DatasetArchive.Kind.TABLE);
+        assertThat(faculty.attribute()).isEqualTo("csv");
+        assertThat(new String(faculty.body().readAllBytes(), StandardCharsets.UTF_8))
+                .isEqualTo("id,name\n1,Gryffindor\n");
+        DatasetArchive.Section studentsSection = reader.next();
+        assertThat(studentsSection.body().readAllBytes()).isEqualTo(students);
+        DatasetArchive.Section file = reader.next();
+        assertThat(file.kind()).isEqualTo(DatasetArchive.Kind.FILE);
+        assertThat(file.name()).isEqualTo("ab/1-cover.jpg");
+        assertThat(file.studentId()).isEqualTo(1);
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    void next_shouldSkipUnreadRestOfSection() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (DatasetArchive.Writer writer = new DatasetArchive.Writer(archive)) {
+            try (OutputStream section = writer.table("faculty", "binary")) {
+                section.write(new byte[100_000]);
+            }
+            writer.table("students", "binary").close();
+        }
+
+        DatasetArchive.Reader reader = new DatasetArchive.Reader(new ByteArrayInputStream(archive.toByteArray()));
+        reader.next().body().read();
+
+        assertThat(reader.next().name()).isEqualTo("students");
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    void reader_shouldRejectForeignStream() {
+        assertThatThrownBy(() -> new DatasetArchive.Reader(
+                new ByteArrayInputStream("id,name\n".getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void extension_shouldFallBackForKeysWithoutOne() {
+        assertThat(DatasetTransfer.extension("3f/12-cover.png")).isEqualTo("png");
+        assertThat(DatasetTransfer.extension("seg.d/000001")).isEqualTo("bin");
+    }
+}
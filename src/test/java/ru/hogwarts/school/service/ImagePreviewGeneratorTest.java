@@ -0,0 +1,61 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImagePreviewGeneratorTest {
+
+    @Test
+    void generate_shouldScaleToTargetWidthKeepingAspectRatio() throws IOException {
+        ImagePreviewGenerator generator = new ImagePreviewGenerator(100, 10_000_000, 4, 0.85f);
+
+        BufferedImage preview = read(generator.generate(new ByteArrayInputStream(image(2000, 1000, "png"))));
+
+        assertThat(preview.getWidth()).isEqualTo(100);
+        assertThat(preview.getHeight()).isEqualTo(50);
+    }
+
+    @Test
+    void generate_shouldCropVeryTallImages() throws IOException {
+        ImagePreviewGenerator generator = new ImagePreviewGenerator(100, 10_000_000, 4, 0.85f);
+
+        BufferedImage preview = read(generator.generate(new ByteArrayInputStream(image(200, 2000, "jpg"))));
+
+        assertThat(preview.getHeight()).isEqualTo(400);
+    }
+
+    @Test
+    void generate_shouldRejectImagesAboveThePixelLimit() throws IOException {
+        ImagePreviewGenerator generator = new ImagePreviewGenerator(100, 1_000, 4, 0.85f);
+        byte[] image = image(100, 100, "png");
+
+        assertThatThrownBy(() -> generator.generate(new ByteArrayInputStream(image)))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void generate_shouldRejectNonImages() {
+        ImagePreviewGenerator generator = new ImagePreviewGenerator(100, 1_000, 4, 0.85f);
+
+        assertThatThrownBy(() -> generator.generate(new ByteArrayInputStream(new byte[]{1, 2, 3})))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, baos);
+        return baos.toByteArray();
+    }
+
+    private static BufferedImage read(byte[] data) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(data));
+    }
+}
@@ -0,0 +1,30 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MergePatchesTest {
+
+    @Test
+    void stringValue_shouldClearFieldOnNull() {
+        assertThat(MergePatches.stringValue("name", null)).isNull();
+        assertThat(MergePatches.stringValue("name", "Ron")).isEqualTo("Ron");
+    }
+
+    @Test
+    void intValue_shouldRejectRemovingRequiredField() {
+        assertThatThrownBy(() -> MergePatches.intValue("age", null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("age");
+    }
+
+    @Test
+    void referenceId_shouldUnlinkOnNull() {
+        assertThat(MergePatches.referenceId("faculty", null)).isNull();
+        assertThat(MergePatches.referenceId("faculty", Map.of("id", 2))).isEqualTo(2L);
+    }
+}
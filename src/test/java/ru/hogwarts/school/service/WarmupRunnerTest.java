@@ -0,0 +1,38 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.WarmupReport.RequestLatency;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WarmupRunnerTest {
+
+    @Test
+    void expand_shouldSubstituteSampleValues() {
+        Map<String, String> variables = Map.of("studentId", "42", "studentIds", "1,2,3");
+
+        assertThat(WarmupRunner.expand("/student/{studentId}/faculty", variables)).isEqualTo("/student/42/faculty");
+        assertThat(WarmupRunner.expand("/avatar/previews?studentIds={studentIds}", variables))
+                .isEqualTo("/avatar/previews?studentIds=1,2,3");
+        assertThat(WarmupRunner.expand("/student/count", variables)).isEqualTo("/student/count");
+    }
+
+    @Test
+    void expand_shouldSkipRequestsWithoutSampleData() {
+        assertThat(WarmupRunner.expand("/faculty/{facultyId}", Map.of())).isNull();
+    }
+
+    @Test
+    void requestLatency_shouldCompareFirstCallWithWarmedMedian() {
+        long[] nanos = {50_000_000, 9_000_000, 5_000_000, 3_000_000, 2_000_000, 1_000_000, 2_000_000, 3_000_000};
+
+        RequestLatency latency = RequestLatency.of("/student/1", 200, nanos);
+
+        assertThat(latency.calls()).isEqualTo(8);
+        assertThat(latency.firstMicros()).isEqualTo(50_000);
+        assertThat(latency.warmedMicros()).isEqualTo(3_000);
+        assertThat(latency.speedup()).isGreaterThan(16);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileSystemAvatarStorageTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void save_shouldWriteIntoShardedDirectoryAndReplaceAtomically() throws IOException {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.FILE);
+
+        String first = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        String second = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{4, 5}));
+
+        assertThat(second).isEqualTo(first).matches("[0-9a-f]{2}/[0-9a-f]{2}/1\\.jpg");
+        assertThat(storage.size(second)).isEqualTo(2);
+        try (InputStream is = storage.open(second)) {
+            assertThat(is.readAllBytes()).containsExactly(4, 5);
+        }
+        try (var temp = Files.list(root.resolve(".tmp"))) {
+            assertThat(temp).isEmpty();
+        }
+    }
+
+    @Test
+    void save_shouldDeduplicateIdenticalContent() throws IOException {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, true, FsyncPolicy.NONE);
+
+        String first = storage.save(1L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+        String second = storage.save(2L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+
+        assertThat(second).isEqualTo(first);
+        assertThat(storage.exists(first)).isTrue();
+    }
+
+    @Test
+    void save_shouldRefreshModificationTimeOnDeduplicatedWrite() throws IOException {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, true, FsyncPolicy.NONE);
+        String key = storage.save(1L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+        Files.setLastModifiedTime(storage.resolve(key), old);
+
+        storage.save(2L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+
+        // Сверка не примет файл за давно забытый, пока ссылка новой загрузки не закоммичена
+        assertThat(Files.getLastModifiedTime(storage.resolve(key))).isGreaterThan(old);
+        assertThat(storage.sharesKeys()).isTrue();
+        assertThat(new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.NONE).sharesKeys()).isFalse();
+    }
+
+    @Test
+    void stage_shouldLeaveExistingKeysUntilPublishedAndDiscardOnlyStagedCopy() throws IOException {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, true, FsyncPolicy.NONE);
+        String shared = storage.save(1L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+
+        // Импорт с тем же содержимым откатился: общий файл другого студента должен остаться
+        StagedAvatar rolledBack = storage.stage(2L, "png", new ByteArrayInputStream(new byte[]{7, 7, 7}));
+        assertThat(rolledBack.key()).isEqualTo(shared);
+        storage.discard(rolledBack);
+        assertThat(storage.exists(shared)).isTrue();
+
+        StagedAvatar staged = storage.stage(3L, "png", new ByteArrayInputStream(new byte[]{8}));
+        assertThat(storage.exists(staged.key())).isFalse();
+        storage.publish(staged);
+        try (InputStream is = storage.open(staged.key())) {
+            assertThat(is.readAllBytes()).containsExactly(8);
+        }
+        assertThat(storage.exists(staged.stagingKey())).isFalse();
+    }
+
+    @Test
+    void openRange_shouldReadOnlyRequestedBytesFromPosition() throws IOException {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.NONE);
+        String key = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{0, 1, 2, 3, 4, 5}));
+
+        try (InputStream range = storage.openRange(key, 2, 3)) {
+            assertThat(range.readAllBytes()).containsExactly(2, 3, 4);
+            assertThat(range.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void resolve_shouldKeepLegacyPathsAndRejectTraversal() {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(Path.of("./avatars"), 2, false, FsyncPolicy.NONE);
+
+        assertThat(storage.resolve("./avatars/1.jpg")).isEqualTo(Path.of("avatars/1.jpg"));
+        assertThatThrownBy(() -> storage.resolve("../etc/passwd"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void resolve_shouldRejectAbsolutePathsOutsideRoot() {
+        FileSystemAvatarStorage storage = new FileSystemAvatarStorage(root, 2, false, FsyncPolicy.NONE);
+        Path inside = root.toAbsolutePath().resolve("ab/cd/1.jpg");
+
+        assertThat(storage.resolve(inside.toString())).isEqualTo(inside);
+        assertThat(storage.normalizeKey(inside.toString())).isEqualTo("ab/cd/1.jpg");
+        assertThatThrownBy(() -> storage.resolve("/etc/passwd"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> storage.resolve(root.toAbsolutePath().resolve("../outside.jpg").toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(storage.normalizeKey("/etc/passwd")).isNull();
+        assertThat(storage.normalizeKey("../etc/passwd")).isNull();
+    }
+}
@@ -0,0 +1,131 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3AvatarStorageTest {
+
+    private final S3Client client = mock(S3Client.class);
+    private final S3AvatarStorage storage = new S3AvatarStorage(client, null, "avatars", "hogwarts",
+            S3AvatarStorage.MIN_PART_SIZE, 2, Duration.ofMinutes(5), 100, Duration.ofMinutes(1));
+
+    @Test
+    void save_shouldUseSinglePutForSmallFilesAndCacheMetadata() throws IOException {
+        String key = storage.save(7L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(client).putObject(request.capture(), any(RequestBody.class));
+        assertThat(key).matches("hogwarts/[0-9a-f]{2}/7-[0-9a-f-]{36}\\.jpg");
+        assertThat(request.getValue().key()).isEqualTo(key);
+        assertThat(request.getValue().contentType()).isEqualTo("image/jpeg");
+        verify(client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+
+        assertThat(storage.exists(key)).isTrue();
+        assertThat(storage.size(key)).isEqualTo(3);
+        verify(client, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    void save_shouldUploadLargeFilesInParallelParts() throws IOException {
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation ->
+                UploadPartResponse.builder().eTag("etag-" + invocation.<UploadPartRequest>getArgument(0).partNumber()).build());
+        byte[] content = new byte[S3AvatarStorage.MIN_PART_SIZE * 2 + 10];
+
+        String key = storage.save(7L, "png", new ByteArrayInputStream(content));
+
+        verify(client, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(complete.capture());
+        assertThat(complete.getValue().uploadId()).isEqualTo("upload-1");
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(CompletedPart::partNumber, CompletedPart::eTag)
+                .containsExactly(
+                        tuple(1, "etag-1"),
+                        tuple(2, "etag-2"),
+                        tuple(3, "etag-3"));
+        assertThat(storage.size(key)).isEqualTo(content.length);
+    }
+
+    @Test
+    void save_shouldAbortMultipartUploadWhenPartFails() {
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-2").build());
+        when(client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().statusCode(500).message("boom").build());
+
+        assertThatThrownBy(() -> storage.save(7L, "png",
+                new ByteArrayInputStream(new byte[S3AvatarStorage.MIN_PART_SIZE + 1])))
+                .isInstanceOf(IOException.class);
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    /**
+     * Проверка на живом S3-совместимом хранилище, например
+     * {@code docker run -p 9000:9000 minio/minio server /data} и
+     * {@code AVATAR_S3_TEST_ENDPOINT=http://localhost:9000}. Бакет {@code avatars-test} должен существовать.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "AVATAR_S3_TEST_ENDPOINT", matches = ".+")
+    void roundTrip_shouldWorkAgainstS3CompatibleEndpoint() throws IOException {
+        URI endpoint = URI.create(System.getenv("AVATAR_S3_TEST_ENDPOINT"));
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(AwsBasicCredentials.create(
+                System.getenv().getOrDefault("AVATAR_S3_TEST_ACCESS_KEY", "minioadmin"),
+                System.getenv().getOrDefault("AVATAR_S3_TEST_SECRET_KEY", "minioadmin")));
+        S3Configuration pathStyle = S3Configuration.builder().pathStyleAccessEnabled(true).build();
+        S3Client realClient = S3Client.builder().endpointOverride(endpoint).region(Region.US_EAST_1)
+                .credentialsProvider(credentials).serviceConfiguration(pathStyle).build();
+        S3Presigner presigner = S3Presigner.builder().endpointOverride(endpoint).region(Region.US_EAST_1)
+                .credentialsProvider(credentials).serviceConfiguration(pathStyle).build();
+
+        try (S3AvatarStorage minio = new S3AvatarStorage(realClient, presigner, "avatars-test", "it/",
+                S3AvatarStorage.MIN_PART_SIZE, 4, Duration.ofMinutes(1), 10, Duration.ofSeconds(1))) {
+            String key = minio.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+
+            try (InputStream range = minio.openRange(key, 1, 3)) {
+                assertThat(range.readAllBytes()).containsExactly(2, 3, 4);
+            }
+            assertThat(minio.downloadUrl(key).orElseThrow().toString()).contains(key);
+
+            minio.delete(key);
+            assertThat(minio.exists(key)).isFalse();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentAvatarStorageTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void save_shouldServeLatestVersionAsMappedSlice() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+            String key = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{4, 5}));
+
+            assertThat(key).isEqualTo("seg:1.jpg");
+            assertThat(bytes(storage.map(key).orElseThrow())).containsExactly(4, 5);
+            assertThat(storage.size(key)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void load_shouldRestoreIndexAndRespectTombstones() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1}));
+            storage.save(2L, "png", new ByteArrayInputStream(new byte[]{2}));
+            storage.delete("seg:1.jpg");
+        }
+
+        try (SegmentAvatarStorage storage = open()) {
+            assertThat(storage.exists("seg:1.jpg")).isFalse();
+            assertThat(bytes(storage.map("seg:2.png").orElseThrow())).containsExactly(2);
+        }
+    }
+
+    @Test
+    void delete_shouldKeepNewerAvatarWithOtherExtension() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            String jpg = storage.save(12L, "jpg", new ByteArrayInputStream(new byte[]{1}));
+            String png = storage.save(12L, "png", new ByteArrayInputStream(new byte[]{2}));
+
+            // Так AvatarService удаляет прежний ключ после фиксации новой загрузки
+            storage.delete(jpg);
+
+            assertThat(storage.exists(jpg)).isFalse();
+            assertThat(storage.exists(png)).isTrue();
+            assertThat(bytes(storage.map(png).orElseThrow())).containsExactly(2);
+        }
+
+        try (SegmentAvatarStorage storage = open()) {
+            assertThat(bytes(storage.map("seg:12.png").orElseThrow())).containsExactly(2);
+        }
+    }
+
+    @Test
+    void stage_shouldKeepCurrentRecordUntilPublished() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            String key = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{1}));
+
+            StagedAvatar rolledBack = storage.stage(1L, "jpg", new ByteArrayInputStream(new byte[]{2}));
+            storage.discard(rolledBack);
+            assertThat(bytes(storage.map(key).orElseThrow())).containsExactly(1);
+
+            StagedAvatar staged = storage.stage(1L, "jpg", new ByteArrayInputStream(new byte[]{3}));
+            assertThat(staged.key()).isEqualTo(key);
+            assertThat(bytes(storage.map(key).orElseThrow())).containsExactly(1);
+            storage.publish(staged);
+            assertThat(bytes(storage.map(key).orElseThrow())).containsExactly(3);
+        }
+    }
+
+    @Test
+    void openRange_shouldServeSliceOfRecord() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            String key = storage.save(1L, "jpg", new ByteArrayInputStream(new byte[]{0, 1, 2, 3, 4, 5}));
+
+            try (InputStream range = storage.openRange(key, 1, 4)) {
+                assertThat(range.readAllBytes()).containsExactly(1, 2, 3, 4);
+            }
+        }
+    }
+
+    @Test
+    void compact_shouldDropSupersededSegments() throws IOException {
+        try (SegmentAvatarStorage storage = open()) {
+            byte[] payload = new byte[300];
+            for (int i = 0; i < 6; i++) {
+                payload[0] = (byte) i;
+                storage.save(1L, "jpg", new ByteArrayInputStream(payload));
+            }
+            storage.save(2L, "jpg", new ByteArrayInputStream(new byte[]{9}));
+            int segmentsBefore = storage.getSegmentLiveRatios().size();
+
+            storage.compact();
+
+            assertThat(storage.getSegmentLiveRatios().size()).isLessThan(segmentsBefore);
+            assertThat(bytes(storage.map("seg:1.jpg").orElseThrow())[0]).isEqualTo((byte) 5);
+            assertThat(bytes(storage.map("seg:2.jpg").orElseThrow())).containsExactly(9);
+        }
+
+        try (SegmentAvatarStorage storage = open()) {
+            assertThat(bytes(storage.map("seg:1.jpg").orElseThrow())[0]).isEqualTo((byte) 5);
+        }
+    }
+
+    private SegmentAvatarStorage open() throws IOException {
+        return new SegmentAvatarStorage(directory, SEGMENT_SIZE, 0.5, FsyncPolicy.NONE, 0);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
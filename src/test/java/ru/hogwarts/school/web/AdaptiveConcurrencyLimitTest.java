@@ -0,0 +1,78 @@
+package ru.hogwarts.school.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    void tryAcquire_shouldRejectWhenLimitReached() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 1.5, 0.2);
+
+        AdaptiveConcurrencyLimit.Permit first = limit.tryAcquire();
+        AdaptiveConcurrencyLimit.Permit second = limit.tryAcquire();
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(limit.tryAcquire()).isNull();
+        assertThat(limit.getRejected()).isEqualTo(1);
+
+        first.success();
+        first.success();
+        assertThat(limit.getInFlight()).isEqualTo(1);
+        assertThat(limit.tryAcquire()).isNotNull();
+    }
+
+    @Test
+    void onSample_shouldGrowLimitWhileLatencyIsStableAndLimitIsUsed() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 1.5, 0.2);
+
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASELINE, limit.getLimit());
+        }
+
+        assertThat(limit.getLimit()).isGreaterThan(10);
+    }
+
+    @Test
+    void onSample_shouldNotGrowLimitWhenMostlyIdle() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 1.5, 0.2);
+
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASELINE, 1);
+        }
+
+        assertThat(limit.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void onSample_shouldShrinkLimitWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 1, 100, 1.5, 0.2);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(BASELINE, 1);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(BASELINE * 10, limit.getLimit());
+        }
+
+        assertThat(limit.getLimit()).isLessThan(50);
+    }
+
+    @Test
+    void dropped_shouldBackOffButNotBelowMinimum() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 5, 100, 1.5, 0.2);
+
+        for (int i = 0; i < 20; i++) {
+            limit.tryAcquire().dropped();
+        }
+
+        assertThat(limit.getLimit()).isEqualTo(5);
+        assertThat(limit.getInFlight()).isZero();
+    }
+}
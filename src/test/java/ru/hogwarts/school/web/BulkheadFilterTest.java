@@ -0,0 +1,53 @@
+package ru.hogwarts.school.web;
+
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkheadFilterTest {
+
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 10, 1.5, 0.2);
+    private final BulkheadFilter filter = new BulkheadFilter(Map.of(BulkheadFilter.Group.API, limit));
+
+    @Test
+    void doFilter_shouldNotCutLimitOnServerErrorResponse() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), respond(500));
+
+        assertThat(limit.getLimit()).isEqualTo(10);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void doFilter_shouldCutLimitOnServiceUnavailable() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), respond(503));
+
+        assertThat(limit.getLimit()).isLessThan(10);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void doFilter_shouldCutLimitWhenChainThrows() {
+        FilterChain failing = (request, response) -> {
+            throw new IllegalStateException("boom");
+        };
+
+        assertThatThrownBy(() -> filter.doFilter(request(), new MockHttpServletResponse(), failing))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(limit.getLimit()).isLessThan(10);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/student/1");
+    }
+
+    private static FilterChain respond(int status) {
+        return (request, response) -> ((MockHttpServletResponse) response).setStatus(status);
+    }
+}
@@ -0,0 +1,106 @@
+package ru.hogwarts.school.web;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.hogwarts.school.dto.ChangeEventDto;
+import ru.hogwarts.school.model.ChangeEvent;
+import ru.hogwarts.school.model.ChangeEvent.Aggregate;
+import ru.hogwarts.school.model.ChangeEvent.Operation;
+import ru.hogwarts.school.repository.ChangeEventRepository;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeEventBrokerTest {
+
+    @Mock
+    private ChangeEventRepository changeEventRepository;
+
+    private ChangeEventBroker broker;
+
+    @BeforeEach
+    void setUp() {
+        broker = new ChangeEventBroker(changeEventRepository, 100, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.shutdown();
+    }
+
+    @Test
+    void poll_shouldReturnAvailableEventsImmediately() {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(5L), any(Limit.class)))
+                .thenReturn(List.of(event(6L, 1L), event(7L, 2L)));
+
+        DeferredResult<List<ChangeEventDto>> result = broker.poll(5L, 10, 1_000);
+
+        assertThat(result.hasResult()).isTrue();
+        assertThat(sequences(result)).containsExactly(6L, 7L);
+    }
+
+    @Test
+    void poll_shouldWaitUntilRelayPublishesNewEvents() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(7L), any(Limit.class)))
+                .thenReturn(List.of())
+                .thenReturn(List.of(event(8L, 3L)));
+
+        broker.onPublished(7L);
+        DeferredResult<List<ChangeEventDto>> result = broker.poll(7L, 10, 10_000);
+        assertThat(result.hasResult()).isFalse();
+
+        broker.onPublished(8L);
+
+        awaitResult(result);
+        assertThat(sequences(result)).containsExactly(8L);
+    }
+
+    @Test
+    void onPublished_shouldReadNewEventsOnceForAllWaiters() throws Exception {
+        when(changeEventRepository.findBySequenceGreaterThanOrderBySequence(eq(7L), any(Limit.class)))
+                .thenReturn(List.of())
+                .thenReturn(List.of())
+                .thenReturn(List.of(event(8L, 3L), event(9L, 4L)));
+
+        broker.onPublished(7L);
+        DeferredResult<List<ChangeEventDto>> first = broker.poll(7L, 10, 10_000);
+        DeferredResult<List<ChangeEventDto>> second = broker.poll(7L, 1, 10_000);
+
+        broker.onPublished(9L);
+
+        awaitResult(first);
+        awaitResult(second);
+        assertThat(sequences(first)).containsExactly(8L, 9L);
+        assertThat(sequences(second)).containsExactly(8L);
+        verify(changeEventRepository, times(3)).findBySequenceGreaterThanOrderBySequence(eq(7L), any(Limit.class));
+    }
+
+    private static ChangeEvent event(long sequence, long studentId) {
+        ChangeEvent event = new ChangeEvent(Aggregate.STUDENT, studentId, Operation.UPDATED, "{\"id\":" + studentId + "}");
+        event.setSequence(sequence);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> sequences(DeferredResult<List<ChangeEventDto>> result) {
+        return ((List<ChangeEventDto>) result.getResult()).stream().map(ChangeEventDto::sequence).toList();
+    }
+
+    private static void awaitResult(DeferredResult<?> result) throws InterruptedException {
+        for (int i = 0; i < 200 && !result.hasResult(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(result.hasResult()).isTrue();
+    }
+}
@@ -0,0 +1,61 @@
+package ru.hogwarts.school.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.hogwarts.school.cache.SingleFlight;
+import ru.hogwarts.school.controller.FacultyController;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.service.FacultyService;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class ConditionalGetInterceptorTest {
+
+    private MockMvc mockMvc;
+    private TableVersions tableVersions;
+
+    @Mock
+    private FacultyService facultyService;
+
+    @BeforeEach
+    void setUp() {
+        tableVersions = new TableVersions();
+        mockMvc = MockMvcBuilders.standaloneSetup(new FacultyController(facultyService, new SingleFlight(1000), tableVersions))
+                .addInterceptors(new ConditionalGetInterceptor(tableVersions))
+                .build();
+    }
+
+    @Test
+    void get_shouldReturnNotModifiedWithoutCallingServiceWhenEtagMatches() throws Exception {
+        String etag = tableVersions.etag(TableVersions.Table.FACULTY);
+
+        mockMvc.perform(get("/faculty/color/Red").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag));
+
+        verifyNoInteractions(facultyService);
+    }
+
+    @Test
+    void get_shouldReturnBodyWhenTableChanged() throws Exception {
+        when(facultyService.getFacultiesByColor(anyString())).thenReturn(List.of(new Faculty(1L, "Gryffindor", "Red")));
+        String etag = tableVersions.etag(TableVersions.Table.FACULTY);
+        tableVersions.bump(TableVersions.Table.FACULTY);
+
+        mockMvc.perform(get("/faculty/color/Red").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", tableVersions.etag(TableVersions.Table.FACULTY)));
+    }
+}